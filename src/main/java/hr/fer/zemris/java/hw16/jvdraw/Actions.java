@@ -1,31 +1,57 @@
 package hr.fer.zemris.java.hw16.jvdraw;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Rectangle;
-import java.awt.RenderingHints;
+import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
 
-import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingObjectListModel;
 import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingCanvasModel;
+import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingPreview;
+import hr.fer.zemris.java.hw16.jvdraw.components.LazyDrawingModel;
+import hr.fer.zemris.java.hw16.jvdraw.components.StatusBar;
+import hr.fer.zemris.java.hw16.jvdraw.index.TupleHashSet;
+import hr.fer.zemris.java.hw16.jvdraw.io.DrawingFormat;
+import hr.fer.zemris.java.hw16.jvdraw.io.DrawingJournal;
+import hr.fer.zemris.java.hw16.jvdraw.io.ReadMonitor;
+import hr.fer.zemris.java.hw16.jvdraw.io.RecordFile;
+import hr.fer.zemris.java.hw16.jvdraw.io.ThumbnailCache;
 import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
-import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeFactory;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
 
 /**
  * The actions utility class. Contains a single constructor that accepts the
@@ -34,17 +60,36 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeFactory;
  * <ul>
  * <li>{@link #newAction}, resets the {@code JVDraw} frame using the
  * {@link JVDraw#reset()} method.
- * <li>{@link #openAction}, opens an existing document, parses each line as a
- * shape and adds it to the canvas model of {@code JVDraw}.
- * <li>{@link #openMultipleAction}, opens multiple existing documents, parses
- * each line of each document as a shape and adds all shapes to the canvas model
- * of {@code JVDraw}.
- * <li>{@link #saveAction}, saves the current image as a serialized text to its
- * file path.
- * <li>{@link #saveAsAction}, saves the current image as a serialized text to a
- * user-specified path.
+ * <li>{@link #openAction}, opens an existing document in any of the
+ * {@link DrawingFormat drawing formats} and adds its shapes to the canvas
+ * model of {@code JVDraw} in the background.
+ * <li>{@link #openMultipleAction}, opens multiple existing documents in the
+ * background and adds all their shapes to the canvas model of {@code JVDraw},
+ * optionally {@link #setDeduplicating(boolean) without duplicate shapes}.
+ * <li>{@link #browseAction}, lists the shapes of an existing text document
+ * in a separate window, reading them from the document on demand.
+ * <li>{@link #saveAction}, saves the current image to its file path, in the
+ * format given by the extension of the path.
+ * <li>{@link #saveAsAction}, saves the current image to a user-specified path.
+ * <li>{@link #saveBinaryAction}, saves the current image in the binary format
+ * to a user-specified path.
+ * <li>{@link #saveRecordsAction}, saves the current image in the fixed-width
+ * record format to a user-specified path. Later saves of a record document
+ * rewrite only the records of changed shapes in a {@link RecordFile}.
+ * <li>{@link #saveCompressedAction}, saves the current image compressed to a
+ * user-specified path, with the {@link #setCompressionLevel(int) selected}
+ * compression level.
+ * <li>{@link #setJournaling(boolean) journaled} saves, which append only the
+ * changes since the previous save to a {@link DrawingJournal}.
+ * <li>{@link #setWatching(boolean) followed} documents, whose changes by
+ * other programs are applied to the drawing by a {@link DocumentWatcher}.
+ * <li>{@link #convertAction}, converts a document between the text and the
+ * binary format.
  * <li>{@link #exportAction}, exports the current drawing as an image file.
  * <li>{@link #exitAction}, exits the application.
+ * <li>{@link #bringToFrontAction}, {@link #bringForwardAction},
+ * {@link #sendBackwardAction} and {@link #sendToBackAction}, change the
+ * drawing order of the selected shapes.
  * <li>{@link #aboutAction}, shows information about this program.
  * </ul>
  *
@@ -52,15 +97,35 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeFactory;
  */
 public class Actions {
 
-    /** Extension that each saved file will contain at the end. */
-    private static final String EXTENSION = ".jvd";
-
     /** Frame to which actions act upon. */
     private JVDraw frame;
 
-    /** Cached instance of file chooser for remembering last place. */
+    /**
+     * Cached instance of file chooser for remembering last place, which
+     * previews the selected drawings.
+     */
     private JFileChooser fileChooser;
 
+    /** Loader of the documents that are being opened, or null. */
+    private SwingWorker<?, ?> loader;
+
+    /** Level with which compressed documents are saved. */
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    /** Indicates whether duplicate shapes are removed from imported documents. */
+    private boolean deduplicating;
+
+    /** Indicates whether saves append changes to a journal. */
+    private boolean journaling;
+    /** Journal of the current document, or null. */
+    private DrawingJournal journal;
+    /** Record file of the current document, or null. */
+    private RecordFile records;
+
+    /** Indicates whether changes of the document by other programs are followed. */
+    private boolean watching;
+    /** Watcher of the current document, or null. */
+    private DocumentWatcher watcher;
+
     /**
      * Constructs an instance of {@code Actions} with the specified
      * {@code JVDraw frame}.
@@ -70,6 +135,107 @@ public class Actions {
     public Actions(JVDraw frame) {
         this.frame = Objects.requireNonNull(frame);
         fileChooser = new JFileChooser();
+        fileChooser.setAccessory(new JDrawingPreview(fileChooser, new ThumbnailCache()));
+    }
+
+    /**
+     * Returns the level with which compressed documents are saved.
+     *
+     * @return the compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the level with which compressed documents are saved. Lower levels
+     * are faster, while higher levels produce smaller documents.
+     *
+     * @param compressionLevel compression level, from 0 to 9 or
+     *        {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IllegalArgumentException if the compression level is invalid
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Returns <tt>true</tt> if duplicate shapes are removed from documents
+     * opened with the {@link #openMultipleAction}.
+     *
+     * @return true if imported documents are deduplicated
+     */
+    public boolean isDeduplicating() {
+        return deduplicating;
+    }
+
+    /**
+     * Sets whether duplicate shapes are removed from documents opened with
+     * the {@link #openMultipleAction}. Shapes are duplicates if they have the
+     * same type, geometry and colors. Only the first of the duplicates, in
+     * the order of the documents and of their shapes, is imported, so the
+     * shapes that remain keep their drawing order.
+     *
+     * @param deduplicating true if imported documents are to be deduplicated
+     */
+    public void setDeduplicating(boolean deduplicating) {
+        this.deduplicating = deduplicating;
+    }
+
+    /**
+     * Returns <tt>true</tt> if saves append changes to a journal.
+     *
+     * @return true if saves are journaled
+     */
+    public boolean isJournaling() {
+        return journaling;
+    }
+
+    /**
+     * Sets whether saves append changes to a journal. A journaled save of a
+     * document that was saved or opened with journaling on only appends the
+     * changes made since the previous save to the {@link DrawingJournal} of
+     * the document, instead of writing the whole document.
+     *
+     * @param journaling true if saves are to be journaled
+     */
+    public void setJournaling(boolean journaling) {
+        this.journaling = journaling;
+        if (!journaling && journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if changes that other programs make to the
+     * current document are applied to the drawing.
+     *
+     * @return true if the document is followed
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Sets whether changes that other programs make to the current document
+     * are applied to the drawing by a {@link DocumentWatcher}, as long as the
+     * drawing has no unsaved changes.
+     *
+     * @param watching true if the document is to be followed
+     */
+    public void setWatching(boolean watching) {
+        this.watching = watching;
+
+        Path file = frame.getCanvasModel().getFilePath();
+        if (watching && file != null) {
+            startWatching(file);
+        } else {
+            stopWatching();
+        }
     }
 
     /**
@@ -80,12 +246,17 @@ public class Actions {
 
         @Override
         public void actionPerformed(ActionEvent e) {
+            cancelLoading();
             frame.reset();
+            closeJournal();
+            stopWatching();
         }
     };
 
     /**
-     * Action that opens an existing document and loads it.
+     * Action that opens an existing document and loads it in the background.
+     * Shapes appear on the canvas as they are read, and the load can be
+     * cancelled from the status bar.
      */
     public Action openAction = new AbstractAction("Open") {
         private static final long serialVersionUID = 1L;
@@ -98,37 +269,22 @@ public class Actions {
             if (retVal != JFileChooser.APPROVE_OPTION) {
                 return;
             }
+            cancelLoading();
             frame.reset();
+            closeJournal();
+            stopWatching();
 
             File filename = fileChooser.getSelectedFile();
             Path filepath = filename.toPath().toAbsolutePath();
 
-            JDrawingCanvasModel model = frame.getCanvasModel();
-
-            try {
-                // This could be a good task for the SwingWorker
-                List<String> lines = Files.readAllLines(filepath, StandardCharsets.UTF_8);
-                List<GeometricalObject> shapes = ShapeFactory.parse(lines);
-                shapes.forEach(model::add);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(
-                    frame,
-                    "An error occured while reading file " + filepath + ": " + ex.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE
-                );
-                return;
-            }
-
-            model.setFilePath(filepath);
-            model.setChanged(false);
-
-            frame.setTitle(model.getName() + " - " + JVDraw.FRAME_TITLE);
+            startLoading(new DocumentLoader(filepath), "Loading " + filepath.getFileName());
         }
     };
 
     /**
-     * Action that opens multiple existing documents and loads them all into one image.
+     * Action that opens multiple existing documents and loads them all into
+     * one image in the background. Documents are read concurrently and
+     * appended in the order they were selected in.
      */
     // try loading this file: http://pastebin.com/KaWXVepe
     // it was saved from 9 separate files containing generated lines
@@ -142,24 +298,51 @@ public class Actions {
             fileChooser.setDialogTitle("Open multiple files");
 
             int retVal = fileChooser.showOpenDialog(frame);
-            if (retVal != JFileChooser.APPROVE_OPTION) {
+            File[] filenames = fileChooser.getSelectedFiles();
+
+            fileChooser.setMultiSelectionEnabled(false);
+            fileChooser.setSelectedFile(new File(""));
+            if (retVal != JFileChooser.APPROVE_OPTION || filenames.length == 0) {
                 return;
             }
+            cancelLoading();
 
-            File[] filenames = fileChooser.getSelectedFiles();
+            Path[] filepaths = new Path[filenames.length];
+            for (int i = 0; i < filenames.length; i++) {
+                filepaths[i] = filenames[i].toPath().toAbsolutePath();
+            }
 
-            JDrawingCanvasModel model = frame.getCanvasModel();
+            startLoading(new DocumentImporter(filepaths, deduplicating), "Importing " + filepaths.length + " files");
+        }
+    };
+
+    /**
+     * Action that opens an existing text document in a separate window,
+     * listing its shapes without loading the document. Shapes are read from
+     * the document only as they are scrolled into view, so even the largest
+     * documents are shown at once.
+     */
+    public Action browseAction = new AbstractAction("Browse") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            fileChooser.setDialogTitle("Browse file");
+
+            int retVal = fileChooser.showOpenDialog(frame);
+            if (retVal != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+
+            Path filepath = fileChooser.getSelectedFile().toPath().toAbsolutePath();
 
-            Path filepath = null;
+            LazyDrawingModel model;
             try {
-                // This would be a great task for the SwingWorker
-                for (File file : filenames) {
-                    filepath = file.toPath().toAbsolutePath();
-                    List<String> lines = Files.readAllLines(filepath, StandardCharsets.UTF_8);
-                    List<GeometricalObject> shapes = ShapeFactory.parse(lines);
-                    shapes.forEach(model::add);
+                if (DrawingFormat.isCompressed(filepath) || DrawingFormat.detect(filepath) != DrawingFormat.TEXT) {
+                    throw new IOException("Only uncompressed text documents can be browsed.");
                 }
-            } catch (Exception ex) {
+                model = new LazyDrawingModel(filepath);
+            } catch (IOException ex) {
                 JOptionPane.showMessageDialog(
                     frame,
                     "An error occured while reading file " + filepath + ": " + ex.getMessage(),
@@ -169,13 +352,26 @@ public class Actions {
                 return;
             }
 
-            model.setFilePath(null);
-            model.setChanged(true);
-
-            frame.setTitle(model.getName() + " - " + JVDraw.FRAME_TITLE);
+            // Fixed cell sizes keep the list from measuring every shape
+            JList<GeometricalObject> list = new JList<>(new DrawingObjectListModel(model));
+            list.setFixedCellWidth(240);
+            list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2);
+
+            JFrame browser = new JFrame(filepath.getFileName() + " - " + JVDraw.FRAME_TITLE);
+            browser.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            browser.add(new JScrollPane(list));
+            browser.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    try {
+                        model.close();
+                    } catch (IOException ignorable) {}
+                }
+            });
 
-            fileChooser.setMultiSelectionEnabled(false);
-            fileChooser.setSelectedFile(new File(""));
+            browser.setSize(300, 600);
+            browser.setLocationRelativeTo(frame);
+            browser.setVisible(true);
         }
     };
 
@@ -200,13 +396,39 @@ public class Actions {
                 if (model.getFilePath() == null) return;
             }
 
-            String pathStr = model.getFilePath().toString();
-            if (!pathStr.endsWith(EXTENSION)) {
-                model.setFilePath(Paths.get(pathStr + EXTENSION));
+            if (journal != null && journal.getDocument().equals(model.getFilePath())
+                    || records != null && records.getDocument().equals(model.getFilePath())) {
+                try {
+                    if (journal != null) {
+                        journal.commit();
+                    } else {
+                        records.commit();
+                    }
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(
+                        frame,
+                        "Error saving file "  + model.getFilePath().getFileName(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE
+                    );
+                    return;
+                }
+
+                frame.setTitle(model.getName() + " - " + JVDraw.FRAME_TITLE);
+                model.setChanged(false);
+                return;
+            }
+            closeJournal();
+
+            DrawingFormat format = DrawingFormat.forPath(model.getFilePath());
+            if (format == null) {
+                format = DrawingFormat.TEXT;
+                model.setFilePath(withExtension(model.getFilePath(), format));
             }
 
             try {
-                Files.write(model.getFilePath(), model.serialize());
+                format.write(model.getFilePath(), model, compressionLevel);
+                DrawingJournal.discard(model.getFilePath());
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(
                     frame,
@@ -217,6 +439,8 @@ public class Actions {
                 return;
             }
 
+            attachDocument(model.getFilePath());
+
             frame.setTitle(model.getName() + " - " + JVDraw.FRAME_TITLE);
             model.setChanged(false);
         }
@@ -237,6 +461,160 @@ public class Actions {
         }
     };
 
+    /**
+     * Action that saves the current image in the binary format to a
+     * user-specified path.
+     */
+    public Action saveBinaryAction = new AbstractAction("Save As Binary") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            boolean saved = saveAsDialog();
+            if (saved) {
+                JDrawingCanvasModel model = frame.getCanvasModel();
+                model.setFilePath(withExtension(model.getFilePath(), DrawingFormat.BINARY));
+                saveAction.actionPerformed(e);
+            }
+        }
+    };
+
+    /**
+     * Action that saves the current image in the fixed-width record format
+     * to a user-specified path.
+     */
+    public Action saveRecordsAction = new AbstractAction("Save As Records") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            boolean saved = saveAsDialog();
+            if (saved) {
+                JDrawingCanvasModel model = frame.getCanvasModel();
+                model.setFilePath(withExtension(model.getFilePath(), DrawingFormat.RECORDS));
+                saveAction.actionPerformed(e);
+            }
+        }
+    };
+
+    /**
+     * Action that saves the current image compressed to a user-specified
+     * path, in the format given by the extension of the path. Formats that
+     * can not be compressed are refused, keeping the current path.
+     */
+    public Action saveCompressedAction = new AbstractAction("Save As Compressed") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JDrawingCanvasModel model = frame.getCanvasModel();
+            Path previous = model.getFilePath();
+
+            boolean saved = saveAsDialog();
+            if (saved) {
+                DrawingFormat format = DrawingFormat.forPath(model.getFilePath());
+                if (format != null && !format.isCompressible()) {
+                    model.setFilePath(previous);
+                    JOptionPane.showMessageDialog(
+                        frame,
+                        "Documents with the " + format.getExtension() + " extension can not be compressed.",
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE
+                    );
+                    return;
+                }
+
+                if (!DrawingFormat.isCompressedPath(model.getFilePath())) {
+                    model.setFilePath(Paths.get(model.getFilePath() + DrawingFormat.COMPRESSED_EXTENSION));
+                }
+                saveAction.actionPerformed(e);
+            }
+        }
+    };
+
+    /**
+     * Action that converts an existing document from the text format to the
+     * binary format or vice versa. The converted document is placed next to
+     * the original one, with the extension of its format, and is compressed
+     * if the original one is.
+     */
+    public Action convertAction = new AbstractAction("Convert") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            fileChooser.setDialogTitle("Convert file");
+
+            int retVal = fileChooser.showOpenDialog(frame);
+            if (retVal != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+
+            Path source = fileChooser.getSelectedFile().toPath().toAbsolutePath();
+            Path target = null;
+
+            try {
+                DrawingFormat format = DrawingFormat.detect(source) == DrawingFormat.TEXT ?
+                        DrawingFormat.BINARY : DrawingFormat.TEXT;
+                target = withExtension(source, format);
+
+                if (Files.exists(target)) {
+                    int decision = JOptionPane.showConfirmDialog(
+                        frame,
+                        "File "  + target.getFileName() + " already exists. Do you want to overwrite?",
+                        "Confirm Convert",
+                        JOptionPane.YES_NO_OPTION
+                    );
+                    if (decision == JOptionPane.NO_OPTION) {
+                        return;
+                    }
+                }
+
+                format.convert(source, target, compressionLevel);
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(
+                    frame,
+                    "An error occured while converting file " + source + ": " + ex.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+                );
+                return;
+            }
+
+            JOptionPane.showMessageDialog(
+                frame,
+                "File " + source.getFileName() + " was converted to " + target.getFileName(),
+                "Convert",
+                JOptionPane.INFORMATION_MESSAGE
+            );
+        }
+    };
+
+    /**
+     * Returns the specified <tt>path</tt> with the extension of the specified
+     * <tt>format</tt>, replacing the extension of another drawing format if
+     * the path has one. The compressed extension is kept.
+     *
+     * @param path path of a document
+     * @param format format of the document
+     * @return the path with the extension of the format
+     */
+    private static Path withExtension(Path path, DrawingFormat format) {
+        String pathStr = path.toString();
+
+        boolean compressed = DrawingFormat.isCompressedPath(path);
+        if (compressed) {
+            pathStr = pathStr.substring(0, pathStr.length() - DrawingFormat.COMPRESSED_EXTENSION.length());
+        }
+
+        DrawingFormat current = DrawingFormat.forPath(path);
+        if (current != null) {
+            pathStr = pathStr.substring(0, pathStr.length() - current.getExtension().length());
+        }
+
+        return Paths.get(pathStr + format.getExtension() + (compressed ? DrawingFormat.COMPRESSED_EXTENSION : ""));
+    }
+
     /**
      * Shows a "Save As" dialog and prompts the user to save the current
      * document.
@@ -272,64 +650,57 @@ public class Actions {
     }
 
     /**
-     * Action that exports current drawing as an image.
+     * Action that exports the current drawing as images. The user picks the
+     * path and the format of the image, and may export a PNG, a JPEG and a
+     * thumbnail next to it as well. The drawing is rendered and encoded in
+     * the background by an {@link ImageExporter}, with its progress shown in
+     * the status bar.
      */
     public Action exportAction = new AbstractAction("Export") {
         private static final long serialVersionUID = 1L;
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            JDrawingCanvasModel model = frame.getCanvasModel();
-
-            int minX = 0;
-            int minY = 0;
-            int maxX = 0;
-            int maxY = 0;
-
-            for (int i = 0, n = model.getSize(); i < n; i++) {
-                GeometricalObject shape = model.getObject(i);
-                Rectangle r = shape.getBoundingBox();
-
-                if (i == 0) {
-                    minX = r.x;
-                    minY = r.y;
-                    maxX = r.x + r.width;
-                    maxY = r.y + r.height;
-                } else {
-                    minX = Math.min(minX, r.x);
-                    minY = Math.min(minY, r.y);
-                    maxX = Math.max(maxX, r.x + r.width);
-                    maxY = Math.max(maxY, r.y + r.height);
-                }
+            if (loader != null) {
+                JOptionPane.showMessageDialog(
+                    frame,
+                    "The drawing can be exported once loading is done.",
+                    "Export",
+                    JOptionPane.INFORMATION_MESSAGE
+                );
+                return;
             }
 
-            int width = maxX - minX + 1;
-            int height = maxY - minY + 1;
-
-            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-
-            Graphics2D g = image.createGraphics();
-            g.setRenderingHint(
-                RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON
-            );
-
-            g.setColor(Color.WHITE);
-            g.fillRect(0, 0, width, height);
-            System.out.println(width + "   " + height);
-            System.out.format("minX: %d, minY: %d, maxX: %d, maxY: %d", minX, minY, maxX, maxY);
-
-            for (int i = 0, n = model.getSize(); i < n; i++) {
-                GeometricalObject shape = model.getObject(i);
-                shape.draw(g, -minX, -minY);
+            List<ImageExporter.Target> targets = exportDialog();
+            if (targets == null) {
+                return;
             }
 
-            g.dispose();
+            // Copies, since the shapes may be edited while they are rendered
+            JDrawingCanvasModel model = frame.getCanvasModel();
+            List<GeometricalObject> shapes = new ArrayList<>(model.getSize());
+            int[] args = new int[ShapeType.MAX_ARGUMENTS];
+            if (model.getSize() > 0) {
+                model.forEachObject(0, model.getSize() - 1, (shape) -> shapes.add(ShapeType.copy(shape, args)));
+            }
 
-            export(image);
+            ImageExporter exporter = new ImageExporter(shapes, targets);
+            exporter.addPropertyChangeListener((ev) -> {
+                if ("state".equals(ev.getPropertyName()) && ev.getNewValue() == SwingWorker.StateValue.DONE) {
+                    finishExport(exporter);
+                }
+            });
+            startLoading(exporter, "Exporting " + targets.get(0).getFile().getFileName());
         }
 
-        private void export(BufferedImage image) {
+        /**
+         * Shows the export dialog and returns the images chosen by the user,
+         * the chosen path and format first, or <tt>null</tt> if the export
+         * was cancelled.
+         *
+         * @return the images to be exported, or null
+         */
+        private List<ImageExporter.Target> exportDialog() {
             JFileChooser fc = new JFileChooser(fileChooser.getCurrentDirectory());
             fc.setDialogTitle("Export");
 
@@ -342,15 +713,24 @@ public class Actions {
             fc.addChoosableFileFilter(gif);
             fc.setFileFilter(png);
 
+            JCheckBox pngBox = new JCheckBox("PNG");
+            JCheckBox jpgBox = new JCheckBox("JPEG");
+            JCheckBox thumbnailBox = new JCheckBox("Thumbnail");
+            JPanel accessory = new JPanel(new GridLayout(0, 1));
+            accessory.add(new JLabel("Also export:"));
+            accessory.add(pngBox);
+            accessory.add(jpgBox);
+            accessory.add(thumbnailBox);
+            fc.setAccessory(accessory);
+
             int retVal = fc.showSaveDialog(frame);
             if (retVal != JFileChooser.APPROVE_OPTION) {
-                return;
+                return null;
             }
+            fileChooser.setCurrentDirectory(fc.getCurrentDirectory());
 
             String extension;
-            if (fc.getFileFilter() == png) {
-                extension = "png";
-            } if (fc.getFileFilter() == gif) {
+            if (fc.getFileFilter() == gif) {
                 extension = "gif";
             } else if (fc.getFileFilter() == jpg) {
                 extension = "jpg";
@@ -359,38 +739,71 @@ public class Actions {
             }
 
             String pathStr = fc.getSelectedFile().toString();
-            if (!pathStr.endsWith('.' + extension)) {
-                pathStr = pathStr.concat('.' + extension);
+            if (pathStr.endsWith('.' + extension)) {
+                pathStr = pathStr.substring(0, pathStr.length() - extension.length() - 1);
             }
-            Path path = Paths.get(pathStr);
 
-            if (Files.exists(path)) {
+            List<ImageExporter.Target> targets = new ArrayList<>();
+            targets.add(new ImageExporter.Target(Paths.get(pathStr + '.' + extension), extension, false));
+            if (pngBox.isSelected() && !extension.equals("png")) {
+                targets.add(new ImageExporter.Target(Paths.get(pathStr + ".png"), "png", false));
+            }
+            if (jpgBox.isSelected() && !extension.equals("jpg")) {
+                targets.add(new ImageExporter.Target(Paths.get(pathStr + ".jpg"), "jpg", false));
+            }
+            if (thumbnailBox.isSelected()) {
+                targets.add(new ImageExporter.Target(Paths.get(pathStr + "-thumbnail.png"), "png", true));
+            }
+
+            StringBuilder existing = new StringBuilder();
+            for (ImageExporter.Target target : targets) {
+                if (Files.exists(target.getFile())) {
+                    existing.append(existing.length() == 0 ? "" : ", ").append(target.getFile().getFileName());
+                }
+            }
+            if (existing.length() > 0) {
                 int decision = JOptionPane.showConfirmDialog(
                     frame,
-                    "File "  + path.getFileName() + " already exists. Do you want to overwrite?",
+                    "File " + existing + " already exists. Do you want to overwrite?",
                     "Confirm Export",
                     JOptionPane.YES_NO_OPTION
                 );
                 if (decision == JOptionPane.NO_OPTION) {
-                    return;
+                    return null;
                 }
             }
 
-            try {
-                ImageIO.write(image, extension, path.toFile());
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(
-                    frame,
-                    "Error exporting file "  + path,
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE
-                );
-            }
-
-            fileChooser.setCurrentDirectory(fc.getCurrentDirectory());
+            return targets;
         }
     };
 
+    /**
+     * Finishes the specified <tt>exporter</tt> by hiding its progress and
+     * reporting the images that could not be exported.
+     *
+     * @param exporter exporter that is done
+     */
+    private void finishExport(ImageExporter exporter) {
+        finishLoading(exporter);
+
+        Map<Path, Throwable> errors;
+        try {
+            errors = exporter.get();
+        } catch (CancellationException ex) {
+            return;
+        } catch (InterruptedException | ExecutionException ex) {
+            errors = Collections.singletonMap(exporter.getTargets().get(0).getFile(), ex);
+        }
+
+        if (!errors.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Error exporting ");
+            sb.append(errors.size() == 1 ? "file" : errors.size() + " files").append(":");
+            errors.forEach((file, ex) -> sb.append("\n").append(file).append(": ").append(getMessage(ex)));
+
+            JOptionPane.showMessageDialog(frame, sb.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     /**
      * Exits the application by dispatching a
      * {@linkplain WindowEvent#WINDOW_CLOSING} event.
@@ -406,6 +819,81 @@ public class Actions {
         }
     };
 
+    //
+    // Arrange actions
+    //
+
+    /**
+     * Moves the selected shapes to the top of the drawing order.
+     */
+    public Action bringToFrontAction = new AbstractAction("Bring to front") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            arrange(frame.getCanvasModel()::bringToFront);
+        }
+    };
+
+    /**
+     * Moves the selected shapes one step up in the drawing order.
+     */
+    public Action bringForwardAction = new AbstractAction("Bring forward") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            arrange(frame.getCanvasModel()::bringForward);
+        }
+    };
+
+    /**
+     * Moves the selected shapes one step down in the drawing order.
+     */
+    public Action sendBackwardAction = new AbstractAction("Send backward") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            arrange(frame.getCanvasModel()::sendBackward);
+        }
+    };
+
+    /**
+     * Moves the selected shapes to the bottom of the drawing order.
+     */
+    public Action sendToBackAction = new AbstractAction("Send to back") {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            arrange(frame.getCanvasModel()::sendToBack);
+        }
+    };
+
+    /**
+     * Applies the specified z-order <tt>operation</tt> to the currently
+     * selected shapes and selects the shapes at their new positions.
+     * <p>
+     * Does nothing if a shape is currently being drawn or if no shapes are
+     * selected.
+     *
+     * @param operation operation that moves the selected shapes and returns
+     *        their new indices
+     */
+    private void arrange(UnaryOperator<BitSet> operation) {
+        if (frame.getCanvasModel().isCurrentlyDrawing()) {
+            return;
+        }
+
+        BitSet selected = frame.getSelectedIndices();
+        if (selected.isEmpty()) {
+            return;
+        }
+
+        frame.setSelectedIndices(operation.apply(selected));
+    }
+
     //
     // Help actions
     //
@@ -426,4 +914,433 @@ public class Actions {
         }
     };
 
+
+    /**
+     * Attaches a {@link RecordFile} to the document at the specified
+     * <tt>file</tt> if it is an uncompressed record document, or else a
+     * {@link DrawingJournal} if saves are journaled, so that the next save of
+     * the document writes only the changes. The document must hold the
+     * shapes of the canvas model.
+     *
+     * @param file path of the document
+     */
+    private void attachDocument(Path file) {
+        JDrawingCanvasModel model = frame.getCanvasModel();
+        if (watching) {
+            startWatching(file);
+        }
+
+        try {
+            if (!DrawingFormat.isCompressed(file) && DrawingFormat.detect(file) == DrawingFormat.RECORDS) {
+                records = new RecordFile(file, model);
+                return;
+            }
+        } catch (IOException ignorable) {
+            // the document is written in full by the next save
+            return;
+        }
+
+        if (journaling) {
+            journal = new DrawingJournal(file, model);
+        }
+    }
+
+    /**
+     * Starts watching the document at the specified <tt>file</tt>, unless it
+     * is already watched. The journal or the record file of the document is
+     * attached anew whenever the watcher reloads the document.
+     *
+     * @param file path of the document
+     */
+    private void startWatching(Path file) {
+        if (watcher != null && watcher.getFile().equals(file.toAbsolutePath())) {
+            return;
+        }
+        stopWatching();
+
+        try {
+            watcher = new DocumentWatcher(file, frame.getCanvasModel(), () -> {
+                closeJournal();
+                attachDocument(file);
+            });
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(
+                frame,
+                "File " + file.getFileName() + " can not be watched: " + ex.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE
+            );
+        }
+    }
+
+    /**
+     * Stops watching the current document, if it is watched.
+     */
+    private void stopWatching() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Closes the journal or the record file of the current document, if
+     * there is one, discarding changes that were not saved.
+     */
+    private void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (records != null) {
+            records.close();
+            records = null;
+        }
+    }
+
+    //
+    // Loading
+    //
+
+    /**
+     * Cancels the document load in progress, if there is one. Shapes that
+     * were already added to the canvas model are handled as described in
+     * {@link DocumentLoader} and {@link DocumentImporter}.
+     */
+    private void cancelLoading() {
+        if (loader != null) {
+            loader.cancel(false);
+        }
+    }
+
+    /**
+     * Recovers the drawing saved to the specified <tt>file</tt> by the
+     * {@link Autosaver}, by importing it into the canvas as an unsaved
+     * drawing.
+     *
+     * @param file path of the recovery file
+     */
+    public void recover(Path file) {
+        cancelLoading();
+        startLoading(new DocumentImporter(new Path[] {file}, false), "Recovering drawing");
+    }
+
+    /**
+     * Starts the specified <tt>loader</tt> and shows its progress in the
+     * status bar of the frame.
+     *
+     * @param loader loader to be started
+     * @param text text describing the load
+     */
+    private void startLoading(SwingWorker<?, ?> loader, String text) {
+        this.loader = loader;
+
+        StatusBar statusBar = frame.getStatusBar();
+        statusBar.startProgress(text, this::cancelLoading);
+        loader.addPropertyChangeListener((e) -> {
+            if ("progress".equals(e.getPropertyName())) {
+                statusBar.setProgress((Integer) e.getNewValue());
+            }
+        });
+
+        loader.execute();
+    }
+
+    /**
+     * Finishes the specified <tt>loader</tt> by hiding its progress, if it is
+     * the current loader.
+     *
+     * @param loader loader that is done
+     */
+    private void finishLoading(SwingWorker<?, ?> loader) {
+        if (this.loader == loader) {
+            this.loader = null;
+            frame.getStatusBar().stopProgress();
+        }
+    }
+
+    /**
+     * A worker that reads a document in the background and adds its shapes to
+     * the canvas model batch by batch, so the canvas and the history list fill
+     * in while the document is read. The document is loaded as the document of
+     * the frame, and the canvas is cleared if the load fails or is cancelled.
+     */
+    private class DocumentLoader extends SwingWorker<Void, Void> implements ReadMonitor {
+
+        /** Path of the document to be loaded. */
+        private final Path file;
+
+        /**
+         * Constructs an instance of {@code DocumentLoader} that loads the
+         * specified <tt>file</tt>.
+         *
+         * @param file path of the document to be loaded
+         */
+        public DocumentLoader(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            JDrawingCanvasModel model = frame.getCanvasModel();
+
+            DrawingJournal.readDocument(file, (batch) -> {
+                SwingUtilities.invokeLater(() -> {
+                    if (!isCancelled()) {
+                        model.addAll(batch);
+                    }
+                });
+            }, this);
+            return null;
+        }
+
+        @Override
+        public void progress(long done, long total) {
+            setProgress(total == 0 ? 100 : (int) (done * 100 / total));
+        }
+
+        @Override
+        protected void done() {
+            finishLoading(this);
+            JDrawingCanvasModel model = frame.getCanvasModel();
+
+            try {
+                get();
+            } catch (CancellationException ex) {
+                model.clear();
+                return;
+            } catch (InterruptedException | ExecutionException ex) {
+                model.clear();
+                JOptionPane.showMessageDialog(
+                    frame,
+                    "An error occured while reading file " + file + ": " + getMessage(ex),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+                );
+                return;
+            }
+
+            model.setFilePath(file);
+            model.setChanged(false);
+            attachDocument(file);
+
+            frame.setTitle(model.getName() + " - " + JVDraw.FRAME_TITLE);
+        }
+    }
+
+    /**
+     * A worker that reads multiple documents concurrently on a bounded pool of
+     * threads and appends their shapes to the canvas model in the order of the
+     * documents, each document with a single batched event. A document that
+     * can not be read is skipped, and all failures are reported together once
+     * the import is done.
+     * <p>
+     * A deduplicating importer keeps the type and the arguments of every
+     * shape in a {@link TupleHashSet}, hashed with
+     * {@link ShapeType#hash(GeometricalObject, int[])}, as the documents are
+     * appended, and drops the shapes that are exactly equal to one that was
+     * already seen. The number of dropped shapes is reported once the import
+     * is done.
+     * <p>
+     * The shapes are imported as a new, unsaved document. Shapes of documents
+     * that were appended before the import was cancelled are kept.
+     */
+    private class DocumentImporter extends SwingWorker<Map<Path, Throwable>, Void> {
+
+        /** Paths of the documents to be imported. */
+        private final Path[] files;
+        /** Number of bytes read so far from each document. */
+        private final AtomicLongArray done;
+        /** Total number of bytes of all documents. */
+        private volatile long total;
+        /** Types and arguments of the imported shapes, or null if duplicates are kept. */
+        private final TupleHashSet seen;
+        /** Number of duplicate shapes dropped from appended documents, on the EDT. */
+        private int duplicates;
+        /** Number of documents appended to the canvas model, on the EDT. */
+        private int appended;
+
+        /**
+         * Constructs an instance of {@code DocumentImporter} that imports the
+         * specified <tt>files</tt>.
+         *
+         * @param files paths of the documents to be imported
+         * @param deduplicate true if duplicate shapes are to be dropped
+         */
+        public DocumentImporter(Path[] files, boolean deduplicate) {
+            this.files = files;
+            this.done = new AtomicLongArray(files.length);
+            this.seen = deduplicate ? new TupleHashSet() : null;
+        }
+
+        @Override
+        protected Map<Path, Throwable> doInBackground() throws Exception {
+            JDrawingCanvasModel model = frame.getCanvasModel();
+
+            long bytes = 0;
+            for (Path file : files) {
+                try {
+                    bytes += Files.size(file);
+                } catch (IOException ignorable) {
+                    // reported when the document is read
+                }
+            }
+            total = bytes;
+
+            int threads = Math.min(files.length, Runtime.getRuntime().availableProcessors());
+            ExecutorService pool = Executors.newFixedThreadPool(threads, (r) -> {
+                Thread thread = new Thread(r, "Document importer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            Map<Path, Throwable> errors = new LinkedHashMap<>();
+            try {
+                List<Future<List<GeometricalObject>>> futures = new ArrayList<>(files.length);
+                for (int i = 0; i < files.length; i++) {
+                    int index = i;
+                    futures.add(pool.submit(() -> read(index)));
+                }
+
+                // Documents are appended in order, each as soon as it and all before it are read
+                for (int i = 0; i < files.length && !isCancelled(); i++) {
+                    try {
+                        List<GeometricalObject> shapes = futures.get(i).get();
+                        int removed = seen != null ? removeDuplicates(shapes) : 0;
+                        SwingUtilities.invokeLater(() -> {
+                            if (!isCancelled()) {
+                                model.addAll(shapes);
+                                appended++;
+                                duplicates += removed;
+                            }
+                        });
+                    } catch (ExecutionException ex) {
+                        errors.put(files[i], ex.getCause());
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+
+            return errors;
+        }
+
+        /**
+         * Removes the shapes that were already seen, in this or in a previous
+         * document, from the specified list, keeping the order of the rest.
+         *
+         * @param shapes shapes of a document
+         * @return the number of removed shapes
+         */
+        private int removeDuplicates(List<GeometricalObject> shapes) {
+            int[] args = new int[ShapeType.MAX_ARGUMENTS + 1];
+            int kept = 0;
+            for (int i = 0, n = shapes.size(); i < n; i++) {
+                GeometricalObject shape = shapes.get(i);
+                ShapeType type = shape.getShapeType();
+                long hash = ShapeType.hash(shape, args);
+
+                // The arguments followed by the type identify the shape exactly
+                args[type.getArgumentCount()] = type.ordinal();
+                if (seen.add(hash, args, type.getArgumentCount() + 1)) {
+                    shapes.set(kept++, shape);
+                }
+            }
+            int removed = shapes.size() - kept;
+            shapes.subList(kept, shapes.size()).clear();
+            return removed;
+        }
+
+        /**
+         * Reads all shapes of the document at the specified <tt>index</tt>,
+         * recording the progress of the read.
+         *
+         * @param index index of the document
+         * @return shapes of the document
+         * @throws IOException if an I/O error occurs or if the document is
+         *         corrupted
+         */
+        private List<GeometricalObject> read(int index) throws IOException {
+            List<GeometricalObject> shapes = new ArrayList<>();
+            DrawingFormat.readDocument(files[index], shapes::addAll, new ReadMonitor() {
+                @Override
+                public void progress(long bytes, long size) {
+                    done.set(index, bytes);
+
+                    long sum = 0;
+                    for (int i = 0; i < files.length; i++) {
+                        sum += done.get(i);
+                    }
+                    setProgress(total == 0 ? 100 : (int) Math.min(100, sum * 100 / total));
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return DocumentImporter.this.isCancelled();
+                }
+            });
+            return shapes;
+        }
+
+        @Override
+        protected void done() {
+            finishLoading(this);
+            JDrawingCanvasModel model = frame.getCanvasModel();
+
+            Map<Path, Throwable> errors = Collections.emptyMap();
+            try {
+                errors = get();
+            } catch (CancellationException ex) {
+                // keep the documents appended so far
+            } catch (InterruptedException | ExecutionException ex) {
+                JOptionPane.showMessageDialog(
+                    frame,
+                    "An error occured while importing files: " + getMessage(ex),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+                );
+            }
+
+            if (!errors.isEmpty()) {
+                StringBuilder sb = new StringBuilder("An error occured while reading ");
+                sb.append(errors.size() == 1 ? "file" : errors.size() + " files").append(":");
+                errors.forEach((file, ex) -> sb.append("\n").append(file).append(": ").append(getMessage(ex)));
+
+                JOptionPane.showMessageDialog(frame, sb.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+
+            if (appended > 0) {
+                closeJournal();
+                stopWatching();
+                model.setFilePath(null);
+                model.setChanged(true);
+
+                frame.setTitle(model.getName() + " - " + JVDraw.FRAME_TITLE);
+            }
+
+            if (duplicates > 0) {
+                JOptionPane.showMessageDialog(
+                    frame,
+                    "Removed " + duplicates + (duplicates == 1 ? " duplicate shape." : " duplicate shapes."),
+                    "Import",
+                    JOptionPane.INFORMATION_MESSAGE
+                );
+            }
+        }
+    }
+
+    /**
+     * Returns the message of the specified exception, looking through the
+     * {@link ExecutionException} that a worker wraps it into.
+     *
+     * @param ex exception to be described
+     * @return the message of the exception
+     */
+    private static String getMessage(Throwable ex) {
+        if (ex instanceof ExecutionException && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex.getMessage() != null ? ex.getMessage() : ex.toString();
+    }
+
 }
@@ -0,0 +1,500 @@
+package hr.fer.zemris.java.hw16.jvdraw;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModel;
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModelListener;
+import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingCanvasModel;
+import hr.fer.zemris.java.hw16.jvdraw.io.DrawingFormat;
+import hr.fer.zemris.java.hw16.jvdraw.io.DrawingWriter;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * Periodically saves a copy of an unsaved drawing to a recovery file in the
+ * {@link #RECOVERY_DIRECTORY}, from which the drawing can be recovered if the
+ * program does not exit properly. The recovery file is deleted once the
+ * drawing has no unsaved changes, and when the program exits.
+ * <p>
+ * Every autosaver has a recovery file of its own, so programs running at the
+ * same time do not overwrite each other's drawings. The autosaver holds a
+ * {@link FileLock lock} on a lock file next to its recovery file for as long
+ * as it runs, so a recovery file whose lock is free was left by a program
+ * that did not exit properly, and is {@linkplain #findRecoveries() found} by
+ * the next program that starts.
+ * <p>
+ * An autosave takes a snapshot of the shapes of the model on the event
+ * dispatch thread, by copying the type and the arguments of every shape into
+ * an array of integers. The copying is done in slices of at most
+ * {@value #SLICE_NANOS} nanoseconds, with pending input events handled in
+ * between, so even the largest drawings never stall the user interface. If
+ * the model changes while a snapshot is taken, the autosave is abandoned and
+ * retried at the next interval. The snapshot is then written in the binary
+ * format on a background thread.
+ *
+ * @author Mario Bobic
+ */
+public class Autosaver implements DrawingModelListener {
+
+    /** Default interval between autosaves in milliseconds. */
+    public static final int DEFAULT_INTERVAL = 60_000;
+    /** Path of the directory of the recovery files. */
+    public static final Path RECOVERY_DIRECTORY = Paths.get(System.getProperty("user.home"), ".jvdraw");
+
+    /** Prefix of the names of the recovery files and their lock files. */
+    private static final String PREFIX = "recovery-";
+    /** Extension of the lock files of the recovery files. */
+    private static final String LOCK_EXTENSION = ".lock";
+
+    /** Maximum duration of a snapshot slice in nanoseconds. */
+    private static final long SLICE_NANOS = 8_000_000;
+    /** Number of shapes copied between checks of the slice duration. */
+    private static final int SLICE_STEP = 256;
+    /** All shape types, indexed by their ordinals. */
+    private static final ShapeType[] TYPES = ShapeType.values();
+
+    /** Model whose drawing is saved. */
+    private final JDrawingCanvasModel model;
+    /** Timer that starts autosaves. */
+    private final Timer timer;
+    /** Executor that writes snapshots. */
+    private final ExecutorService writer;
+    /** Interval between autosaves in milliseconds, or 0. */
+    private int interval = DEFAULT_INTERVAL;
+    /** Indicates whether autosaving was started. */
+    private boolean started;
+    /** Lock held on the lock file of the recovery file, or null. */
+    private FileLock lock;
+    /** Recovery file the drawing is saved to, or null if there is none. */
+    private volatile Path recoveryFile;
+
+    /** Types and arguments of the shapes of the snapshot. */
+    private int[] snapshot = new int[1024];
+    /** Length of the snapshot. */
+    private int length;
+    /** Index of the next shape to be copied. */
+    private int next;
+    /** Number of shapes of the snapshot. */
+    private int count;
+    /** Indicates whether a snapshot is being taken. */
+    private boolean snapshotting;
+    /** Indicates whether the model changed while a snapshot was taken. */
+    private boolean modified;
+    /** Indicates whether a snapshot is being written. */
+    private volatile boolean writing;
+    /** Arguments of the shape being copied, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code Autosaver} that saves the drawing of
+     * the specified <tt>model</tt> every {@link #DEFAULT_INTERVAL}
+     * milliseconds once it is {@link #start() started}.
+     *
+     * @param model model whose drawing is to be saved
+     */
+    public Autosaver(JDrawingCanvasModel model) {
+        this.model = model;
+
+        timer = new Timer(DEFAULT_INTERVAL, (e) -> autosave());
+        writer = Executors.newSingleThreadExecutor((r) -> {
+            Thread thread = new Thread(r, "Autosaver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        model.addDrawingModelListener(this);
+    }
+
+    /**
+     * Returns the interval between autosaves in milliseconds, or <tt>0</tt>
+     * if autosaving is turned off.
+     *
+     * @return the interval between autosaves
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Sets the interval between autosaves in milliseconds. An interval of
+     * <tt>0</tt> turns autosaving off.
+     *
+     * @param interval interval between autosaves, or 0
+     * @throws IllegalArgumentException if the interval is negative
+     */
+    public void setInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Interval must not be negative: " + interval);
+        }
+
+        this.interval = interval;
+        if (interval == 0) {
+            timer.stop();
+        } else {
+            timer.setDelay(interval);
+            timer.setInitialDelay(interval);
+            if (started) {
+                timer.restart();
+            }
+        }
+    }
+
+    /**
+     * Starts autosaving with the current interval to a new recovery file.
+     */
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Starts autosaving with the current interval to the specified
+     * <tt>recovery</tt> file, which was left by a program that did not exit
+     * properly and is taken over by this autosaver. A new recovery file is
+     * used instead if <tt>recovery</tt> is <tt>null</tt> or was taken over by
+     * another program in the meantime.
+     *
+     * @param recovery recovery file to be taken over, or null
+     */
+    public void start(Path recovery) {
+        if (lock == null) {
+            claim(recovery);
+        }
+
+        started = true;
+        if (interval != 0) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Stops autosaving, waits for a snapshot that is being written and
+     * deletes the recovery file. Should be called when the program exits.
+     */
+    public void stop() {
+        started = false;
+        timer.stop();
+        model.removeDrawingModelListener(this);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        discard();
+
+        if (lock != null) {
+            try {
+                lock.channel().close();
+                Files.deleteIfExists(lockPath(recoveryFile));
+            } catch (IOException ignorable) {}
+            lock = null;
+            recoveryFile = null;
+        }
+    }
+
+    /**
+     * Starts an autosave if the drawing has unsaved changes, or deletes the
+     * recovery file if it has none. Does nothing if the previous autosave is
+     * still in progress.
+     */
+    private void autosave() {
+        if (snapshotting || writing) {
+            return;
+        }
+        if (!model.isChanged()) {
+            writer.execute(this::discard);
+            return;
+        }
+
+        snapshotting = true;
+        modified = false;
+        length = 0;
+        next = 0;
+        count = model.getSize();
+        snapshotSlice();
+    }
+
+    /**
+     * Copies shapes into the snapshot until the slice duration runs out, and
+     * schedules the next slice after pending events, or hands the finished
+     * snapshot over to the writer.
+     */
+    private void snapshotSlice() {
+        if (modified) {
+            snapshotting = false;
+            return;
+        }
+
+        long deadline = System.nanoTime() + SLICE_NANOS;
+        while (next < count && System.nanoTime() < deadline) {
+            int last = Math.min(count, next + SLICE_STEP) - 1;
+            model.forEachObject(next, last, this::copy);
+            next = last + 1;
+        }
+
+        if (next < count) {
+            SwingUtilities.invokeLater(this::snapshotSlice);
+            return;
+        }
+
+        snapshotting = false;
+        writing = true;
+        int[] shapes = snapshot;
+        int shapesLength = length;
+        writer.execute(() -> write(shapes, shapesLength));
+    }
+
+    /**
+     * Copies the type and the arguments of the specified <tt>shape</tt> into
+     * the snapshot.
+     *
+     * @param shape shape to be copied
+     */
+    private void copy(GeometricalObject shape) {
+        ShapeType type = shape.getShapeType();
+        int n = type.getArgumentCount();
+        if (length + 1 + n > snapshot.length) {
+            snapshot = Arrays.copyOf(snapshot, Math.max(2 * snapshot.length, length + 1 + n));
+        }
+
+        type.getArguments(shape, args);
+        snapshot[length++] = type.ordinal();
+        System.arraycopy(args, 0, snapshot, length, n);
+        length += n;
+    }
+
+    /**
+     * Writes the shapes of the specified snapshot to the recovery file.
+     * Runs on the writer thread. The shapes are first written to a temporary
+     * file, so a failed autosave leaves the previous recovery file intact.
+     *
+     * @param shapes types and arguments of the shapes
+     * @param length length of the snapshot
+     */
+    private void write(int[] shapes, int length) {
+        Path file = recoveryFile;
+        if (file == null) {
+            writing = false;
+            return;
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        int[] arguments = new int[ShapeType.MAX_ARGUMENTS];
+
+        try {
+            try (DrawingWriter out = DrawingFormat.BINARY.newWriter(Files.newOutputStream(temporary))) {
+                for (int pos = 0; pos < length; ) {
+                    ShapeType type = TYPES[shapes[pos++]];
+                    System.arraycopy(shapes, pos, arguments, 0, type.getArgumentCount());
+                    pos += type.getArgumentCount();
+                    out.write(type.create(arguments));
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Autosaving is best effort, the next autosave tries again
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignorable) {}
+        } finally {
+            writing = false;
+        }
+    }
+
+    /**
+     * Deletes the recovery file of this autosaver, if it exists.
+     */
+    private void discard() {
+        Path file = recoveryFile;
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignorable) {}
+    }
+
+    /**
+     * Returns the recovery files left by programs that did not exit properly,
+     * the most recently saved first. Recovery files of running programs are
+     * not returned.
+     *
+     * @return the recovery files of drawings to be recovered
+     */
+    public static List<Path> findRecoveries() {
+        List<Path> recoveries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(RECOVERY_DIRECTORY, PREFIX + "*" + LOCK_EXTENSION)) {
+            for (Path lockFile : files) {
+                FileLock lock = tryLock(lockFile);
+                if (lock == null) {
+                    continue;
+                }
+
+                Path recovery = recoveryPath(lockFile);
+                boolean exists = Files.isRegularFile(recovery);
+                lock.channel().close();
+                if (exists) {
+                    recoveries.add(recovery);
+                } else {
+                    Files.deleteIfExists(lockFile);
+                }
+            }
+        } catch (NoSuchFileException ignorable) {
+        } catch (IOException ignorable) {
+            // Recovery is best effort, the files found so far are offered
+        }
+
+        recoveries.sort(Comparator.comparing(Autosaver::lastModified).reversed());
+        return recoveries;
+    }
+
+    /**
+     * Deletes the specified <tt>recovery</tt> file left by a program that did
+     * not exit properly, along with its lock file. Does nothing if the
+     * recovery file was taken over by a running program.
+     *
+     * @param recovery recovery file to be deleted
+     */
+    public static void discard(Path recovery) {
+        Path lockFile = lockPath(recovery);
+        try {
+            FileLock lock = tryLock(lockFile);
+            if (lock == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(recovery);
+            } finally {
+                lock.channel().close();
+            }
+            Files.deleteIfExists(lockFile);
+        } catch (IOException ignorable) {}
+    }
+
+    /**
+     * Acquires the lock of the specified <tt>recovery</tt> file, or of a new
+     * recovery file if it is <tt>null</tt> or locked by another program, and
+     * makes it the recovery file of this autosaver. Leaves this autosaver
+     * without a recovery file if no lock could be acquired.
+     *
+     * @param recovery recovery file to be taken over, or null
+     */
+    private void claim(Path recovery) {
+        try {
+            if (recovery != null) {
+                lock = tryLock(lockPath(recovery));
+            }
+            if (lock == null) {
+                Files.createDirectories(RECOVERY_DIRECTORY);
+                Path lockFile = Files.createTempFile(RECOVERY_DIRECTORY, PREFIX, LOCK_EXTENSION);
+                lock = tryLock(lockFile);
+                recovery = recoveryPath(lockFile);
+            }
+            if (lock != null) {
+                recoveryFile = recovery;
+            }
+        } catch (IOException e) {
+            // Autosaving is best effort, the drawing is not saved
+        }
+    }
+
+    /**
+     * Acquires the lock of the specified <tt>lockFile</tt>, creating it if it
+     * does not exist. The lock is released by closing its channel.
+     *
+     * @param lockFile path of the lock file
+     * @return the acquired lock, or null if it is held by a running program
+     * @throws IOException if an I/O error occurs
+     */
+    private static FileLock tryLock(Path lockFile) throws IOException {
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return lock;
+            }
+        } catch (OverlappingFileLockException e) {
+            // Held by this program
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * Returns the path of the lock file of the specified <tt>recovery</tt>
+     * file.
+     *
+     * @param recovery path of the recovery file
+     * @return the path of the lock file
+     */
+    private static Path lockPath(Path recovery) {
+        String name = recovery.getFileName().toString();
+        String base = name.substring(0, name.length() - DrawingFormat.BINARY.getExtension().length());
+        return recovery.resolveSibling(base + LOCK_EXTENSION);
+    }
+
+    /**
+     * Returns the path of the recovery file of the specified
+     * <tt>lockFile</tt>.
+     *
+     * @param lockFile path of the lock file
+     * @return the path of the recovery file
+     */
+    private static Path recoveryPath(Path lockFile) {
+        String name = lockFile.getFileName().toString();
+        String base = name.substring(0, name.length() - LOCK_EXTENSION.length());
+        return lockFile.resolveSibling(base + DrawingFormat.BINARY.getExtension());
+    }
+
+    /**
+     * Returns the time the specified <tt>file</tt> was last modified, or
+     * <tt>0</tt> if it could not be read.
+     *
+     * @param file path of the file
+     * @return the last modification time in milliseconds
+     */
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void objectsAdded(DrawingModel source, int index0, int index1) {
+        modified = true;
+    }
+
+    @Override
+    public void objectsRemoved(DrawingModel source, int index0, int index1) {
+        modified = true;
+    }
+
+    @Override
+    public void objectsChanged(DrawingModel source, int index0, int index1) {
+        modified = true;
+    }
+
+}
@@ -0,0 +1,544 @@
+package hr.fer.zemris.java.hw16.jvdraw;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.swing.SwingUtilities;
+
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModel;
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModelListener;
+import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingCanvasModel;
+import hr.fer.zemris.java.hw16.jvdraw.index.SequenceDiff;
+import hr.fer.zemris.java.hw16.jvdraw.index.SequenceDiff.Hunk;
+import hr.fer.zemris.java.hw16.jvdraw.io.DrawingFormat;
+import hr.fer.zemris.java.hw16.jvdraw.io.DrawingJournal;
+import hr.fer.zemris.java.hw16.jvdraw.io.ReadMonitor;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeTokenizer;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * Follows the changes that other programs make to the document of a drawing.
+ * The directory of the document is watched with a {@link WatchService}, and
+ * once the document or its journal has not changed for
+ * {@value #RELOAD_DELAY} milliseconds, the document is read again on a
+ * background thread.
+ * <p>
+ * Instead of replacing all shapes of the model, the watcher applies only the
+ * differences between the model and the document. Every shape is reduced to
+ * a {@link ShapeType#hash(GeometricalObject, int[]) hash}, the hashes of the
+ * model are kept up to date by listening to the model, and the two sequences
+ * of hashes are compared with a {@link SequenceDiff}. Shapes whose hashes
+ * match are compared value by value as well, since different shapes may have
+ * the same hash. The removed and the inserted ranges of shapes are then
+ * applied to the model on the event dispatch thread, with a single event per
+ * range, so appending to a huge document only appends the new shapes to the
+ * model.
+ * <p>
+ * For a text document without a journal, the watcher also remembers the
+ * length and the CRC-32 of the text that the model holds. If the document
+ * still starts with that text, only the lines appended to it are parsed, so
+ * following a log-like document that grows at its end does not read the
+ * shapes of the whole document again.
+ * <p>
+ * A drawing with unsaved changes is never reloaded, and a reload is redone
+ * if the model changed while the document was read. The document is read
+ * without recovering an interrupted compaction of its journal, which may be
+ * running in this process, and a read that overlapped a compaction of this
+ * process is redone once the compaction is done.
+ *
+ * @author Mario Bobic
+ */
+public class DocumentWatcher implements DrawingModelListener, Closeable {
+
+    /** Time in milliseconds the document must stay unchanged to be reloaded. */
+    public static final int RELOAD_DELAY = 200;
+
+    /** Maximum number of inserted and removed shapes looked for one by one. */
+    private static final int MAX_EDITS = 1024;
+    /** Maximum number of ranges applied one by one. */
+    private static final int MAX_HUNKS = 16;
+    /** Maximum size in bytes of a text document that is read into memory. */
+    private static final int MAX_TEXT_SIZE = 1 << 30;
+
+    /**
+     * Text of a document that was applied to the model: the length of its
+     * lines, their CRC-32 and the version of the model they were applied at.
+     */
+    private static class Sync {
+        /** Length of the text in bytes. */
+        private final int length;
+        /** CRC-32 of the text. */
+        private final long crc;
+        /** Version of the model the text was applied at. */
+        private final int version;
+
+        /**
+         * Constructs a synchronization state with the specified values.
+         *
+         * @param length length of the text in bytes
+         * @param crc CRC-32 of the text
+         * @param version version of the model the text was applied at
+         */
+        public Sync(int length, long crc, int version) {
+            this.length = length;
+            this.crc = crc;
+            this.version = version;
+        }
+    }
+
+    /** Path of the document. */
+    private final Path file;
+    /** Path of the journal of the document. */
+    private final Path journal;
+    /** Model of the drawing of the document. */
+    private final JDrawingCanvasModel model;
+    /** Action run on the event dispatch thread after a reload changed the model. */
+    private final Runnable onReload;
+    /** Service that watches the directory of the document. */
+    private final WatchService service;
+    /** Executor of reloads. */
+    private final ScheduledExecutorService reloader;
+    /** Reload that is scheduled, or null. */
+    private ScheduledFuture<?> scheduled;
+    /** Indicates whether this watcher was closed. */
+    private volatile boolean closed;
+    /** Text of the document that was last applied to the model, or null. */
+    private volatile Sync sync;
+
+    /** Hashes of the shapes of the model. */
+    private long[] hashes;
+    /** Number of hashes, one for each shape of the model. */
+    private int size;
+    /** Number of changes of the model seen by this watcher. */
+    private int version;
+    /** Arguments of the shape being hashed, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code DocumentWatcher} that applies the
+     * changes of the document at the specified <tt>file</tt> to the specified
+     * <tt>model</tt>, which must hold the shapes of the document, and starts
+     * watching.
+     *
+     * @param file path of the document
+     * @param model model of the drawing of the document
+     * @param onReload action to be run after a reload changed the model
+     * @throws IOException if the directory of the document can not be watched
+     */
+    public DocumentWatcher(Path file, JDrawingCanvasModel model, Runnable onReload) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.journal = Paths.get(this.file + DrawingJournal.EXTENSION);
+        this.model = model;
+        this.onReload = onReload;
+
+        size = model.getSize();
+        hashes = new long[Math.max(16, size)];
+        if (size > 0) {
+            int[] index = {0};
+            model.forEachObject(0, size - 1, (shape) -> hashes[index[0]++] = ShapeType.hash(shape, args));
+        }
+
+        service = this.file.getFileSystem().newWatchService();
+        try {
+            this.file.getParent().register(service, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+
+        reloader = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread thread = new Thread(r, "Reloader of " + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread watcher = new Thread(this::watch, "Watcher of " + file.getFileName());
+        watcher.setDaemon(true);
+        watcher.start();
+
+        model.addDrawingModelListener(this);
+        // Finds the text of the document that the model holds
+        reloader.execute(this::reload);
+    }
+
+    /**
+     * Returns the absolute path of the watched document.
+     *
+     * @return the path of the document
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Waits for changes in the directory of the document and schedules a
+     * reload whenever the document or its journal changes. Runs on the
+     * watcher thread until this watcher is closed.
+     */
+    private void watch() {
+        Path name = file.getFileName();
+        Path journalName = journal.getFileName();
+
+        try {
+            while (!closed) {
+                WatchKey key = service.take();
+
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.kind() == OVERFLOW
+                            || name.equals(event.context()) || journalName.equals(event.context());
+                }
+                if (changed) {
+                    schedule();
+                }
+
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Schedules a reload after the {@link #RELOAD_DELAY}, replacing a reload
+     * that is scheduled but has not started yet.
+     */
+    private synchronized void schedule() {
+        if (closed) {
+            return;
+        }
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        scheduled = reloader.schedule(this::reload, RELOAD_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the document and hands its changes over to the event dispatch
+     * thread. Runs on the reloader thread. A document that can not be read,
+     * for example because it is still being written, is left to the next
+     * change.
+     */
+    private void reload() {
+        try {
+            // A journal that is compacted by this process is read once the compaction is done
+            long stamp = DrawingJournal.compactionStamp(file);
+            if ((stamp & 1) != 0) {
+                schedule();
+                return;
+            }
+
+            if (!reloadText()) {
+                List<GeometricalObject> shapes = new ArrayList<>();
+                DrawingJournal.peekDocument(file, shapes::addAll, ReadMonitor.NONE);
+                if (DrawingJournal.compactionStamp(file) != stamp) {
+                    schedule();
+                    return;
+                }
+                compare(shapes, null);
+            }
+        } catch (IOException | RuntimeException e) {
+            // reloaded on the next change
+        }
+    }
+
+    /**
+     * Reloads the document if it is an uncompressed text document without a
+     * journal. If only lines were appended to the text that was last applied
+     * to the model, only the appended lines are parsed and added to the
+     * model. Otherwise all lines are parsed and compared to the model.
+     *
+     * @return true if the document was reloaded, false if it is not a text
+     *         document without a journal
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a line can not be parsed
+     */
+    private boolean reloadText() throws IOException {
+        if (Files.exists(journal) || Files.size(file) > MAX_TEXT_SIZE
+                || DrawingFormat.isCompressed(file) || DrawingFormat.detect(file) != DrawingFormat.TEXT) {
+            return false;
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] != '\n') {
+            length--;
+        }
+
+        Sync old = sync;
+        CRC32 crc = new CRC32();
+        if (old != null && old.length <= length) {
+            crc.update(bytes, 0, old.length);
+            if (crc.getValue() == old.crc) {
+                // A line that is not complete yet is left to the next change
+                List<GeometricalObject> appended = parse(bytes, old.length, length);
+                crc.update(bytes, old.length, length - old.length);
+
+                Sync next = new Sync(length, crc.getValue(), 0);
+                SwingUtilities.invokeLater(() -> append(appended, old, next));
+                return true;
+            }
+            crc.reset();
+        }
+
+        List<GeometricalObject> shapes = parse(bytes, 0, bytes.length);
+        crc.update(bytes, 0, length);
+        // Text after the last line break may still grow, so it is not synchronized
+        compare(shapes, length == bytes.length ? new Sync(length, crc.getValue(), 0) : null);
+        return true;
+    }
+
+    /**
+     * Parses the lines of text between the specified positions.
+     *
+     * @param bytes text of the document
+     * @param from position of the first line
+     * @param to position just past the last line
+     * @return shapes of the lines
+     * @throws IllegalArgumentException if a line can not be parsed
+     */
+    private static List<GeometricalObject> parse(byte[] bytes, int from, int to) {
+        ShapeTokenizer tokenizer = new ShapeTokenizer(ByteBuffer.wrap(bytes, from, to - from));
+        List<GeometricalObject> shapes = new ArrayList<>();
+        while (tokenizer.hasNext()) {
+            shapes.add(tokenizer.next());
+        }
+        return shapes;
+    }
+
+    /**
+     * Compares the specified shapes of the document to a snapshot of the
+     * hashes of the model and hands the differences over to the event
+     * dispatch thread. Shapes that the hashes match are then compared value
+     * by value, so a shape replaced by another one with the same hash is
+     * replaced in the model as well.
+     *
+     * @param shapes shapes of the document
+     * @param text synchronization state of the text of the document, or null
+     * @throws IOException if the snapshot can not be taken
+     */
+    private void compare(List<GeometricalObject> shapes, Sync text) throws IOException {
+        int[] args = new int[ShapeType.MAX_ARGUMENTS];
+        long[] newHashes = new long[shapes.size()];
+        for (int i = 0; i < newHashes.length; i++) {
+            newHashes[i] = ShapeType.hash(shapes.get(i), args);
+        }
+
+        long[][] oldHashes = new long[1][];
+        List<GeometricalObject> oldShapes = new ArrayList<>();
+        int[] oldVersion = new int[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                if (!closed && !model.isChanged()) {
+                    oldHashes[0] = Arrays.copyOf(hashes, size);
+                    oldVersion[0] = version;
+                    if (size > 0) {
+                        model.forEachObject(0, size - 1, oldShapes::add);
+                    }
+                }
+            });
+        } catch (InterruptedException | InvocationTargetException e) {
+            throw new InterruptedIOException("Snapshot of the drawing was interrupted.");
+        }
+        if (oldHashes[0] == null) {
+            return;
+        }
+
+        List<Hunk> hunks = SequenceDiff.diff(oldHashes[0], oldHashes[0].length, newHashes, newHashes.length, MAX_EDITS);
+        hunks = verify(hunks, oldShapes, shapes);
+        if (hunks.size() > MAX_HUNKS) {
+            Hunk first = hunks.get(0);
+            Hunk last = hunks.get(hunks.size() - 1);
+            hunks = Collections.singletonList(new Hunk(
+                first.getOldIndex(), last.getOldIndex() + last.getOldCount() - first.getOldIndex(),
+                first.getNewIndex(), last.getNewIndex() + last.getNewCount() - first.getNewIndex()
+            ));
+        }
+
+        List<Hunk> changes = hunks;
+        SwingUtilities.invokeLater(() -> apply(changes, shapes, oldVersion[0], text));
+    }
+
+    /**
+     * Compares the shapes that the specified hunks leave in place value by
+     * value, and returns the hunks along with a hunk that replaces every run
+     * of shapes whose hashes are equal although the shapes are not.
+     *
+     * @param hunks differences between the hashes of the shapes
+     * @param oldShapes shapes of the model
+     * @param newShapes shapes of the document
+     * @return differences between the shapes, in order
+     */
+    private static List<Hunk> verify(List<Hunk> hunks, List<GeometricalObject> oldShapes, List<GeometricalObject> newShapes) {
+        int[] args1 = new int[ShapeType.MAX_ARGUMENTS];
+        int[] args2 = new int[ShapeType.MAX_ARGUMENTS];
+        List<Hunk> verified = new ArrayList<>(hunks.size());
+
+        int oldIndex = 0;
+        int newIndex = 0;
+        for (int h = 0; h <= hunks.size(); h++) {
+            Hunk hunk = h < hunks.size() ? hunks.get(h) : null;
+            int end = hunk != null ? hunk.getOldIndex() : oldShapes.size();
+
+            // Shapes between two hunks are matched one to one
+            int run = 0;
+            for (; oldIndex < end; oldIndex++, newIndex++) {
+                if (!ShapeType.equal(oldShapes.get(oldIndex), newShapes.get(newIndex), args1, args2)) {
+                    run++;
+                } else if (run > 0) {
+                    verified.add(new Hunk(oldIndex - run, run, newIndex - run, run));
+                    run = 0;
+                }
+            }
+            if (run > 0) {
+                verified.add(new Hunk(oldIndex - run, run, newIndex - run, run));
+            }
+
+            if (hunk != null) {
+                verified.add(hunk);
+                oldIndex = hunk.getOldIndex() + hunk.getOldCount();
+                newIndex = hunk.getNewIndex() + hunk.getNewCount();
+            }
+        }
+
+        return verified;
+    }
+
+    /**
+     * Applies the specified hunks to the model, from the last to the first so
+     * that the indices of the hunks stay valid. If the model changed since
+     * the hunks were computed, the reload is redone instead, unless the model
+     * has unsaved changes.
+     *
+     * @param hunks differences between the model and the document
+     * @param shapes shapes of the document
+     * @param expectedVersion version of the model the hunks were computed for
+     * @param text synchronization state of the text of the document, or null
+     */
+    private void apply(List<Hunk> hunks, List<GeometricalObject> shapes, int expectedVersion, Sync text) {
+        if (closed || model.isChanged()) {
+            return;
+        }
+        if (version != expectedVersion) {
+            schedule();
+            return;
+        }
+
+        for (int i = hunks.size() - 1; i >= 0; i--) {
+            Hunk hunk = hunks.get(i);
+            if (hunk.getOldCount() > 0) {
+                model.removeObjects(hunk.getOldIndex(), hunk.getOldIndex() + hunk.getOldCount() - 1);
+            }
+            if (hunk.getNewCount() > 0) {
+                model.insertAll(hunk.getOldIndex(),
+                        shapes.subList(hunk.getNewIndex(), hunk.getNewIndex() + hunk.getNewCount()));
+            }
+        }
+        sync = text == null ? null : new Sync(text.length, text.crc, version);
+
+        if (!hunks.isEmpty()) {
+            model.setChanged(false);
+            onReload.run();
+        }
+    }
+
+    /**
+     * Adds the specified shapes, parsed from the lines appended to the text
+     * that was last applied, to the model. If the model changed since that
+     * text was applied, the whole document is reloaded instead, unless the
+     * model has unsaved changes.
+     *
+     * @param appended shapes of the appended lines
+     * @param old synchronization state the lines were appended to
+     * @param text synchronization state of the text with the appended lines
+     */
+    private void append(List<GeometricalObject> appended, Sync old, Sync text) {
+        if (closed || model.isChanged()) {
+            return;
+        }
+        if (version != old.version) {
+            sync = null;
+            schedule();
+            return;
+        }
+
+        model.addAll(appended);
+        sync = new Sync(text.length, text.crc, version);
+
+        if (!appended.isEmpty()) {
+            model.setChanged(false);
+            onReload.run();
+        }
+    }
+
+    @Override
+    public void objectsAdded(DrawingModel source, int index0, int index1) {
+        int count = index1 - index0 + 1;
+        if (size + count > hashes.length) {
+            hashes = Arrays.copyOf(hashes, Math.max(2 * hashes.length, size + count));
+        }
+        System.arraycopy(hashes, index0, hashes, index1 + 1, size - index0);
+        size += count;
+        for (int i = index0; i <= index1; i++) {
+            hashes[i] = ShapeType.hash(source.getObject(i), args);
+        }
+        version++;
+    }
+
+    @Override
+    public void objectsRemoved(DrawingModel source, int index0, int index1) {
+        int count = index1 - index0 + 1;
+        System.arraycopy(hashes, index0 + count, hashes, index0, size - index0 - count);
+        size -= count;
+        version++;
+    }
+
+    @Override
+    public void objectsChanged(DrawingModel source, int index0, int index1) {
+        for (int i = index0; i <= index1; i++) {
+            hashes[i] = ShapeType.hash(source.getObject(i), args);
+        }
+        version++;
+    }
+
+    /**
+     * Stops watching the document. A reload in progress is discarded.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        model.removeDrawingModelListener(this);
+        reloader.shutdownNow();
+        try {
+            service.close();
+        } catch (IOException ignorable) {}
+    }
+
+}
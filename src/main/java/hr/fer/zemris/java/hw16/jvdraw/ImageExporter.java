@@ -0,0 +1,369 @@
+package hr.fer.zemris.java.hw16.jvdraw;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.SwingWorker;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+
+/**
+ * A worker that exports a drawing as images in the background, in any number
+ * of formats at once. The drawing is rendered only once, at full size, after
+ * which every {@link Target target} is encoded from the rendered image on a
+ * bounded pool of threads, so a PNG, a JPEG and a thumbnail of a drawing are
+ * encoded in parallel. Thumbnails are scaled down from the rendered image to
+ * at most {@value #THUMBNAIL_SIZE} pixels on their longer side.
+ * <p>
+ * The worker reports its progress through the rendering and through the
+ * encoding of every image, and may be cancelled at any time, in which case
+ * the images that are not complete are deleted. An image that can not be
+ * written is deleted as well, and the worker results with the errors of all
+ * such images.
+ * <p>
+ * The shapes are given to the worker as a list that must not change during
+ * the export, and are drawn on a background thread, so they must not be
+ * shared with the drawing model. A drawing is exported as it was when the
+ * worker was created by giving it
+ * {@linkplain hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType#copy copies}
+ * of the shapes of the model, made on the event dispatch thread.
+ *
+ * @author Mario Bobic
+ */
+public class ImageExporter extends SwingWorker<Map<Path, Throwable>, Void> {
+
+    /** Size of the longer side of thumbnails in pixels. */
+    public static final int THUMBNAIL_SIZE = 256;
+
+    /** Part of the progress taken by rendering, in percent. */
+    private static final int RENDER_PROGRESS = 30;
+    /** Number of shapes drawn between progress updates. */
+    private static final int RENDER_STEP = 4096;
+
+    /**
+     * An image to be exported: a path, an image format and whether the image
+     * is a thumbnail of the drawing.
+     */
+    public static class Target {
+        /** Path of the image. */
+        private final Path file;
+        /** Informal name of the image format, as used by {@link ImageIO}. */
+        private final String format;
+        /** Indicates whether the image is a thumbnail. */
+        private final boolean thumbnail;
+
+        /**
+         * Constructs a target with the specified values.
+         *
+         * @param file path of the image
+         * @param format informal name of the image format, such as
+         *        <tt>png</tt> or <tt>jpg</tt>
+         * @param thumbnail true if the image is a thumbnail of the drawing
+         */
+        public Target(Path file, String format, boolean thumbnail) {
+            this.file = Objects.requireNonNull(file);
+            this.format = Objects.requireNonNull(format);
+            this.thumbnail = thumbnail;
+        }
+
+        /**
+         * Returns the path of the image.
+         *
+         * @return the path of the image
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the informal name of the image format.
+         *
+         * @return the name of the image format
+         */
+        public String getFormat() {
+            return format;
+        }
+
+        /**
+         * Returns <tt>true</tt> if the image is a thumbnail of the drawing.
+         *
+         * @return true if the image is a thumbnail
+         */
+        public boolean isThumbnail() {
+            return thumbnail;
+        }
+    }
+
+    /** Shapes of the drawing, in drawing order. */
+    private final List<GeometricalObject> shapes;
+    /** Images to be exported. */
+    private final List<Target> targets;
+    /** Progress of the encoding of every image, in percent. */
+    private final AtomicIntegerArray encoded;
+
+    /**
+     * Constructs an instance of {@code ImageExporter} that exports the
+     * specified <tt>shapes</tt> to the specified <tt>targets</tt>.
+     *
+     * @param shapes shapes of the drawing, in drawing order
+     * @param targets images to be exported
+     * @throws IllegalArgumentException if there are no targets
+     */
+    public ImageExporter(List<GeometricalObject> shapes, List<Target> targets) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No images to export.");
+        }
+        this.shapes = Objects.requireNonNull(shapes);
+        this.targets = targets;
+        this.encoded = new AtomicIntegerArray(targets.size());
+    }
+
+    /**
+     * Returns the images exported by this worker.
+     *
+     * @return the images to be exported
+     */
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    @Override
+    protected Map<Path, Throwable> doInBackground() throws Exception {
+        Map<Path, Throwable> errors = new LinkedHashMap<>();
+
+        BufferedImage image = render();
+        if (isCancelled()) {
+            return errors;
+        }
+
+        int threads = Math.min(targets.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, (r) -> {
+            Thread thread = new Thread(r, "Image encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            Future<?>[] futures = new Future<?>[targets.size()];
+            for (int i = 0; i < futures.length; i++) {
+                int index = i;
+                futures[i] = pool.submit(() -> {
+                    encode(index, image);
+                    return null;
+                });
+            }
+
+            for (int i = 0; i < futures.length; i++) {
+                try {
+                    futures[i].get();
+                } catch (ExecutionException ex) {
+                    errors.put(targets.get(i).getFile(), ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return errors;
+    }
+
+    /**
+     * Renders the shapes onto a white image that just fits their bounding
+     * boxes. Rendering stops early if the worker is cancelled.
+     *
+     * @return the rendered image
+     */
+    private BufferedImage render() {
+        int minX = 0;
+        int minY = 0;
+        int maxX = 0;
+        int maxY = 0;
+
+        for (int i = 0, n = shapes.size(); i < n; i++) {
+            Rectangle r = shapes.get(i).getBoundingBox();
+
+            if (i == 0) {
+                minX = r.x;
+                minY = r.y;
+                maxX = r.x + r.width;
+                maxY = r.y + r.height;
+            } else {
+                minX = Math.min(minX, r.x);
+                minY = Math.min(minY, r.y);
+                maxX = Math.max(maxX, r.x + r.width);
+                maxY = Math.max(maxY, r.y + r.height);
+            }
+        }
+
+        int width = maxX - minX + 1;
+        int height = maxY - minY + 1;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(
+            RenderingHints.KEY_ANTIALIASING,
+            RenderingHints.VALUE_ANTIALIAS_ON
+        );
+
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        for (int i = 0, n = shapes.size(); i < n && !isCancelled(); ) {
+            int end = Math.min(n, i + RENDER_STEP);
+            for (; i < end; i++) {
+                shapes.get(i).draw(g, -minX, -minY);
+            }
+            setProgress((int) ((long) i * RENDER_PROGRESS / n));
+        }
+
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Encodes the specified rendered <tt>image</tt>, or its thumbnail, into
+     * the target at the specified <tt>index</tt>. The file of the target is
+     * deleted if the encoding fails or if the worker is cancelled.
+     *
+     * @param index index of the target
+     * @param image rendered image of the drawing
+     * @throws IOException if an I/O error occurs or if there is no writer for
+     *         the format of the target
+     */
+    private void encode(int index, BufferedImage image) throws IOException {
+        Target target = targets.get(index);
+        BufferedImage source = target.isThumbnail() ? thumbnail(image) : image;
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWriters(
+                ImageTypeSpecifier.createFromRenderedImage(source), target.getFormat());
+        if (!writers.hasNext()) {
+            throw new IOException("Images can not be written as " + target.getFormat() + ".");
+        }
+
+        ImageWriter writer = writers.next();
+        writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+            @Override
+            public void imageProgress(ImageWriter source, float percentageDone) {
+                if (isCancelled()) {
+                    source.abort();
+                }
+                updateProgress(index, (int) percentageDone);
+            }
+
+            @Override
+            public void imageComplete(ImageWriter source) {
+                updateProgress(index, 100);
+            }
+
+            @Override
+            public void imageStarted(ImageWriter source, int imageIndex) {}
+            @Override
+            public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {}
+            @Override
+            public void thumbnailProgress(ImageWriter source, float percentageDone) {}
+            @Override
+            public void thumbnailComplete(ImageWriter source) {}
+            @Override
+            public void writeAborted(ImageWriter source) {}
+        });
+
+        Path file = target.getFile();
+        boolean written = false;
+        try {
+            // An image output stream over a file does not truncate it
+            Files.deleteIfExists(file);
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(file.toFile())) {
+                if (output == null) {
+                    throw new IOException("Can not write to " + file);
+                }
+                writer.setOutput(output);
+                writer.write(source);
+            }
+            written = !isCancelled();
+        } finally {
+            writer.dispose();
+            if (!written) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Sets the progress of the encoding of the target at the specified
+     * <tt>index</tt> and updates the progress of this worker.
+     *
+     * @param index index of the target
+     * @param percent progress of the encoding, in percent
+     */
+    private void updateProgress(int index, int percent) {
+        encoded.set(index, percent);
+
+        long sum = 0;
+        for (int i = 0, n = encoded.length(); i < n; i++) {
+            sum += encoded.get(i);
+        }
+        setProgress(RENDER_PROGRESS + (int) (sum * (100 - RENDER_PROGRESS) / (100L * encoded.length())));
+    }
+
+    /**
+     * Scales the specified <tt>image</tt> down to at most
+     * {@value #THUMBNAIL_SIZE} pixels on its longer side. The image is halved
+     * with bilinear interpolation as long as it is twice the size of the
+     * thumbnail, so thin lines of the drawing do not disappear.
+     *
+     * @param image image to be scaled down
+     * @return the thumbnail of the image
+     */
+    private static BufferedImage thumbnail(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        BufferedImage current = image;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            if (width < 2 * targetWidth && height < 2 * targetHeight) {
+                width = targetWidth;
+                height = targetHeight;
+            }
+
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D g = scaled.createGraphics();
+            g.setRenderingHint(
+                RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR
+            );
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = scaled;
+        } while (width != targetWidth || height != targetHeight);
+
+        return current;
+    }
+
+}
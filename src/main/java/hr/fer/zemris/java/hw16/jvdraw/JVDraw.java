@@ -6,32 +6,42 @@ import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.nio.file.Path;
+import java.util.BitSet;
 import java.util.List;
+import java.util.zip.Deflater;
 
+import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.WindowConstants;
 
+import hr.fer.zemris.java.hw16.jvdraw.components.BitSetSelectionModel;
 import hr.fer.zemris.java.hw16.jvdraw.components.DrawingObjectListModel;
 import hr.fer.zemris.java.hw16.jvdraw.components.JColorArea;
 import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingCanvas;
+import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingCanvas.Tool;
 import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingCanvasModel;
 import hr.fer.zemris.java.hw16.jvdraw.components.StatusBar;
 import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
@@ -56,7 +66,13 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.AbstractShapePanel;
  * bottom.
  * <p>
  * Status bar shows information about the currently selected foreground and
- * background colors.
+ * background colors, and the memory footprint of the drawing which is
+ * refreshed every second.
+ * <p>
+ * Shapes can be selected either in the history list or directly on the canvas
+ * with the <tt>Select</tt> and <tt>Lasso</tt> tools, since both share the same
+ * selection model.
+ * Double-clicking a shape in either of them opens the shape altering dialog.
  * <p>
  * About page contains some info about the application and its developer.
  *
@@ -69,6 +85,8 @@ public class JVDraw extends JFrame {
 
     /** Title of the frame. */
     public static final String FRAME_TITLE = "JVDraw";
+    /** Interval in milliseconds for refreshing the memory statistics. */
+    private static final int MEMORY_REFRESH_INTERVAL = 1000;
 
     /** The drawing canvas model. */
     private JDrawingCanvasModel canvasModel;
@@ -82,8 +100,16 @@ public class JVDraw extends JFrame {
     private JToolBar toolBar;
     /** The statusbar which contains information about foreground and background. */
     private StatusBar statusBar;
+    /** Timer that refreshes memory statistics in the status bar. */
+    private Timer memoryTimer;
+    /** Autosaver that keeps a recovery copy of an unsaved drawing. */
+    private Autosaver autosaver;
     /** A drawing object list model, basically containing history of drawn objects. */
     private DrawingObjectListModel historyModel;
+    /** The list showing the drawing object history. */
+    private JList<GeometricalObject> historyList;
+    /** Selection model shared by the history list and the canvas. */
+    private BitSetSelectionModel selectionModel;
 
     /** Foreground color picker. */
     private JColorArea foreground = new JColorArea(Color.RED);
@@ -116,6 +142,35 @@ public class JVDraw extends JFrame {
         return canvasModel;
     }
 
+    /**
+     * Returns the status bar of this frame.
+     *
+     * @return the status bar
+     */
+    public StatusBar getStatusBar() {
+        return statusBar;
+    }
+
+    /**
+     * Returns indices of the shapes that are currently selected in the history
+     * list.
+     *
+     * @return indices of the currently selected shapes
+     */
+    public BitSet getSelectedIndices() {
+        return selectionModel.getSelection();
+    }
+
+    /**
+     * Selects exactly the shapes at the specified indices in the history list.
+     * Listeners of the selection model are notified only once.
+     *
+     * @param selected indices of the shapes to be selected
+     */
+    public void setSelectedIndices(BitSet selected) {
+        selectionModel.setSelection(selected);
+    }
+
     /**
      * Initializes the GUI first by initializing all fields of this class and
      * then creating actions, menus, the toolbar and the status bar.
@@ -127,8 +182,17 @@ public class JVDraw extends JFrame {
 
         toolBar = createToolbars();
         statusBar = new StatusBar(foreground, background);
+        memoryTimer = new Timer(MEMORY_REFRESH_INTERVAL, (e) -> {
+            statusBar.setMemoryStatistics(canvas.getMemoryStatistics());
+        });
+        memoryTimer.setInitialDelay(0);
+        memoryTimer.start();
+        autosaver = new Autosaver(canvasModel);
         historyModel = new DrawingObjectListModel(canvasModel);
-        JList<GeometricalObject> history = getHistoryList();
+        selectionModel = new BitSetSelectionModel();
+        historyList = getHistoryList();
+        canvas.setSelectionModel(selectionModel);
+        configureCanvas();
 
         Container cp = getContentPane();
 
@@ -142,7 +206,7 @@ public class JVDraw extends JFrame {
         cp.add(statusBar, BorderLayout.PAGE_END);
 
         JScrollPane historyScroll = new JScrollPane(
-                history,
+                historyList,
                 JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
                 JScrollPane.HORIZONTAL_SCROLLBAR_NEVER
         );
@@ -169,6 +233,12 @@ public class JVDraw extends JFrame {
                 }
             }
 
+            @Override
+            public void windowClosed(WindowEvent e) {
+                memoryTimer.stop();
+                autosaver.stop();
+            }
+
         });
     }
 
@@ -191,20 +261,25 @@ public class JVDraw extends JFrame {
      */
     private JList<GeometricalObject> getHistoryList() {
         JList<GeometricalObject> historyList = new JList<>(historyModel);
-        historyList.setFixedCellWidth(120);
+        historyList.setSelectionModel(selectionModel);
+        // Wide enough for the longest name a shape can have
+        historyList.setPrototypeCellValue(DrawingObjectListModel.createPrototypeCellValue());
 
         historyList.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
                 if (e.getClickCount() == 2) {
                     int index = historyList.locationToIndex(e.getPoint());
-                    if (index != -1) {
-                        if (!canvasModel.isCurrentlyDrawing()) {
-                            GeometricalObject shape = canvasModel.getObject(index);
-                            alterShape(shape);
-                            canvasModel.changeObject(index);
-                        }
-                    }
+                    alterShape(index);
+                }
+            }
+        });
+
+        historyList.addListSelectionListener((e) -> {
+            if (!e.getValueIsAdjusting()) {
+                int lead = historyList.getLeadSelectionIndex();
+                if (lead != -1 && historyList.isSelectedIndex(lead)) {
+                    historyList.ensureIndexIsVisible(lead);
                 }
             }
         });
@@ -226,6 +301,38 @@ public class JVDraw extends JFrame {
         return historyList;
     }
 
+    /**
+     * Adds a {@code MouseListener} to the canvas implementing only the
+     * {@code mouseClicked} method, to open the shape altering dialog for the
+     * topmost shape that was double-clicked with the selection tool.
+     */
+    private void configureCanvas() {
+        canvas.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && canvas.isSelecting()) {
+                    int index = canvas.getObjectAt(e.getX(), e.getY());
+                    alterShape(index);
+                }
+            }
+        });
+    }
+
+    /**
+     * Alters the shape at the specified <tt>index</tt> in the canvas model and
+     * notifies the model of the change. Does nothing if the index is
+     * <tt>-1</tt> or if a shape is currently being drawn.
+     *
+     * @param index index of the shape to be altered
+     */
+    private void alterShape(int index) {
+        if (index != -1 && !canvasModel.isCurrentlyDrawing()) {
+            GeometricalObject shape = canvasModel.getObject(index);
+            alterShape(shape);
+            canvasModel.changeObject(index);
+        }
+    }
+
     /**
      * Alters the specified <tt>shape</tt> by obtaining its
      * {@link GeometricalObject#getModificationPanel() modification panel} and
@@ -269,15 +376,15 @@ public class JVDraw extends JFrame {
      * <ol>
      * <li>clearing the canvas,
      * <li>setting the canvas file path to <tt>null</tt>,
-     * <li>setting the frame title to {@link #FRAME_TITLE} and
-     * <li>resetting the geometric shape instance counters
+     * <li>setting the frame title to {@link #FRAME_TITLE}
      * </ol>
+     * <p>
+     * Clearing the canvas also restarts the numbering of shape names.
      */
     public void reset() {
         clearCanvas();
         canvasModel.setFilePath(null);
         setTitle(FRAME_TITLE);
-        ShapeFactory.resetInstanceCounters();
     }
 
     /**
@@ -318,11 +425,21 @@ public class JVDraw extends JFrame {
         putActionValue(actions.newAction, "control N", KeyEvent.VK_N);
         putActionValue(actions.openAction, "control O", KeyEvent.VK_O);
         putActionValue(actions.openMultipleAction, "control shift O", KeyEvent.VK_M);
+        putActionValue(actions.browseAction, null, KeyEvent.VK_R);
         putActionValue(actions.saveAction, "control S", KeyEvent.VK_S);
         putActionValue(actions.saveAsAction, "control shift S", KeyEvent.VK_A);
+        putActionValue(actions.saveBinaryAction, null, KeyEvent.VK_B);
+        putActionValue(actions.saveRecordsAction, null, KeyEvent.VK_V);
+        putActionValue(actions.saveCompressedAction, null, KeyEvent.VK_D);
+        putActionValue(actions.convertAction, null, KeyEvent.VK_C);
         putActionValue(actions.exportAction, "control E", KeyEvent.VK_E);
         putActionValue(actions.exitAction, "control X", KeyEvent.VK_X);
 
+        putActionValue(actions.bringToFrontAction, "control shift F", KeyEvent.VK_F);
+        putActionValue(actions.bringForwardAction, "control F", KeyEvent.VK_W);
+        putActionValue(actions.sendBackwardAction, "control B", KeyEvent.VK_B);
+        putActionValue(actions.sendToBackAction, "control shift B", KeyEvent.VK_K);
+
         putActionValue(actions.aboutAction, "F1", KeyEvent.VK_A);
     }
 
@@ -360,13 +477,38 @@ public class JVDraw extends JFrame {
         fileMenu.add(new JMenuItem(actions.newAction));
         fileMenu.add(new JMenuItem(actions.openAction));
         fileMenu.add(new JMenuItem(actions.openMultipleAction));
+        JCheckBoxMenuItem dedupeItem = new JCheckBoxMenuItem("Remove duplicates on import", actions.isDeduplicating());
+        dedupeItem.addActionListener((e) -> actions.setDeduplicating(dedupeItem.isSelected()));
+        fileMenu.add(dedupeItem);
+        fileMenu.add(new JMenuItem(actions.browseAction));
         fileMenu.addSeparator();
         fileMenu.add(new JMenuItem(actions.saveAction));
         fileMenu.add(new JMenuItem(actions.saveAsAction));
+        fileMenu.add(new JMenuItem(actions.saveBinaryAction));
+        fileMenu.add(new JMenuItem(actions.saveRecordsAction));
+        fileMenu.add(new JMenuItem(actions.saveCompressedAction));
+        fileMenu.add(createCompressionMenu());
+        JCheckBoxMenuItem journalItem = new JCheckBoxMenuItem("Journaled saves", actions.isJournaling());
+        journalItem.addActionListener((e) -> actions.setJournaling(journalItem.isSelected()));
+        fileMenu.add(journalItem);
+        JCheckBoxMenuItem watchItem = new JCheckBoxMenuItem("Follow file changes", actions.isWatching());
+        watchItem.addActionListener((e) -> actions.setWatching(watchItem.isSelected()));
+        fileMenu.add(watchItem);
+        fileMenu.add(createAutosaveMenu());
+        fileMenu.add(new JMenuItem(actions.convertAction));
         fileMenu.add(new JMenuItem(actions.exportAction));
         fileMenu.addSeparator();
         fileMenu.add(new JMenuItem(actions.exitAction));
 
+        /* Arrange menu */
+        JMenu arrangeMenu = new JMenu("Arrange");
+        menuBar.add(arrangeMenu);
+
+        arrangeMenu.add(new JMenuItem(actions.bringToFrontAction));
+        arrangeMenu.add(new JMenuItem(actions.bringForwardAction));
+        arrangeMenu.add(new JMenuItem(actions.sendBackwardAction));
+        arrangeMenu.add(new JMenuItem(actions.sendToBackAction));
+
         /* Help menu */
         JMenu helpMenu = new JMenu("Help");
         menuBar.add(helpMenu);
@@ -374,6 +516,80 @@ public class JVDraw extends JFrame {
         helpMenu.add(new JMenuItem(actions.aboutAction));
     }
 
+    /**
+     * Creates a menu for selecting the level with which compressed documents
+     * are saved.
+     *
+     * @return a menu of compression levels
+     */
+    private JMenu createCompressionMenu() {
+        JMenu compressionMenu = new JMenu("Compression");
+        ButtonGroup group = new ButtonGroup();
+
+        String[] names = {"Fastest", "Default", "Smallest"};
+        int[] levels = {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+
+        for (int i = 0; i < names.length; i++) {
+            int level = levels[i];
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(names[i], level == actions.getCompressionLevel());
+            item.addActionListener((e) -> actions.setCompressionLevel(level));
+
+            group.add(item);
+            compressionMenu.add(item);
+        }
+
+        return compressionMenu;
+    }
+
+    /**
+     * Creates a menu for selecting the interval between autosaves.
+     *
+     * @return a menu of autosave intervals
+     */
+    private JMenu createAutosaveMenu() {
+        JMenu autosaveMenu = new JMenu("Autosave");
+        ButtonGroup group = new ButtonGroup();
+
+        String[] names = {"Off", "Every 30 seconds", "Every minute", "Every 5 minutes"};
+        int[] intervals = {0, 30_000, Autosaver.DEFAULT_INTERVAL, 300_000};
+
+        for (int i = 0; i < names.length; i++) {
+            int interval = intervals[i];
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(names[i], interval == autosaver.getInterval());
+            item.addActionListener((e) -> autosaver.setInterval(interval));
+
+            group.add(item);
+            autosaveMenu.add(item);
+        }
+
+        return autosaveMenu;
+    }
+
+    /**
+     * Starts autosaving, after offering to recover the drawings that were
+     * autosaved by previous runs of the program which did not exit properly,
+     * the most recent first. A recovery file is deleted if its offer is
+     * declined. Once a drawing is recovered, its recovery file is taken over
+     * by the autosaver and the remaining drawings are offered by the next run.
+     */
+    private void startAutosaving() {
+        for (Path recovery : Autosaver.findRecoveries()) {
+            int decision = JOptionPane.showConfirmDialog(
+                this,
+                "JVDraw did not exit properly. Do you want to recover the unsaved drawing?",
+                "Recover drawing?",
+                JOptionPane.YES_NO_OPTION);
+
+            if (decision == JOptionPane.YES_OPTION) {
+                actions.recover(recovery);
+                autosaver.start(recovery);
+                return;
+            }
+            Autosaver.discard(recovery);
+        }
+        autosaver.start();
+    }
+
     /**
      * Creates a non-floatable <tt>JToolBar</tt> and fills it with two color
      * pickers, one for foreground and one for background color, and toggle
@@ -396,6 +612,7 @@ public class JVDraw extends JFrame {
         boolean first = true;
         for (Action shapeAction : availableShapes) {
             JToggleButton button = new JToggleButton(shapeAction);
+            button.addActionListener((e) -> canvas.setTool(Tool.DRAW));
             if (first) {
                 button.doClick();
                 first = false;
@@ -405,6 +622,33 @@ public class JVDraw extends JFrame {
             toolBar.add(button);
         }
 
+        JToggleButton selectButton = new JToggleButton(new AbstractAction("Select") {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                canvas.setTool(Tool.SELECT);
+            }
+        });
+        group.add(selectButton);
+        toolBar.add(selectButton);
+
+        JToggleButton lassoButton = new JToggleButton(new AbstractAction("Lasso") {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                canvas.setTool(Tool.LASSO);
+            }
+        });
+        group.add(lassoButton);
+        toolBar.add(lassoButton);
+
+        JToggleButton snapButton = new JToggleButton("Snap");
+        snapButton.addActionListener((e) -> {
+            int radius = snapButton.isSelected() ? JDrawingCanvasModel.DEFAULT_SNAP_RADIUS : 0;
+            canvasModel.setSnapRadius(radius);
+        });
+        toolBar.add(snapButton);
+
         return toolBar;
     }
 
@@ -419,7 +663,9 @@ public class JVDraw extends JFrame {
      */
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            new JVDraw().setVisible(true);
+            JVDraw frame = new JVDraw();
+            frame.setVisible(true);
+            frame.startAutosaving();
         });
     }
 
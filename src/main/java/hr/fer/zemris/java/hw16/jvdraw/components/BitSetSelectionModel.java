@@ -0,0 +1,423 @@
+package hr.fer.zemris.java.hw16.jvdraw.components;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * A {@link ListSelectionModel} that keeps selected indices in a compact
+ * {@link BitSet}. Besides the usual interval operations, it can replace the
+ * whole selection with an arbitrary set of indices through
+ * {@link #setSelection(BitSet)}, notifying listeners with a single event no
+ * matter how many intervals the new selection consists of.
+ * <p>
+ * The anchor and lead indices behave as in the
+ * {@link javax.swing.DefaultListSelectionModel DefaultListSelectionModel}.
+ *
+ * @author Mario Bobic
+ */
+public class BitSetSelectionModel implements ListSelectionModel {
+
+    /** Selected indices. */
+    private BitSet selection = new BitSet();
+
+    /** The selection mode. */
+    private int selectionMode = MULTIPLE_INTERVAL_SELECTION;
+    /** The anchor selection index. */
+    private int anchorIndex = -1;
+    /** The lead selection index. */
+    private int leadIndex = -1;
+
+    /** Flag that indicates if a series of changes is in progress. */
+    private boolean valueIsAdjusting;
+    /** Smallest index changed since listeners were last notified. */
+    private int firstChangedIndex = Integer.MAX_VALUE;
+    /** Largest index changed since listeners were last notified. */
+    private int lastChangedIndex = -1;
+    /** Smallest index changed during the current series of changes. */
+    private int firstAdjustedIndex = Integer.MAX_VALUE;
+    /** Largest index changed during the current series of changes. */
+    private int lastAdjustedIndex = -1;
+
+    /** List of listeners. */
+    private List<ListSelectionListener> listeners = new ArrayList<>();
+
+    /**
+     * Returns a copy of the selected indices.
+     *
+     * @return a copy of the selected indices
+     */
+    public BitSet getSelection() {
+        return (BitSet) selection.clone();
+    }
+
+    /**
+     * Selects exactly the specified indices, moving the anchor to the first and
+     * the lead to the last selected index. Listeners are notified with a
+     * single event covering all indices whose state changed.
+     *
+     * @param indices indices to be selected
+     */
+    public void setSelection(BitSet indices) {
+        BitSet changedBits = (BitSet) selection.clone();
+        changedBits.xor(indices);
+
+        selection = (BitSet) indices.clone();
+        if (!selection.isEmpty()) {
+            anchorIndex = selection.nextSetBit(0);
+            leadIndex = selection.length() - 1;
+        }
+
+        if (!changedBits.isEmpty()) {
+            markChanged(changedBits.nextSetBit(0), changedBits.length() - 1);
+        }
+        fireValueChanged();
+    }
+
+    @Override
+    public void setSelectionInterval(int index0, int index1) {
+        if (index0 == -1 || index1 == -1) {
+            return;
+        }
+        if (selectionMode == SINGLE_SELECTION) {
+            index0 = index1;
+        }
+
+        int oldMin = getMinSelectionIndex();
+        int oldMax = getMaxSelectionIndex();
+        selection.clear();
+        if (oldMin != -1) {
+            markChanged(oldMin, oldMax);
+        }
+
+        select(index0, index1);
+    }
+
+    @Override
+    public void addSelectionInterval(int index0, int index1) {
+        if (index0 == -1 || index1 == -1) {
+            return;
+        }
+        if (selectionMode != MULTIPLE_INTERVAL_SELECTION) {
+            setSelectionInterval(index0, index1);
+            return;
+        }
+
+        select(index0, index1);
+    }
+
+    @Override
+    public void removeSelectionInterval(int index0, int index1) {
+        if (index0 == -1 || index1 == -1) {
+            return;
+        }
+
+        int min = Math.min(index0, index1);
+        int max = Math.max(index0, index1);
+        selection.clear(min, max + 1);
+
+        anchorIndex = index0;
+        leadIndex = index1;
+        markChanged(min, max);
+        fireValueChanged();
+    }
+
+    /**
+     * Selects the index0, index1 interval, sets the anchor to index0 and the
+     * lead to index1 and notifies listeners of the change.
+     *
+     * @param index0 one end of the interval
+     * @param index1 other end of the interval
+     */
+    private void select(int index0, int index1) {
+        int min = Math.min(index0, index1);
+        int max = Math.max(index0, index1);
+        selection.set(min, max + 1);
+
+        anchorIndex = index0;
+        leadIndex = index1;
+        markChanged(min, max);
+        fireValueChanged();
+    }
+
+    @Override
+    public int getMinSelectionIndex() {
+        return selection.nextSetBit(0);
+    }
+
+    @Override
+    public int getMaxSelectionIndex() {
+        return selection.length() - 1;
+    }
+
+    @Override
+    public boolean isSelectedIndex(int index) {
+        return index >= 0 && selection.get(index);
+    }
+
+    @Override
+    public int getAnchorSelectionIndex() {
+        return anchorIndex;
+    }
+
+    @Override
+    public void setAnchorSelectionIndex(int index) {
+        int oldAnchor = anchorIndex;
+        anchorIndex = index;
+        markChanged(oldAnchor, index);
+        fireValueChanged();
+    }
+
+    @Override
+    public int getLeadSelectionIndex() {
+        return leadIndex;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * As in the {@code DefaultListSelectionModel}, the indices between the
+     * anchor and the new lead take the selection state of the anchor.
+     */
+    @Override
+    public void setLeadSelectionIndex(int index) {
+        int oldLead = leadIndex;
+        if (anchorIndex == -1 || oldLead == -1 || index == -1) {
+            leadIndex = index;
+            markChanged(oldLead, index);
+            fireValueChanged();
+            return;
+        }
+
+        if (selection.get(anchorIndex)) {
+            setRange(anchorIndex, oldLead, false);
+            setRange(anchorIndex, index, true);
+        } else {
+            setRange(anchorIndex, oldLead, true);
+            setRange(anchorIndex, index, false);
+        }
+
+        leadIndex = index;
+        markChanged(Math.min(anchorIndex, Math.min(oldLead, index)),
+                Math.max(anchorIndex, Math.max(oldLead, index)));
+        fireValueChanged();
+    }
+
+    @Override
+    public void clearSelection() {
+        if (selection.isEmpty()) {
+            return;
+        }
+
+        markChanged(getMinSelectionIndex(), getMaxSelectionIndex());
+        selection.clear();
+        fireValueChanged();
+    }
+
+    @Override
+    public boolean isSelectionEmpty() {
+        return selection.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Inserted indices take the selection state of the index at which they
+     * are inserted.
+     */
+    @Override
+    public void insertIndexInterval(int index, int length, boolean before) {
+        int insertAt = before ? index : index + 1;
+        boolean insertSelected = selection.get(index);
+        int oldMax = getMaxSelectionIndex();
+
+        shift(insertAt, length);
+        if (insertSelected) {
+            selection.set(insertAt, insertAt + length);
+        }
+
+        anchorIndex = shiftIndex(anchorIndex, insertAt, length);
+        leadIndex = shiftIndex(leadIndex, insertAt, length);
+        if (insertSelected || oldMax >= insertAt) {
+            markChanged(insertAt, getMaxSelectionIndex());
+        }
+        fireValueChanged();
+    }
+
+    @Override
+    public void removeIndexInterval(int index0, int index1) {
+        int min = Math.min(index0, index1);
+        int max = Math.max(index0, index1);
+        int length = max - min + 1;
+
+        int oldMax = getMaxSelectionIndex();
+        selection.clear(min, max + 1);
+        shift(max + 1, -length);
+
+        anchorIndex = removeIndex(anchorIndex, min, max);
+        leadIndex = removeIndex(leadIndex, min, max);
+        if (oldMax >= min) {
+            markChanged(min, oldMax);
+        }
+        fireValueChanged();
+    }
+
+    /**
+     * Shifts all selection bits starting at index <tt>from</tt> by the
+     * specified <tt>distance</tt>, which is negative for shifting down.
+     *
+     * @param from first index to be shifted
+     * @param distance distance to shift by
+     */
+    private void shift(int from, int distance) {
+        int length = selection.length();
+        if (from >= length) {
+            return;
+        }
+
+        BitSet tail = selection.get(from, length);
+        selection.clear(Math.min(from, from + distance), length);
+        for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+            selection.set(from + distance + i);
+        }
+    }
+
+    /**
+     * Returns the new value of the specified anchor or lead index after
+     * <tt>length</tt> indices were inserted at <tt>insertAt</tt>.
+     *
+     * @param index anchor or lead index
+     * @param insertAt index at which indices were inserted
+     * @param length number of inserted indices
+     * @return the new value of the index
+     */
+    private static int shiftIndex(int index, int insertAt, int length) {
+        return index >= insertAt ? index + length : index;
+    }
+
+    /**
+     * Returns the new value of the specified anchor or lead index after the
+     * min, max interval was removed.
+     *
+     * @param index anchor or lead index
+     * @param min first removed index
+     * @param max last removed index
+     * @return the new value of the index
+     */
+    private static int removeIndex(int index, int min, int max) {
+        if (index > max) {
+            return index - (max - min + 1);
+        } else if (index >= min) {
+            return min - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Sets the state of the index0, index1 interval.
+     *
+     * @param index0 one end of the interval
+     * @param index1 other end of the interval
+     * @param selected the state to be set
+     */
+    private void setRange(int index0, int index1, boolean selected) {
+        selection.set(Math.min(index0, index1), Math.max(index0, index1) + 1, selected);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When a series of changes ends, listeners are notified once more with an
+     * event covering all indices changed during the series.
+     */
+    @Override
+    public void setValueIsAdjusting(boolean valueIsAdjusting) {
+        if (this.valueIsAdjusting == valueIsAdjusting) {
+            return;
+        }
+
+        this.valueIsAdjusting = valueIsAdjusting;
+        if (!valueIsAdjusting) {
+            markChanged(firstAdjustedIndex, lastAdjustedIndex);
+            firstAdjustedIndex = Integer.MAX_VALUE;
+            lastAdjustedIndex = -1;
+            fireValueChanged();
+        }
+    }
+
+    @Override
+    public boolean getValueIsAdjusting() {
+        return valueIsAdjusting;
+    }
+
+    @Override
+    public void setSelectionMode(int selectionMode) {
+        this.selectionMode = selectionMode;
+    }
+
+    @Override
+    public int getSelectionMode() {
+        return selectionMode;
+    }
+
+    @Override
+    public void addListSelectionListener(ListSelectionListener l) {
+        listeners = new ArrayList<>(listeners);
+        listeners.add(l);
+    }
+
+    @Override
+    public void removeListSelectionListener(ListSelectionListener l) {
+        listeners = new ArrayList<>(listeners);
+        listeners.remove(l);
+    }
+
+    /**
+     * Extends the range of changed indices by the index0, index1 interval.
+     * Negative indices are ignored.
+     *
+     * @param index0 one end of the interval
+     * @param index1 other end of the interval
+     */
+    private void markChanged(int index0, int index1) {
+        int min = Math.min(index0, index1);
+        int max = Math.max(index0, index1);
+        if (min < 0) {
+            min = max;
+        }
+        if (max < 0) {
+            return;
+        }
+
+        firstChangedIndex = Math.min(firstChangedIndex, min);
+        lastChangedIndex = Math.max(lastChangedIndex, max);
+    }
+
+    /**
+     * Notifies all listeners of the range changed since they were last
+     * notified. If a series of changes is in progress, the range is also
+     * accumulated for the event sent when the series ends.
+     */
+    private void fireValueChanged() {
+        if (lastChangedIndex == -1) {
+            return;
+        }
+
+        ListSelectionEvent e = new ListSelectionEvent(this, firstChangedIndex, lastChangedIndex, valueIsAdjusting);
+        if (valueIsAdjusting) {
+            firstAdjustedIndex = Math.min(firstAdjustedIndex, firstChangedIndex);
+            lastAdjustedIndex = Math.max(lastAdjustedIndex, lastChangedIndex);
+        }
+        firstChangedIndex = Integer.MAX_VALUE;
+        lastChangedIndex = -1;
+
+        for (ListSelectionListener listener : listeners) {
+            listener.valueChanged(e);
+        }
+    }
+
+}
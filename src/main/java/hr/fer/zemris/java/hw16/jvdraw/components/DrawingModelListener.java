@@ -47,4 +47,20 @@ public interface DrawingModelListener {
      */
     public void objectsChanged(DrawingModel source, int index0, int index1);
 
+    /**
+     * Sent after the shapes in the index0, index1 interval have changed their
+     * drawing order, without any shape being added, removed or altered. The
+     * interval includes both index0 and index1.
+     * <p>
+     * By default this event is handled as an
+     * {@link #objectsChanged objects changed} event.
+     *
+     * @param source the <tt>DrawingModel</tt> that triggered the event
+     * @param index0 starting index of interval reordered
+     * @param index1 ending index of interval reordered
+     */
+    public default void objectsReordered(DrawingModel source, int index0, int index1) {
+        objectsChanged(source, index0, index1);
+    }
+
 }
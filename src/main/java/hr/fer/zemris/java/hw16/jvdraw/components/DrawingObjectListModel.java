@@ -3,10 +3,16 @@ package hr.fer.zemris.java.hw16.jvdraw.components;
 import javax.swing.AbstractListModel;
 
 import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
 
 /**
  * A drawing list model usually representing drawing history. Extends the
  * {@link AbstractListModel} and implements {@link DrawingModelListener}.
+ * <p>
+ * Every event of the drawing model is passed on as a single list event of
+ * the same range, so adding, removing or changing any number of shapes costs
+ * the list only a constant amount of work, as long as the list has fixed cell
+ * sizes, for example set with a {@link #createPrototypeCellValue() prototype}.
  *
  * @author Mario Bobic
  */
@@ -16,6 +22,9 @@ public class DrawingObjectListModel extends AbstractListModel<GeometricalObject>
     /** Serialization UID. */
     private static final long serialVersionUID = 1L;
 
+    /** Instance number of the prototype cell value. */
+    private static final int PROTOTYPE_INSTANCE = 99_999_999;
+
     /** Instance of {@code DrawingModel} to fetch list size and elements. */
     private DrawingModel model;
 
@@ -30,6 +39,29 @@ public class DrawingObjectListModel extends AbstractListModel<GeometricalObject>
         model.addDrawingModelListener(this);
     }
 
+    /**
+     * Returns a shape whose name is at least as long as the name of any shape
+     * of a drawing with less than a hundred million shapes of a type. Lists
+     * of this model should use it as their
+     * {@link javax.swing.JList#setPrototypeCellValue(Object) prototype cell
+     * value}, so that they never measure their cells one by one.
+     *
+     * @return the prototype cell value for lists of this model
+     */
+    public static GeometricalObject createPrototypeCellValue() {
+        int[] args = new int[ShapeType.MAX_ARGUMENTS];
+        GeometricalObject prototype = null;
+        for (ShapeType type : ShapeType.values()) {
+            GeometricalObject shape = type.create(args);
+            if (prototype == null || shape.getTypeName().length() > prototype.getTypeName().length()) {
+                prototype = shape;
+            }
+        }
+
+        prototype.setInstance(PROTOTYPE_INSTANCE);
+        return prototype;
+    }
+
     @Override
     public int getSize() {
         return model.getSize();
@@ -42,19 +74,17 @@ public class DrawingObjectListModel extends AbstractListModel<GeometricalObject>
 
     @Override
     public void objectsAdded(DrawingModel source, int index0, int index1) {
-        super.fireIntervalAdded(source, index0, index1);
-
+        fireIntervalAdded(this, index0, index1);
     }
 
     @Override
     public void objectsRemoved(DrawingModel source, int index0, int index1) {
-        super.fireIntervalRemoved(source, index0, index1);
-
+        fireIntervalRemoved(this, index0, index1);
     }
 
     @Override
     public void objectsChanged(DrawingModel source, int index0, int index1) {
-        super.fireContentsChanged(source, index0, index1);
+        fireContentsChanged(this, index0, index1);
     }
 
 }
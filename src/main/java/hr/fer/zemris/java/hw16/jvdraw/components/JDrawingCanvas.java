@@ -1,14 +1,19 @@
 package hr.fer.zemris.java.hw16.jvdraw.components;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.util.BitSet;
 
 import javax.swing.JComponent;
 
@@ -37,6 +42,15 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
  * <li>A component listener that redraws the current image upon component
  * resized event.
  * </ul>
+ * <p>
+ * Instead of drawing, the canvas can act as a {@link #setTool selection
+ * tool}. A click then selects the topmost shape under the cursor in the
+ * {@link #setSelectionModel selection model}, which is usually shared with
+ * the drawing object list. Dragging with the {@link Tool#SELECT SELECT} tool
+ * spans a rubber band: dragged to the right it selects the shapes that lie
+ * completely inside it, dragged to the left it selects all shapes it crosses.
+ * Dragging with the {@link Tool#LASSO LASSO} tool draws a freeform lasso that
+ * selects the shapes inside it. Selected shapes are outlined on the canvas.
  *
  * @author Mario Bobic
  */
@@ -50,6 +64,53 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
     private BufferedImage cachedImage;
     /** Current image with all changes saved. */
     private BufferedImage currentImage;
+    /**
+     * Indicates whether the cached image holds every shape but the last one,
+     * which is drawn only over the current image.
+     */
+    private boolean lastShapeOverlaid;
+
+    /** Tolerance in pixels for hitting a shape with the selection tool. */
+    private static final int HIT_TOLERANCE = 3;
+    /** Margin in pixels around bounding boxes covered by strokes and anti-aliasing. */
+    private static final int STROKE_MARGIN = 2;
+    /** Color of the outline of selected shapes. */
+    private static final Color SELECTION_COLOR = new Color(0, 120, 215);
+    /** Stroke of the outline of selected shapes. */
+    private static final BasicStroke SELECTION_STROKE = new BasicStroke(
+        1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10, new float[] {3, 3}, 0
+    );
+
+    /** Distance in pixels the mouse has to be dragged to start a drag selection. */
+    private static final int DRAG_THRESHOLD = 3;
+    /** Color of the rubber band and lasso. */
+    private static final Color DRAG_COLOR = new Color(0, 120, 215, 48);
+    /** Color of the rubber band that selects crossed shapes. */
+    private static final Color CROSSING_COLOR = new Color(0, 160, 60, 48);
+
+    /**
+     * Tools that determine how the canvas reacts to the mouse.
+     */
+    public enum Tool {
+        /** Mouse draws shapes. */
+        DRAW,
+        /** Mouse selects shapes by clicking or by dragging a rubber band. */
+        SELECT,
+        /** Mouse selects shapes by clicking or by drawing a freeform lasso. */
+        LASSO
+    }
+
+    /** The active tool. */
+    private Tool tool = Tool.DRAW;
+    /** Selection model of shape indices, may be <tt>null</tt>. */
+    private BitSetSelectionModel selectionModel;
+
+    /** Point where the mouse was pressed with a selection tool, or <tt>null</tt>. */
+    private Point dragOrigin;
+    /** Rubber band of the drag selection in progress, or <tt>null</tt>. */
+    private Rectangle rubberBand;
+    /** Lasso of the drag selection in progress, or <tt>null</tt>. */
+    private Polygon lasso;
 
     /**
      * Constructs an instance of {@code JDrawingCanvas} with the specified
@@ -79,12 +140,30 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
         addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                if (!model.isCurrentlyDrawing()) {
+                if (isSelecting()) {
+                    dragOrigin = e.getPoint();
+                } else if (!model.isCurrentlyDrawing()) {
                     model.start(e.getX(), e.getY());
                 } else {
                     model.finish();
                 }
             }
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (dragOrigin == null) {
+                    return;
+                }
+
+                if (rubberBand == null && lasso == null) {
+                    selectAt(e);
+                } else {
+                    selectDragged(e.isControlDown());
+                }
+                dragOrigin = null;
+                rubberBand = null;
+                lasso = null;
+                repaint();
+            }
         });
 
         addMouseMotionListener(new MouseAdapter() {
@@ -94,7 +173,11 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
             }
             @Override
             public void mouseDragged(MouseEvent e) {
-                moved(e);
+                if (dragOrigin != null) {
+                    dragged(e);
+                } else {
+                    moved(e);
+                }
             }
             private void moved(MouseEvent e) {
                 if (model.isCurrentlyDrawing()) {
@@ -117,6 +200,193 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
         });
     }
 
+    /**
+     * Returns the active tool.
+     *
+     * @return the active tool
+     */
+    public Tool getTool() {
+        return tool;
+    }
+
+    /**
+     * Returns <tt>true</tt> if a selection tool is active instead of drawing.
+     *
+     * @return true if a selection tool is active
+     */
+    public boolean isSelecting() {
+        return tool != Tool.DRAW;
+    }
+
+    /**
+     * Activates the specified <tt>tool</tt>. A shape that is being drawn when
+     * a selection tool is activated is finished.
+     *
+     * @param tool the tool to be activated
+     * @throws NullPointerException if <tt>tool</tt> is <tt>null</tt>
+     */
+    public void setTool(Tool tool) {
+        if (tool == null) {
+            throw new NullPointerException("Tool must not be null.");
+        }
+        if (tool != Tool.DRAW && model.isCurrentlyDrawing()) {
+            model.finish();
+        }
+        this.tool = tool;
+    }
+
+    /**
+     * Sets the selection model of shape indices that the selection tool
+     * updates and whose shapes are outlined on this canvas.
+     *
+     * @param selectionModel the selection model, may be <tt>null</tt>
+     */
+    public void setSelectionModel(BitSetSelectionModel selectionModel) {
+        this.selectionModel = selectionModel;
+        if (selectionModel != null) {
+            selectionModel.addListSelectionListener((e) -> {
+                if (!e.getValueIsAdjusting()) {
+                    repaint();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the index of the topmost shape under the point <tt>(x, y)</tt>
+     * of this canvas, or <tt>-1</tt> if there is no shape under the point.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @return index of the topmost shape under the point, or -1
+     */
+    public int getObjectAt(int x, int y) {
+        return model.getObjectAt(x, y, HIT_TOLERANCE);
+    }
+
+    /**
+     * Selects the topmost shape under the cursor of the specified mouse event.
+     * If the control key is held down the shape is toggled in the current
+     * selection. Otherwise it becomes the only selected shape, and clicking
+     * where no shape is hit clears the selection.
+     *
+     * @param e mouse event that triggered the selection
+     */
+    private void selectAt(MouseEvent e) {
+        if (selectionModel == null) {
+            return;
+        }
+
+        int index = getObjectAt(e.getX(), e.getY());
+        if (e.isControlDown()) {
+            if (index == -1) {
+                return;
+            } else if (selectionModel.isSelectedIndex(index)) {
+                selectionModel.removeSelectionInterval(index, index);
+            } else {
+                selectionModel.addSelectionInterval(index, index);
+            }
+        } else if (index == -1) {
+            selectionModel.clearSelection();
+        } else {
+            selectionModel.setSelectionInterval(index, index);
+        }
+    }
+
+    /**
+     * Extends the drag selection in progress to the cursor of the specified
+     * mouse event. The drag selection starts once the cursor is moved further
+     * than {@link #DRAG_THRESHOLD} pixels from where the mouse was pressed.
+     *
+     * @param e mouse event that extends the drag selection
+     */
+    private void dragged(MouseEvent e) {
+        Point p = e.getPoint();
+        if (rubberBand == null && lasso == null) {
+            if (dragOrigin.distance(p) <= DRAG_THRESHOLD) {
+                return;
+            }
+            if (tool == Tool.LASSO) {
+                lasso = new Polygon();
+                lasso.addPoint(dragOrigin.x, dragOrigin.y);
+            } else {
+                rubberBand = new Rectangle();
+            }
+        }
+
+        if (lasso != null) {
+            int last = lasso.npoints - 1;
+            if (Math.abs(lasso.xpoints[last] - p.x) + Math.abs(lasso.ypoints[last] - p.y) < 2) {
+                return;
+            }
+            lasso.addPoint(p.x, p.y);
+        } else {
+            rubberBand.setFrameFromDiagonal(dragOrigin, p);
+        }
+
+        repaint();
+    }
+
+    /**
+     * Selects the shapes inside the lasso or rubber band of the finished drag
+     * selection. A rubber band dragged from left to right selects only the
+     * shapes that lie completely inside it, while a rubber band dragged from
+     * right to left selects all shapes it crosses. If <tt>add</tt> is
+     * <tt>true</tt> the shapes are added to the current selection, otherwise
+     * they replace it.
+     * <p>
+     * The selection model is updated at once, so its listeners are notified
+     * with a single event no matter how many shapes were selected.
+     *
+     * @param add true to add to the current selection
+     */
+    private void selectDragged(boolean add) {
+        if (selectionModel == null) {
+            return;
+        }
+
+        BitSet indices;
+        if (lasso != null) {
+            indices = model.getObjectsInsideLasso(lasso);
+        } else if (isCrossing()) {
+            indices = model.getObjectsCrossing(rubberBand);
+        } else {
+            indices = model.getObjectsInside(rubberBand);
+        }
+
+        if (add) {
+            indices.or(selectionModel.getSelection());
+        }
+        selectionModel.setSelection(indices);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the rubber band in progress is dragged from
+     * right to left and therefore selects all shapes it crosses.
+     *
+     * @return true if the rubber band selects crossed shapes
+     */
+    private boolean isCrossing() {
+        return rubberBand != null && rubberBand.x < dragOrigin.x;
+    }
+
+    /**
+     * Returns a snapshot of the memory footprint of the drawing, which
+     * includes the {@link JDrawingCanvasModel#getMemoryStatistics() footprint
+     * of the model} and the raster buffers of this canvas.
+     *
+     * @return a snapshot of the memory footprint of the drawing
+     */
+    public MemoryStatistics getMemoryStatistics() {
+        long rasterBytes = 0;
+        for (BufferedImage image : new BufferedImage[] {currentImage, cachedImage}) {
+            if (image != null) {
+                rasterBytes += (long) image.getWidth() * image.getHeight() * image.getColorModel().getPixelSize() / 8;
+            }
+        }
+        return model.getMemoryStatistics().withRasterBytes(rasterBytes);
+    }
+
     /**
      * Draws the current image graphics from the specified <tt>source</tt>.
      * <p>
@@ -131,10 +401,9 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
         g.fillRect(0, 0, currentImage.getWidth(), currentImage.getHeight());
 
         int sourceLastIndex = source.getSize() - 1;
-        for (int i = 0; i < sourceLastIndex; i++) {
-            GeometricalObject shape = source.getObject(i);
+        model.forEachObject(0, sourceLastIndex - 1, (shape) -> {
             shape.draw(g, 0, 0);
-        }
+        });
 
         if (sourceLastIndex >= 0) {
             GeometricalObject shape = source.getObject(sourceLastIndex);
@@ -142,17 +411,71 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
             if (model.isCurrentlyDrawing()) {
                 flushImage();
                 shape.draw(g, 0, 0);
+                lastShapeOverlaid = true;
             } else {
                 shape.draw(g, 0, 0);
                 flushImage();
+                lastShapeOverlaid = false;
             }
         } else {
             flushImage();
+            lastShapeOverlaid = false;
         }
 
         g.dispose();
     }
 
+    /**
+     * Redraws only the specified <tt>region</tt> of the current image. Only
+     * the shapes whose bounding box, grown by the {@link #STROKE_MARGIN},
+     * intersects the region are drawn, clipped to the region, in their
+     * drawing order. These shapes are found through the spatial index of the
+     * model.
+     * <p>
+     * This method is used when shapes changed their drawing order without
+     * changing their geometry, so no pixel outside of their bounding boxes can
+     * change.
+     *
+     * @param region region to be redrawn
+     */
+    private void drawRegion(Rectangle region) {
+        Graphics2D g = getCurrentImageGraphics();
+        g.clip(region);
+        g.setColor(Color.WHITE);
+        g.fill(region);
+
+        // Strokes of shapes just outside the region may reach into it
+        Rectangle query = new Rectangle(region);
+        query.grow(STROKE_MARGIN, STROKE_MARGIN);
+        BitSet indices = model.getObjectsIntersecting(query);
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            model.getObject(i).draw(g, 0, 0);
+        }
+
+        g.dispose();
+        flushImage();
+        lastShapeOverlaid = false;
+    }
+
+    /**
+     * Returns the region that covers the bounding boxes of all shapes in the
+     * index0, index1 interval, grown by a margin for the line stroke and
+     * anti-aliasing.
+     *
+     * @param index0 index of the first shape
+     * @param index1 index of the last shape
+     * @return the region covered by the shapes
+     */
+    private Rectangle boundsOf(int index0, int index1) {
+        Rectangle region = new Rectangle(-1, -1);
+        model.forEachObject(index0, index1, (shape) -> {
+            Rectangle r = shape.getBoundingBox();
+            r.grow(STROKE_MARGIN, STROKE_MARGIN);
+            region.add(r);
+        });
+        return region;
+    }
+
     /**
      * Restores current image from the cached version by copying raster data of
      * the <tt>cachedImage</tt> to the <tt>currentImage</tt>.
@@ -204,12 +527,29 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
         return g;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Shapes appended to the end of the model are drawn over the current
+     * image, so appending shapes in batches costs only as much as drawing the
+     * appended shapes.
+     */
     @Override
     public void objectsAdded(DrawingModel source, int index0, int index1) {
         if (index0 == index1 && index0 == source.getSize() - 1) {
             flushImage();
             Graphics2D g = getCurrentImageGraphics();
             source.getObject(index0).draw(g, 0, 0);
+            g.dispose();
+            lastShapeOverlaid = true;
+        } else if (index1 == source.getSize() - 1 && !model.isCurrentlyDrawing()) {
+            Graphics2D g = getCurrentImageGraphics();
+            model.forEachObject(index0, index1, (shape) -> {
+                shape.draw(g, 0, 0);
+            });
+            g.dispose();
+            flushImage();
+            lastShapeOverlaid = false;
         } else {
             drawFrom(source);
         }
@@ -221,6 +561,7 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
     public void objectsRemoved(DrawingModel source, int index0, int index1) {
         if (index0 == index1 && index0 == source.getSize() - 1 && model.isCurrentlyDrawing()) {
             restoreImage();
+            lastShapeOverlaid = false;
         } else {
             drawFrom(source);
         }
@@ -228,15 +569,102 @@ public class JDrawingCanvas extends JComponent implements DrawingModelListener {
         repaint();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A change of the last shape, such as the shape that is being drawn or
+     * has just been finished, is drawn over the cached image if the cached
+     * image holds all the other shapes.
+     */
     @Override
     public void objectsChanged(DrawingModel source, int index0, int index1) {
+        if (lastShapeOverlaid && index0 == index1 && index0 == source.getSize() - 1) {
+            restoreImage();
+            Graphics2D g = getCurrentImageGraphics();
+            source.getObject(index0).draw(g, 0, 0);
+            g.dispose();
+            repaint();
+            return;
+        }
+
         objectsRemoved(source, index0, index1);
         objectsAdded(source, index0, index1);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Since the geometry of reordered shapes is unchanged, only the region
+     * covered by their bounding boxes is redrawn.
+     */
+    @Override
+    public void objectsReordered(DrawingModel source, int index0, int index1) {
+        if (index1 - index0 > source.getSize() / 2) {
+            drawFrom(source);
+        } else {
+            drawRegion(boundsOf(index0, index1));
+        }
+
+        repaint();
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         g.drawImage(currentImage, 0, 0, null);
+        paintSelection((Graphics2D) g);
+        paintDragSelection((Graphics2D) g);
+    }
+
+    /**
+     * Paints the rubber band or lasso of the drag selection in progress, if
+     * there is one.
+     *
+     * @param g graphics object to paint to
+     */
+    private void paintDragSelection(Graphics2D g) {
+        if (rubberBand != null) {
+            g.setColor(isCrossing() ? CROSSING_COLOR : DRAG_COLOR);
+            g.fill(rubberBand);
+            g.setColor(SELECTION_COLOR);
+            g.setStroke(isCrossing() ? SELECTION_STROKE : new BasicStroke());
+            g.draw(rubberBand);
+        } else if (lasso != null) {
+            g.setColor(DRAG_COLOR);
+            g.fill(lasso);
+            g.setColor(SELECTION_COLOR);
+            g.setStroke(SELECTION_STROKE);
+            g.draw(lasso);
+        }
+    }
+
+    /**
+     * Outlines the bounding boxes of all selected shapes that are visible in
+     * the clip area of the specified graphics object.
+     *
+     * @param g graphics object to paint to
+     */
+    private void paintSelection(Graphics2D g) {
+        if (selectionModel == null || selectionModel.isSelectionEmpty()) {
+            return;
+        }
+
+        int min = selectionModel.getMinSelectionIndex();
+        int max = Math.min(selectionModel.getMaxSelectionIndex(), model.getSize() - 1);
+        Rectangle clip = g.getClipBounds();
+
+        g.setColor(SELECTION_COLOR);
+        g.setStroke(SELECTION_STROKE);
+
+        int[] index = {min};
+        model.forEachObject(min, max, (shape) -> {
+            if (selectionModel.isSelectedIndex(index[0]++)) {
+                Rectangle r = shape.getBoundingBox();
+                r.grow(2, 2);
+                if (clip == null || clip.intersects(r)) {
+                    g.draw(r);
+                }
+            }
+        });
     }
 
 }
@@ -1,11 +1,30 @@
 package hr.fer.zemris.java.hw16.jvdraw.components;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+import hr.fer.zemris.java.hw16.jvdraw.index.OrderStatisticTree;
+import hr.fer.zemris.java.hw16.jvdraw.index.OrderStatisticTree.Node;
+import hr.fer.zemris.java.hw16.jvdraw.index.PointIndex;
+import hr.fer.zemris.java.hw16.jvdraw.index.SpatialIndex;
 import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.Region;
 import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeFactory;
 
 /**
@@ -15,19 +34,68 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeFactory;
  * <p>
  * This model contains a boolean flag that indicates if a document change has
  * been made and the path of the file that is currently opened.
+ * <p>
+ * Shapes are kept in an {@link OrderStatisticTree}, so the drawing order (the
+ * z-order) of any shape can be changed in <tt>O(log n)</tt> time. Z-order
+ * operations report only the span of indices that actually changed through
+ * the {@link DrawingModelListener#objectsReordered objectsReordered} event.
+ * <p>
+ * Bounding boxes of all finished shapes are kept in a {@link SpatialIndex},
+ * which answers point and region queries, such as finding the topmost shape
+ * under the cursor, without looking at every shape of the model.
+ * <p>
+ * {@link GeometricalObject#getSnapPoints Snap points} of all finished shapes
+ * are kept in a {@link PointIndex}. If {@link #setSnapRadius snapping} is
+ * enabled, the endpoint of the shape that is being drawn snaps to the nearest
+ * snap point within the snap radius.
+ * <p>
+ * Shapes are numbered per document: each shape that is added without an
+ * {@link GeometricalObject#getInstance() instance number} gets the next
+ * number of its type from a counter owned by this model. Clearing the model
+ * restarts the numbering.
+ * <p>
+ * The number of shapes and an estimate of bytes they retain are tracked for
+ * each shape type as shapes are added and removed, and are available through
+ * {@link #getMemoryStatistics()}.
  *
  * @author Mario Bobic
  */
 public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
 
+    /** Default maximum distance in pixels for snapping to a snap point. */
+    public static final int DEFAULT_SNAP_RADIUS = 8;
+
+    /**
+     * Estimated bytes retained by the indices for each shape: its tree entry,
+     * its identity map slots, its spatial index slot and its snap point list.
+     */
+    private static final int SHAPE_INDEX_BYTES = 64 + 16 + 32 + 32;
+    /**
+     * Estimated bytes retained by the indices for each snap point: the point
+     * itself, its list slot and its snap point index slot.
+     */
+    private static final int SNAP_POINT_INDEX_BYTES = 24 + 4 + 20;
+
     /** Flag that indicates if a document change has been made. */
     private boolean changed;
 
     /** The path of the file that is currently opened. */
     private Path filePath;
 
-    /** List of geometric shapes. */
-    private List<GeometricalObject> shapes = new ArrayList<>();
+    /** Geometric shapes in drawing order, the last one being on top. */
+    private OrderStatisticTree<GeometricalObject> shapes = new OrderStatisticTree<>();
+    /** Tree nodes of geometric shapes, for finding the index of a shape. */
+    private Map<GeometricalObject, ShapeEntry> nodes = new IdentityHashMap<>();
+    /** Spatial index of bounding boxes of finished shapes. */
+    private SpatialIndex<ShapeEntry> spatialIndex = new SpatialIndex<>();
+    /** Index of snap points of finished shapes. */
+    private PointIndex<Point> snapIndex = new PointIndex<>();
+    /** Maximum distance for snapping, or <tt>0</tt> if snapping is disabled. */
+    private int snapRadius;
+    /** Instance counters of this document, mapped by shape type names. */
+    private Map<String, AtomicInteger> instanceCounters = new ConcurrentHashMap<>();
+    /** Number of shapes and their estimated bytes, mapped by shape types. */
+    private Map<String, long[]> footprints = new HashMap<>();
 
     /** List of listeners. */
     private List<DrawingModelListener> listeners = new ArrayList<>();
@@ -135,7 +203,9 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
     /**
      * Updates the shape that is currently being drawn by setting its
      * {@link GeometricalObject#setEndpoint endpoint} to the specified
-     * <tt>x</tt> and <tt>y</tt> values.
+     * <tt>x</tt> and <tt>y</tt> values. If snapping is enabled and there is a
+     * snap point within the snap radius, the endpoint is set to the nearest
+     * snap point instead.
      * <p>
      * This method notifies all active listeners of the change.
      *
@@ -143,6 +213,13 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
      * @param y y position of the endpoint
      */
     public void update(int x, int y) {
+        if (snapRadius > 0) {
+            Point snap = snapIndex.nearest(x, y, snapRadius);
+            if (snap != null) {
+                x = snap.x;
+                y = snap.y;
+            }
+        }
         drawingShape.setEndpoint(x, y);
 
         int index = shapes.size() - 1;
@@ -155,14 +232,17 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
      * Finished the drawing process by setting the shape that is currently being
      * drawn to <tt>null<tt>.
      * <p>
-     * This method notifies all active listeners of the change.
+     * This method notifies all active listeners of the change. The shape was
+     * added when the drawing started, so the listeners are notified of a
+     * change of the shape, not of its addition.
      */
     public void finish() {
         drawingShape = null;
         int index = shapes.size() - 1;
+        index(entry(index));
 
         for (DrawingModelListener listener : listeners) {
-            listener.objectsAdded(this, index, index);
+            listener.objectsChanged(this, index, index);
         }
     }
 
@@ -176,6 +256,49 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
         return drawingShape != null;
     }
 
+    /**
+     * Returns the maximum distance in pixels for snapping the endpoint of the
+     * shape that is being drawn, or <tt>0</tt> if snapping is disabled.
+     *
+     * @return the snap radius
+     */
+    public int getSnapRadius() {
+        return snapRadius;
+    }
+
+    /**
+     * Sets the maximum distance in pixels for snapping the endpoint of the
+     * shape that is being drawn. Radius <tt>0</tt> disables snapping.
+     *
+     * @param snapRadius the snap radius
+     * @throws IllegalArgumentException if <tt>snapRadius</tt> is negative
+     */
+    public void setSnapRadius(int snapRadius) {
+        if (snapRadius < 0) {
+            throw new IllegalArgumentException("Snap radius must not be negative: " + snapRadius);
+        }
+        this.snapRadius = snapRadius;
+    }
+
+    /**
+     * Returns at most <tt>k</tt> snap points of finished shapes nearest to the
+     * point <tt>(x, y)</tt> that are at most <tt>radius</tt> pixels away from
+     * it, sorted from the nearest to the farthest.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @param k maximum number of snap points to be returned
+     * @param radius maximum distance of the snap points from the point
+     * @return a list of nearest snap points within the radius
+     * @throws IllegalArgumentException if <tt>k</tt> or <tt>radius</tt> is
+     *         negative
+     */
+    public List<Point> getNearestSnapPoints(int x, int y, int k, int radius) {
+        List<Point> nearest = snapIndex.nearest(x, y, k, radius);
+        nearest.replaceAll(Point::new);
+        return nearest;
+    }
+
     @Override
     public void newColorSelected(IColorProvider source, Color oldColor, Color newColor) {
         if (isCurrentlyDrawing()) {
@@ -197,13 +320,32 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
         return shapes.get(index);
     }
 
+    /**
+     * Performs the given <tt>action</tt> for each shape in the index0, index1
+     * interval, in drawing order. The interval includes both index0 and
+     * index1.
+     * <p>
+     * This method should be preferred over repeatedly calling
+     * {@link #getObject(int)} when iterating over many shapes.
+     *
+     * @param index0 index of the first shape
+     * @param index1 index of the last shape
+     * @param action action to be performed for each shape
+     */
+    public void forEachObject(int index0, int index1, Consumer<GeometricalObject> action) {
+        shapes.forEach(index0, index1, action);
+    }
+
     @Override
     public void removeObject(int index) {
         if (index >= shapes.size() || index < 0) {
             return;
         }
 
-        shapes.remove(index);
+        ShapeEntry entry = (ShapeEntry) shapes.remove(index);
+        nodes.remove(entry.getValue());
+        account(entry.getValue(), -1);
+        unindex(entry);
         for (DrawingModelListener listener : listeners) {
             listener.objectsRemoved(this, index, index);
         }
@@ -211,22 +353,66 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
         changed = true;
     }
 
+    /**
+     * Removes the shapes in the index0, index1 interval from this model.
+     * Listeners are notified with a single event covering all removed shapes.
+     *
+     * @param index0 index of the first shape to be removed
+     * @param index1 index of the last shape to be removed
+     * @throws IndexOutOfBoundsException if the interval is out of range
+     */
+    public void removeObjects(int index0, int index1) {
+        if (index0 < 0 || index1 >= shapes.size() || index0 > index1) {
+            throw new IndexOutOfBoundsException("Interval: [" + index0 + ", " + index1 + "], size: " + shapes.size());
+        }
+
+        for (int i = index1; i >= index0; i--) {
+            ShapeEntry entry = (ShapeEntry) shapes.remove(i);
+            nodes.remove(entry.getValue());
+            account(entry.getValue(), -1);
+            unindex(entry);
+        }
+        for (DrawingModelListener listener : listeners) {
+            listener.objectsRemoved(this, index0, index1);
+        }
+
+        changed = true;
+    }
+
     /**
      * Removes the specified <tt>shape</tt> from this model.
      *
      * @param shape shape to be removed from this model
      */
     public void remove(GeometricalObject shape) {
-        removeObject(shapes.indexOf(shape));
+        removeObject(indexOf(shape));
+    }
+
+    /**
+     * Returns the current index of the specified <tt>shape</tt> in this model,
+     * or <tt>-1</tt> if this model does not contain the shape.
+     *
+     * @param shape shape whose index is to be returned
+     * @return the index of the shape, or -1 if it is not in this model
+     */
+    public int indexOf(GeometricalObject shape) {
+        return shapes.indexOf(nodes.get(shape));
     }
 
     @Override
     public void clear() {
-        int endIndex = Math.max(shapes.size() - 1, 0);
+        int size = shapes.size();
         shapes.clear();
+        nodes.clear();
+        spatialIndex.clear();
+        snapIndex.clear();
+        instanceCounters.clear();
+        footprints.clear();
 
-        for (DrawingModelListener listener : listeners) {
-            listener.objectsRemoved(this, 0, endIndex);
+        if (size > 0) {
+            for (DrawingModelListener listener : listeners) {
+                listener.objectsRemoved(this, 0, size - 1);
+            }
         }
 
         changed = false;
@@ -234,7 +420,15 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
 
     @Override
     public void add(GeometricalObject shape) {
-        shapes.add(shape);
+        assignInstance(shape);
+        account(shape, 1);
+        ShapeEntry entry = new ShapeEntry(shape);
+        shapes.insert(shapes.size(), entry);
+        nodes.put(shape, entry);
+        if (shape != drawingShape) {
+            index(entry);
+        }
+
         int index = shapes.size() - 1;
         for (DrawingModelListener listener : listeners) {
             listener.objectsAdded(this, index, index);
@@ -243,12 +437,77 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
         changed = true;
     }
 
+    /**
+     * Adds all of the specified <tt>shapes</tt> to the end of this model, in
+     * the order they are given. Listeners are notified with a single event
+     * covering all added shapes.
+     * <p>
+     * A shape that is being drawn when this method is called is finished
+     * first, so it is not buried under the added shapes.
+     *
+     * @param shapes shapes to be added to this model
+     */
+    public void addAll(List<? extends GeometricalObject> shapes) {
+        insertAll(this.shapes.size(), shapes);
+    }
+
+    /**
+     * Inserts all of the specified <tt>shapes</tt> into this model at the
+     * specified <tt>index</tt>, in the order they are given, shifting the
+     * shapes from that index on above them. Listeners are notified with a
+     * single event covering all inserted shapes.
+     * <p>
+     * A shape that is being drawn when this method is called is finished
+     * first.
+     *
+     * @param index index at which the first shape is to be inserted
+     * @param shapes shapes to be inserted into this model
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public void insertAll(int index, List<? extends GeometricalObject> shapes) {
+        if (index < 0 || index > this.shapes.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.shapes.size());
+        }
+        if (shapes.isEmpty()) {
+            return;
+        }
+        if (isCurrentlyDrawing()) {
+            finish();
+        }
+
+        List<ShapeEntry> entries = new ArrayList<>(shapes.size());
+        for (GeometricalObject shape : shapes) {
+            assignInstance(shape);
+            account(shape, 1);
+
+            ShapeEntry entry = new ShapeEntry(shape);
+            nodes.put(shape, entry);
+            index(entry);
+            entries.add(entry);
+        }
+
+        this.shapes.insertAll(index, entries);
+        int index1 = index + entries.size() - 1;
+
+        for (DrawingModelListener listener : listeners) {
+            listener.objectsAdded(this, index, index1);
+        }
+
+        changed = true;
+    }
+
     /**
      * Fires an objects changed event to all registered listeners.
      *
      * @param index index of the object that was changed
      */
     public void changeObject(int index) {
+        ShapeEntry entry = entry(index);
+        if (entry.indexed) {
+            unindex(entry);
+            index(entry);
+        }
+
         for (DrawingModelListener listener : listeners) {
             listener.objectsChanged(this, index, index);
         }
@@ -256,6 +515,355 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
         changed = true;
     }
 
+    /**
+     * Returns the index of the topmost shape that is hit by the point
+     * <tt>(x, y)</tt> with the specified <tt>tolerance</tt>, or <tt>-1</tt> if
+     * no shape is hit.
+     * <p>
+     * Candidates are found through the spatial index by their bounding boxes
+     * and then refined by the exact {@link GeometricalObject#isHit hit test}.
+     * The shape that is currently being drawn is never hit.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @param tolerance maximum distance of the point from a shape
+     * @return index of the topmost hit shape, or -1 if no shape is hit
+     */
+    public int getObjectAt(int x, int y, int tolerance) {
+        int[] topmost = {-1};
+
+        spatialIndex.query(x - tolerance, y - tolerance, x + tolerance, y + tolerance, (entry) -> {
+            if (entry.getValue().isHit(x, y, tolerance)) {
+                topmost[0] = Math.max(topmost[0], shapes.indexOf(entry));
+            }
+        });
+
+        return topmost[0];
+    }
+
+    /**
+     * Returns indices of all shapes whose bounding box intersects the
+     * specified <tt>region</tt>. The shape that is currently being drawn is
+     * never included.
+     *
+     * @param region region to be searched
+     * @return indices of shapes whose bounding box intersects the region
+     */
+    public BitSet getObjectsIntersecting(Rectangle region) {
+        return query(region, (entry) -> true);
+    }
+
+    /**
+     * Returns indices of all shapes that lie completely inside the specified
+     * <tt>region</tt>. The shape that is currently being drawn is never
+     * included.
+     *
+     * @param region region to be searched
+     * @return indices of shapes inside the region
+     */
+    public BitSet getObjectsInside(Rectangle region) {
+        int maxX = region.x + region.width;
+        int maxY = region.y + region.height;
+
+        return query(region, (entry) -> {
+            return entry.minX >= region.x && entry.maxX <= maxX
+                && entry.minY >= region.y && entry.maxY <= maxY;
+        });
+    }
+
+    /**
+     * Returns indices of all shapes that have any pixel inside the specified
+     * <tt>region</tt>, as determined by the exact
+     * {@link GeometricalObject#intersects intersection test}. The shape that
+     * is currently being drawn is never included.
+     *
+     * @param region region to be searched
+     * @return indices of shapes crossing the region
+     */
+    public BitSet getObjectsCrossing(Rectangle region) {
+        return query(region, (entry) -> entry.getValue().intersects(region));
+    }
+
+    /**
+     * Returns indices of all shapes whose outline lies completely inside the
+     * specified <tt>lasso</tt> polygon. The shape that is currently being
+     * drawn is never included.
+     * <p>
+     * The lasso is rasterized into a pixel mask once, so testing a shape costs
+     * one lookup per pixel of its outline regardless of the number of lasso
+     * vertices.
+     *
+     * @param lasso a freeform polygon
+     * @return indices of shapes inside the lasso
+     */
+    public BitSet getObjectsInsideLasso(Polygon lasso) {
+        Rectangle bounds = lasso.getBounds();
+        int maxX = bounds.x + bounds.width;
+        int maxY = bounds.y + bounds.height;
+        Region mask = rasterize(lasso);
+
+        return query(bounds, (entry) -> {
+            return entry.minX >= bounds.x && entry.maxX <= maxX
+                && entry.minY >= bounds.y && entry.maxY <= maxY
+                && entry.getValue().isInside(mask);
+        });
+    }
+
+    /**
+     * Returns indices of all indexed shapes whose bounding box intersects the
+     * specified <tt>region</tt> and that pass the specified <tt>test</tt>.
+     *
+     * @param region region to be searched
+     * @param test test for the candidate entries
+     * @return indices of shapes that pass the test
+     */
+    private BitSet query(Rectangle region, Predicate<ShapeEntry> test) {
+        BitSet indices = new BitSet(shapes.size());
+
+        spatialIndex.query(region.x, region.y, region.x + region.width, region.y + region.height, (entry) -> {
+            if (test.test(entry)) {
+                indices.set(shapes.indexOf(entry));
+            }
+        });
+
+        return indices;
+    }
+
+    /**
+     * Rasterizes the specified polygon, including its edges, into a pixel mask
+     * covering the polygon bounds.
+     *
+     * @param polygon polygon to be rasterized
+     * @return a region that contains the pixels of the polygon
+     */
+    private static Region rasterize(Polygon polygon) {
+        Rectangle bounds = polygon.getBounds();
+        int width = bounds.width + 1;
+        int height = bounds.height + 1;
+
+        BufferedImage mask = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = mask.createGraphics();
+        g.translate(-bounds.x, -bounds.y);
+        g.setColor(Color.WHITE);
+        g.fillPolygon(polygon);
+        g.drawPolygon(polygon);
+        g.dispose();
+
+        byte[] pixels = ((DataBufferByte) mask.getRaster().getDataBuffer()).getData();
+        return (x, y) -> {
+            int mx = x - bounds.x;
+            int my = y - bounds.y;
+            return mx >= 0 && my >= 0 && mx < width && my < height
+                && pixels[my * width + mx] != 0;
+        };
+    }
+
+    /**
+     * Moves the shape at index <tt>from</tt> to index <tt>to</tt> in the
+     * drawing order. Shapes in between are shifted by one position.
+     * <p>
+     * Does nothing if any of the indices is out of range. This method notifies
+     * all active listeners of the reordered span.
+     *
+     * @param from current index of the shape
+     * @param to new index of the shape
+     */
+    public void moveObject(int from, int to) {
+        int size = shapes.size();
+        if (from == to || from < 0 || from >= size || to < 0 || to >= size) {
+            return;
+        }
+
+        shapes.move(from, to);
+        fireObjectsReordered(Math.min(from, to), Math.max(from, to));
+    }
+
+    /**
+     * Moves the shape at the specified <tt>index</tt> one step up in the
+     * drawing order, above the shape that was drawn over it.
+     *
+     * @param index index of the shape
+     */
+    public void bringForward(int index) {
+        moveObject(index, index + 1);
+    }
+
+    /**
+     * Moves the shape at the specified <tt>index</tt> one step down in the
+     * drawing order, below the shape that was drawn under it.
+     *
+     * @param index index of the shape
+     */
+    public void sendBackward(int index) {
+        moveObject(index, index - 1);
+    }
+
+    /**
+     * Moves the shape at the specified <tt>index</tt> to the top of the
+     * drawing order.
+     *
+     * @param index index of the shape
+     */
+    public void bringToFront(int index) {
+        moveObject(index, shapes.size() - 1);
+    }
+
+    /**
+     * Moves the shape at the specified <tt>index</tt> to the bottom of the
+     * drawing order.
+     *
+     * @param index index of the shape
+     */
+    public void sendToBack(int index) {
+        moveObject(index, 0);
+    }
+
+    /**
+     * Moves each run of consecutive shapes of the specified <tt>selection</tt>
+     * one step up in the drawing order, keeping their relative order.
+     * <p>
+     * This method notifies all active listeners of the reordered span with a
+     * single event.
+     *
+     * @param selection indices of the selected shapes
+     * @return indices of the selected shapes after the move
+     */
+    public BitSet bringForward(BitSet selection) {
+        int size = shapes.size();
+        BitSet moved = new BitSet(size);
+        int index0 = size;
+        int index1 = -1;
+
+        int start = selection.nextSetBit(0);
+        while (start >= 0 && start < size) {
+            int end = Math.min(selection.nextClearBit(start), size);
+            if (end < size) {
+                // the shape above the run drops below it
+                shapes.move(end, start);
+                moved.set(start + 1, end + 1);
+                index0 = Math.min(index0, start);
+                index1 = end;
+            } else {
+                moved.set(start, end);
+            }
+            start = selection.nextSetBit(end);
+        }
+
+        fireObjectsReordered(index0, index1);
+        return moved;
+    }
+
+    /**
+     * Moves each run of consecutive shapes of the specified <tt>selection</tt>
+     * one step down in the drawing order, keeping their relative order.
+     * <p>
+     * This method notifies all active listeners of the reordered span with a
+     * single event.
+     *
+     * @param selection indices of the selected shapes
+     * @return indices of the selected shapes after the move
+     */
+    public BitSet sendBackward(BitSet selection) {
+        int size = shapes.size();
+        BitSet moved = new BitSet(size);
+        int index0 = size;
+        int index1 = -1;
+
+        int start = selection.nextSetBit(0);
+        while (start >= 0 && start < size) {
+            int end = Math.min(selection.nextClearBit(start), size);
+            if (start > 0) {
+                // the shape below the run rises above it
+                shapes.move(start - 1, end - 1);
+                moved.set(start - 1, end - 1);
+                index0 = Math.min(index0, start - 1);
+                index1 = end - 1;
+            } else {
+                moved.set(start, end);
+            }
+            start = selection.nextSetBit(end);
+        }
+
+        fireObjectsReordered(index0, index1);
+        return moved;
+    }
+
+    /**
+     * Moves all shapes of the specified <tt>selection</tt> to the top of the
+     * drawing order, keeping their relative order.
+     * <p>
+     * This method notifies all active listeners of the reordered span with a
+     * single event.
+     *
+     * @param selection indices of the selected shapes
+     * @return indices of the selected shapes after the move
+     */
+    public BitSet bringToFront(BitSet selection) {
+        int size = shapes.size();
+        int first = selection.nextSetBit(0);
+        if (first < 0 || first >= size) {
+            return new BitSet();
+        }
+
+        int count = 0;
+        for (int i = first; i >= 0 && i < size; i = selection.nextSetBit(i + 1)) {
+            shapes.move(i - count, size - 1);
+            count++;
+        }
+
+        BitSet moved = new BitSet(size);
+        moved.set(size - count, size);
+
+        fireObjectsReordered(first, size - 1);
+        return moved;
+    }
+
+    /**
+     * Moves all shapes of the specified <tt>selection</tt> to the bottom of
+     * the drawing order, keeping their relative order.
+     * <p>
+     * This method notifies all active listeners of the reordered span with a
+     * single event.
+     *
+     * @param selection indices of the selected shapes
+     * @return indices of the selected shapes after the move
+     */
+    public BitSet sendToBack(BitSet selection) {
+        int size = shapes.size();
+        int count = 0;
+        int last = -1;
+        for (int i = selection.nextSetBit(0); i >= 0 && i < size; i = selection.nextSetBit(i + 1)) {
+            shapes.move(i, count);
+            count++;
+            last = i;
+        }
+
+        BitSet moved = new BitSet(size);
+        moved.set(0, count);
+
+        fireObjectsReordered(0, last);
+        return moved;
+    }
+
+    /**
+     * Fires an objects reordered event for the index0, index1 interval to all
+     * registered listeners. Does nothing if the interval is empty.
+     *
+     * @param index0 starting index of the reordered interval
+     * @param index1 ending index of the reordered interval
+     */
+    private void fireObjectsReordered(int index0, int index1) {
+        if (index0 > index1) {
+            return;
+        }
+
+        for (DrawingModelListener listener : listeners) {
+            listener.objectsReordered(this, index0, index1);
+        }
+
+        changed = true;
+    }
+
     /**
      * Serializes all geometric shapes that are on the image and returns a list
      * of serialized shapes ready to be parsed and re-serialized again.
@@ -272,6 +880,108 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
         return list;
     }
 
+    /**
+     * Assigns the next instance number of its type to the specified
+     * <tt>shape</tt>, if it does not have one already.
+     *
+     * @param shape shape to be numbered
+     */
+    private void assignInstance(GeometricalObject shape) {
+        if (shape.getInstance() == 0) {
+            AtomicInteger counter = instanceCounters.computeIfAbsent(shape.getTypeName(), (k) -> new AtomicInteger());
+            shape.setInstance(counter.incrementAndGet());
+        }
+    }
+
+    /**
+     * Adds the specified <tt>shape</tt> to the footprint of its type if
+     * <tt>sign</tt> is <tt>1</tt>, or subtracts it if <tt>sign</tt> is
+     * <tt>-1</tt>.
+     *
+     * @param shape shape to be accounted for
+     * @param sign 1 for an added shape, -1 for a removed shape
+     */
+    private void account(GeometricalObject shape, int sign) {
+        long[] footprint = footprints.computeIfAbsent(shape.getClass().getSimpleName(), (k) -> new long[2]);
+        footprint[0] += sign;
+        footprint[1] += sign * shape.estimateSize();
+    }
+
+    /**
+     * Returns a snapshot of the memory footprint of this model: the number of
+     * shapes and an estimate of bytes they retain for each shape type, and an
+     * estimate of bytes retained by the indices. Raster buffers are not part
+     * of the model, see {@link JDrawingCanvas#getMemoryStatistics()}.
+     * <p>
+     * The statistics are tracked as shapes are added and removed, so this
+     * method does not iterate over shapes.
+     *
+     * @return a snapshot of the memory footprint of this model
+     */
+    public MemoryStatistics getMemoryStatistics() {
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Long> bytes = new HashMap<>();
+        footprints.forEach((type, footprint) -> {
+            if (footprint[0] > 0) {
+                counts.put(type, (int) footprint[0]);
+                bytes.put(type, footprint[1]);
+            }
+        });
+
+        long indexBytes = (long) shapes.size() * SHAPE_INDEX_BYTES
+                + (long) snapIndex.size() * SNAP_POINT_INDEX_BYTES;
+        return new MemoryStatistics(counts, bytes, indexBytes, 0);
+    }
+
+    /**
+     * Returns the entry holding the shape at the specified <tt>index</tt>.
+     *
+     * @param index index of the shape
+     * @return the entry holding the shape
+     */
+    private ShapeEntry entry(int index) {
+        return (ShapeEntry) shapes.node(index);
+    }
+
+    /**
+     * Inserts the shape of the specified <tt>entry</tt> into the spatial index
+     * under its current bounding box, and its current snap points into the
+     * snap point index.
+     *
+     * @param entry entry to be indexed
+     */
+    private void index(ShapeEntry entry) {
+        Rectangle r = entry.getValue().getBoundingBox();
+        entry.minX = r.x;
+        entry.minY = r.y;
+        entry.maxX = r.x + r.width;
+        entry.maxY = r.y + r.height;
+
+        spatialIndex.insert(entry, entry.minX, entry.minY, entry.maxX, entry.maxY);
+        entry.snapPoints = entry.getValue().getSnapPoints();
+        for (Point p : entry.snapPoints) {
+            snapIndex.insert(p, p.x, p.y);
+        }
+        entry.indexed = true;
+    }
+
+    /**
+     * Removes the shape of the specified <tt>entry</tt> from the spatial index
+     * and its snap points from the snap point index if it was indexed.
+     *
+     * @param entry entry to be removed from the index
+     */
+    private void unindex(ShapeEntry entry) {
+        if (entry.indexed) {
+            spatialIndex.remove(entry, entry.minX, entry.minY, entry.maxX, entry.maxY);
+            for (Point p : entry.snapPoints) {
+                snapIndex.remove(p, p.x, p.y);
+            }
+            entry.snapPoints = null;
+            entry.indexed = false;
+        }
+    }
+
     @Override
     public void addDrawingModelListener(DrawingModelListener l) {
         listeners = new ArrayList<>(listeners);
@@ -284,4 +994,37 @@ public class JDrawingCanvasModel implements DrawingModel, ColorChangeListener {
         listeners.remove(l);
     }
 
+    /**
+     * A tree node holding a shape along with the bounding box and snap points
+     * under which the shape is registered in the spatial indices. They are
+     * remembered because shapes are altered in place, so their current
+     * geometry may no longer match the indexed one.
+     *
+     * @author Mario Bobic
+     */
+    private static class ShapeEntry extends Node<GeometricalObject> {
+        /** Indexed minimum horizontal coordinate. */
+        private int minX;
+        /** Indexed minimum vertical coordinate. */
+        private int minY;
+        /** Indexed maximum horizontal coordinate. */
+        private int maxX;
+        /** Indexed maximum vertical coordinate. */
+        private int maxY;
+        /** Indexed snap points. */
+        private List<Point> snapPoints;
+        /** Flag that indicates if the shape is in the spatial index. */
+        private boolean indexed;
+
+        /**
+         * Constructs an instance of {@code ShapeEntry} for the specified
+         * <tt>shape</tt>.
+         *
+         * @param shape shape to be held by this entry
+         */
+        public ShapeEntry(GeometricalObject shape) {
+            super(shape);
+        }
+    }
+
 }
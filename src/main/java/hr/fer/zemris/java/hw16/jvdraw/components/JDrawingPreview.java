@@ -0,0 +1,222 @@
+package hr.fer.zemris.java.hw16.jvdraw.components;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.JComponent;
+import javax.swing.JFileChooser;
+import javax.swing.SwingUtilities;
+
+import hr.fer.zemris.java.hw16.jvdraw.io.DrawingSampler;
+import hr.fer.zemris.java.hw16.jvdraw.io.ReadMonitor;
+import hr.fer.zemris.java.hw16.jvdraw.io.ThumbnailCache;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+
+/**
+ * An accessory of a {@link JFileChooser} that shows a thumbnail of the
+ * drawing selected in the chooser.
+ * <p>
+ * Thumbnails are rendered on a background thread from a
+ * {@link DrawingSampler sample} of at most {@link #MAX_SHAPES} shapes of the
+ * document, so even the largest documents are previewed in a fraction of a
+ * second, and are stored in a {@link ThumbnailCache}. Selecting another file
+ * cancels the thumbnail that is being rendered, so browsing through a
+ * directory never queues up the renders of files that are no longer
+ * selected.
+ *
+ * @author Mario Bobic
+ */
+public class JDrawingPreview extends JComponent implements PropertyChangeListener {
+    /** Serialization UID. */
+    private static final long serialVersionUID = 1L;
+
+    /** Size of the longer side of thumbnails in pixels. */
+    public static final int THUMBNAIL_SIZE = 160;
+    /** Maximum number of shapes a thumbnail is rendered from. */
+    public static final int MAX_SHAPES = 10_000;
+
+    /** The preferred dimension of instances of this class. */
+    private static final Dimension PREFERRED_DIMENSION = new Dimension(THUMBNAIL_SIZE + 10, THUMBNAIL_SIZE + 10);
+
+    /** Cache of thumbnails. */
+    private final ThumbnailCache cache;
+    /** Executor that renders thumbnails. */
+    private final ExecutorService renderer;
+
+    /** Number of the current selection, incremented on every selection. */
+    private volatile int selection;
+    /** Thumbnail of the selected drawing, or null. */
+    private BufferedImage thumbnail;
+    /** Message shown instead of a thumbnail, or null. */
+    private String message;
+
+    /**
+     * Constructs an instance of {@code JDrawingPreview} that previews the
+     * files selected in the specified <tt>chooser</tt>, using the specified
+     * thumbnail <tt>cache</tt>. The preview is not set as the accessory of
+     * the chooser by this constructor.
+     *
+     * @param chooser file chooser whose selected files are previewed
+     * @param cache cache of thumbnails
+     */
+    public JDrawingPreview(JFileChooser chooser, ThumbnailCache cache) {
+        this.cache = cache;
+        this.renderer = Executors.newSingleThreadExecutor((r) -> {
+            Thread thread = new Thread(r, "Preview renderer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        chooser.addPropertyChangeListener(JFileChooser.SELECTED_FILE_CHANGED_PROPERTY, this);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return PREFERRED_DIMENSION;
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        File file = (File) evt.getNewValue();
+        select(file == null ? null : file.toPath());
+    }
+
+    /**
+     * Shows the thumbnail of the drawing at the specified <tt>file</tt>,
+     * rendering it in the background if it is not cached.
+     *
+     * @param file path of the drawing, or null to show nothing
+     */
+    private void select(Path file) {
+        int current = ++selection;
+        thumbnail = null;
+        message = null;
+
+        if (file != null && Files.isRegularFile(file)) {
+            message = "Loading...";
+            renderer.execute(() -> load(file, current));
+        }
+        repaint();
+    }
+
+    /**
+     * Loads the thumbnail of the drawing at the specified <tt>file</tt> from
+     * the cache, or renders it and puts it into the cache, and shows it if
+     * the file is still selected. Runs on the renderer thread.
+     *
+     * @param file path of the drawing
+     * @param current number of the selection of the file
+     */
+    private void load(Path file, int current) {
+        if (selection != current) {
+            return;
+        }
+
+        BufferedImage image = cache.get(file);
+        if (image == null) {
+            try {
+                image = render(file, current);
+                if (image != null) {
+                    cache.put(file, image);
+                }
+            } catch (CancellationException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                image = null;
+            }
+        }
+
+        BufferedImage result = image;
+        SwingUtilities.invokeLater(() -> {
+            if (selection == current) {
+                thumbnail = result;
+                message = result == null ? "No preview" : null;
+                repaint();
+            }
+        });
+    }
+
+    /**
+     * Renders the thumbnail of a sample of the shapes of the drawing at the
+     * specified <tt>file</tt>, scaled to fit {@link #THUMBNAIL_SIZE} pixels.
+     *
+     * @param file path of the drawing
+     * @param current number of the selection of the file
+     * @return the thumbnail, or null if the drawing has no shapes
+     * @throws IOException if an I/O error occurs or if the drawing is
+     *         corrupted
+     * @throws CancellationException if another file was selected
+     */
+    private BufferedImage render(Path file, int current) throws IOException {
+        List<GeometricalObject> shapes = DrawingSampler.sample(file, MAX_SHAPES, new ReadMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return selection != current;
+            }
+        });
+        if (shapes.isEmpty()) {
+            return null;
+        }
+
+        Rectangle bounds = shapes.get(0).getBoundingBox();
+        for (GeometricalObject shape : shapes) {
+            bounds.add(shape.getBoundingBox());
+        }
+
+        double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(bounds.width + 1, bounds.height + 1));
+        int width = Math.max(1, (int) Math.ceil((bounds.width + 1) * scale));
+        int height = Math.max(1, (int) Math.ceil((bounds.height + 1) * scale));
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(
+            RenderingHints.KEY_ANTIALIASING,
+            RenderingHints.VALUE_ANTIALIAS_ON
+        );
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.scale(scale, scale);
+
+        for (GeometricalObject shape : shapes) {
+            shape.draw(g, -bounds.x, -bounds.y);
+        }
+        g.dispose();
+
+        return image;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+
+        if (thumbnail != null) {
+            int x = (getWidth() - thumbnail.getWidth()) / 2;
+            int y = (getHeight() - thumbnail.getHeight()) / 2;
+            g.drawImage(thumbnail, x, y, null);
+            g.setColor(Color.GRAY);
+            g.drawRect(x - 1, y - 1, thumbnail.getWidth() + 1, thumbnail.getHeight() + 1);
+        } else if (message != null) {
+            FontMetrics fm = g.getFontMetrics();
+            g.setColor(Color.GRAY);
+            g.drawString(message, (getWidth() - fm.stringWidth(message)) / 2, (getHeight() + fm.getAscent()) / 2);
+        }
+    }
+
+}
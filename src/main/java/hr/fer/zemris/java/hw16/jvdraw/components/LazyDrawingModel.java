@@ -0,0 +1,389 @@
+package hr.fer.zemris.java.hw16.jvdraw.components;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeTokenizer;
+
+/**
+ * A read-only drawing model backed by a <tt>.jvd</tt> document on disk. Shapes
+ * are parsed only when they are requested by {@link #getObject(int)}, so that
+ * views which ask only for the shapes they show, such as a list, never touch
+ * the rest of the document.
+ * <p>
+ * The document is divided into pages of {@link #PAGE_SIZE} lines. An index of
+ * the byte offsets of the pages is built by a background thread, which
+ * reports the lines found so far as added objects every
+ * {@value #PUBLISH_INTERVAL} milliseconds, so the first lines are available
+ * almost immediately. A requested shape is read together with the rest of
+ * its page, and parsed pages are kept in a cache that discards the least
+ * recently used pages once it holds more than the maximum number of shapes.
+ * <p>
+ * Like other Swing models, this model must be used only from the event
+ * dispatch thread, where the index updates are also delivered. Shapes can not
+ * be added or removed, and a line that can not be parsed is reported by the
+ * {@code getObject} call that reaches it. The model should be
+ * {@link #close() closed} when it is no longer needed.
+ *
+ * @author Mario Bobic
+ */
+public class LazyDrawingModel implements DrawingModel, Closeable {
+
+    /** Number of lines in a page. */
+    public static final int PAGE_SIZE = 256;
+    /** Default maximum number of cached shapes. */
+    public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    /** Number of bytes scanned by the indexer at a time. */
+    private static final int SCAN_SIZE = 1 << 20;
+    /** Interval between index updates in milliseconds. */
+    private static final long PUBLISH_INTERVAL = 100;
+
+    /** Path of the document. */
+    private final Path file;
+    /** Channel of the document. */
+    private final FileChannel channel;
+    /** Thread that builds the index. */
+    private final Thread indexer;
+    /** Indicates whether this model was closed. */
+    private volatile boolean closed;
+
+    /** Byte offsets of the pages indexed so far. */
+    private long[] offsets = {0};
+    /** Byte offset just past the last indexed line. */
+    private long indexedEnd;
+    /** Number of lines indexed so far. */
+    private int size;
+    /** Indicates whether the whole document was indexed. */
+    private boolean indexed;
+    /** Error that stopped indexing, or null. */
+    private IOException indexError;
+
+    /** Parsed pages, from the least to the most recently used. */
+    private final Map<Integer, GeometricalObject[]> cache;
+    /** Buffer that pages are read into, reused for every page. */
+    private ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE * 64);
+
+    /** List of listeners. */
+    private List<DrawingModelListener> listeners = new ArrayList<>();
+
+    /**
+     * Constructs an instance of {@code LazyDrawingModel} of the document at
+     * the specified <tt>file</tt> that caches at most
+     * {@link #DEFAULT_CACHE_SIZE} shapes.
+     *
+     * @param file path of the document
+     * @throws IOException if the document can not be opened
+     */
+    public LazyDrawingModel(Path file) throws IOException {
+        this(file, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructs an instance of {@code LazyDrawingModel} of the document at
+     * the specified <tt>file</tt> that caches at most <tt>cacheSize</tt>
+     * shapes, rounded up to whole pages. Indexing starts immediately.
+     *
+     * @param file path of the document
+     * @param cacheSize maximum number of cached shapes
+     * @throws IOException if the document can not be opened
+     * @throws IllegalArgumentException if <tt>cacheSize</tt> is not positive
+     */
+    public LazyDrawingModel(Path file, int cacheSize) throws IOException {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + cacheSize);
+        }
+        int maxPages = (cacheSize + PAGE_SIZE - 1) / PAGE_SIZE;
+
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.cache = new LinkedHashMap<Integer, GeometricalObject[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, GeometricalObject[]> eldest) {
+                return size() > maxPages;
+            }
+        };
+
+        indexer = new Thread(this::index, "Indexer of " + file.getFileName());
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Returns the path of the document of this model.
+     *
+     * @return the path of the document
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the whole document was indexed, in which case
+     * {@link #getSize()} is the number of lines of the document.
+     *
+     * @return true if the whole document was indexed
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Returns the error that stopped indexing, or <tt>null</tt> if there was
+     * none. Lines indexed before the error remain available.
+     *
+     * @return the error that stopped indexing, or null
+     */
+    public IOException getIndexError() {
+        return indexError;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The page of the shape is read and parsed unless it is cached.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws IllegalArgumentException if a line of the page can not be parsed
+     * @throws UncheckedIOException if the page can not be read
+     */
+    @Override
+    public GeometricalObject getObject(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+
+        int page = index / PAGE_SIZE;
+        int offset = index % PAGE_SIZE;
+
+        GeometricalObject[] shapes = cache.get(page);
+        // The last page may have grown since it was parsed
+        if (shapes == null || offset >= shapes.length) {
+            shapes = readPage(page);
+            cache.put(page, shapes);
+        }
+        return shapes[offset];
+    }
+
+    /**
+     * Reads and parses all indexed lines of the specified <tt>page</tt>.
+     *
+     * @param page index of the page
+     * @return shapes of the page
+     */
+    private GeometricalObject[] readPage(int page) {
+        long from = offsets[page];
+        long to = page < size / PAGE_SIZE ? offsets[page + 1] : indexedEnd;
+        int count = Math.min(PAGE_SIZE, size - page * PAGE_SIZE);
+
+        try {
+            if (to - from > Integer.MAX_VALUE) {
+                throw new IOException("Page " + page + " is too large.");
+            }
+            int length = (int) (to - from);
+            if (buffer.capacity() < length) {
+                buffer = ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()));
+            }
+
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    throw new IOException("Document was truncated: " + file);
+                }
+            }
+            buffer.flip();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ShapeTokenizer tokenizer = new ShapeTokenizer(buffer);
+        GeometricalObject[] shapes = new GeometricalObject[count];
+        for (int i = 0; i < count; i++) {
+            try {
+                shapes[i] = tokenizer.next();
+            } catch (IllegalArgumentException e) {
+                int line = page * PAGE_SIZE + tokenizer.getLineNumber();
+                throw new IllegalArgumentException("Line " + line + ": " + e.getMessage(), e);
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Scans the document for line breaks and publishes the offsets of pages
+     * to the event dispatch thread as they are found. Runs on the indexer
+     * thread until the end of the document or until the model is closed.
+     */
+    private void index() {
+        long[] pages = new long[1024];
+        int lines = 0;
+        long end = 0;
+        long position = 0;
+
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        byte[] bytes = scan.array();
+        long lastPublish = 0;
+
+        try {
+            while (!closed) {
+                scan.clear();
+                int n = channel.read(scan, position);
+                if (n < 0) {
+                    break;
+                }
+
+                for (int i = 0; i < n; i++) {
+                    if (bytes[i] == '\n') {
+                        end = position + i + 1;
+                        if (++lines % PAGE_SIZE == 0) {
+                            pages = put(pages, lines / PAGE_SIZE, end);
+                        }
+                    }
+                }
+                position += n;
+
+                long now = System.currentTimeMillis();
+                if (now - lastPublish >= PUBLISH_INTERVAL) {
+                    publish(pages, lines, end, false, null);
+                    lastPublish = now;
+                }
+            }
+
+            // The last line may lack a line break
+            if (!closed && position > end) {
+                end = position;
+                if (++lines % PAGE_SIZE == 0) {
+                    pages = put(pages, lines / PAGE_SIZE, end);
+                }
+            }
+            publish(pages, lines, end, true, null);
+        } catch (IOException e) {
+            if (!closed) {
+                publish(pages, lines, end, true, e);
+            }
+        }
+    }
+
+    /**
+     * Puts the specified <tt>value</tt> at the specified <tt>index</tt> of
+     * the <tt>array</tt>, growing the array if needed.
+     *
+     * @param array array to be put into
+     * @param index index of the value
+     * @param value value to be put
+     * @return the array, or its grown copy
+     */
+    private static long[] put(long[] array, int index, long value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, 2 * array.length);
+        }
+        array[index] = value;
+        return array;
+    }
+
+    /**
+     * Hands the current state of the index over to the event dispatch thread
+     * and notifies all active listeners of the newly indexed lines. The
+     * published part of the <tt>pages</tt> array is never written again.
+     *
+     * @param pages byte offsets of the pages
+     * @param lines number of indexed lines
+     * @param end byte offset just past the last indexed line
+     * @param done true if indexing is finished
+     * @param error error that stopped indexing, or null
+     */
+    private void publish(long[] pages, int lines, long end, boolean done, IOException error) {
+        SwingUtilities.invokeLater(() -> {
+            if (closed) {
+                return;
+            }
+            int oldSize = size;
+            offsets = pages;
+            indexedEnd = end;
+            size = lines;
+            indexed = done;
+            indexError = error;
+
+            if (lines > oldSize) {
+                for (DrawingModelListener listener : listeners) {
+                    listener.objectsAdded(this, oldSize, lines - 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Unsupported, since this model is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void removeObject(int index) {
+        throw new UnsupportedOperationException("Lazy drawing model is read-only.");
+    }
+
+    /**
+     * Unsupported, since this model is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Lazy drawing model is read-only.");
+    }
+
+    /**
+     * Unsupported, since this model is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void add(GeometricalObject shape) {
+        throw new UnsupportedOperationException("Lazy drawing model is read-only.");
+    }
+
+    @Override
+    public void addDrawingModelListener(DrawingModelListener l) {
+        listeners = new ArrayList<>(listeners);
+        listeners.add(l);
+    }
+
+    @Override
+    public void removeDrawingModelListener(DrawingModelListener l) {
+        listeners = new ArrayList<>(listeners);
+        listeners.remove(l);
+    }
+
+    /**
+     * Stops indexing, discards cached pages and closes the document. Shapes
+     * can not be requested afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        cache.clear();
+        channel.close();
+    }
+
+}
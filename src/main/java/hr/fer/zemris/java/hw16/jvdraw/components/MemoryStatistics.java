@@ -0,0 +1,174 @@
+package hr.fer.zemris.java.hw16.jvdraw.components;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An immutable snapshot of the estimated memory footprint of a drawing. It
+ * contains the number of shapes and an estimate of bytes they retain for each
+ * shape type, an estimate of bytes retained by the indices of the model and
+ * the size of raster buffers of the canvas.
+ * <p>
+ * Shape types are the simple names of shape classes, such as <tt>Line</tt>
+ * or <tt>FilledCircle</tt>. All sizes are in bytes and estimated for a 64-bit
+ * virtual machine with compressed references.
+ *
+ * @author Mario Bobic
+ */
+public class MemoryStatistics {
+
+    /** Number of shapes mapped by shape types. */
+    private final Map<String, Integer> counts;
+    /** Estimated bytes retained by shapes mapped by shape types. */
+    private final Map<String, Long> shapeBytes;
+    /** Estimated bytes retained by the indices of the model. */
+    private final long indexBytes;
+    /** Bytes retained by raster buffers of the canvas. */
+    private final long rasterBytes;
+
+    /**
+     * Constructs an instance of {@code MemoryStatistics} with the specified
+     * arguments.
+     *
+     * @param counts number of shapes mapped by shape types
+     * @param shapeBytes estimated bytes retained by shapes mapped by shape types
+     * @param indexBytes estimated bytes retained by the indices of the model
+     * @param rasterBytes bytes retained by raster buffers of the canvas
+     */
+    MemoryStatistics(Map<String, Integer> counts, Map<String, Long> shapeBytes, long indexBytes, long rasterBytes) {
+        this.counts = Collections.unmodifiableMap(new TreeMap<>(counts));
+        this.shapeBytes = Collections.unmodifiableMap(new TreeMap<>(shapeBytes));
+        this.indexBytes = indexBytes;
+        this.rasterBytes = rasterBytes;
+    }
+
+    /**
+     * Returns a copy of these statistics with the specified size of raster
+     * buffers of the canvas.
+     *
+     * @param rasterBytes bytes retained by raster buffers of the canvas
+     * @return a copy of these statistics with the specified raster size
+     */
+    MemoryStatistics withRasterBytes(long rasterBytes) {
+        return new MemoryStatistics(counts, shapeBytes, indexBytes, rasterBytes);
+    }
+
+    /**
+     * Returns the shape types present in the drawing, sorted by name.
+     *
+     * @return the shape types present in the drawing
+     */
+    public Set<String> getShapeTypes() {
+        return counts.keySet();
+    }
+
+    /**
+     * Returns the number of shapes of the specified <tt>type</tt>.
+     *
+     * @param type simple name of the shape class
+     * @return the number of shapes of the specified type
+     */
+    public int getCount(String type) {
+        return counts.getOrDefault(type, 0);
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by shapes of the
+     * specified <tt>type</tt>.
+     *
+     * @param type simple name of the shape class
+     * @return the estimated bytes retained by shapes of the specified type
+     */
+    public long getShapeBytes(String type) {
+        return shapeBytes.getOrDefault(type, 0L);
+    }
+
+    /**
+     * Returns the total number of shapes.
+     *
+     * @return the total number of shapes
+     */
+    public int getShapeCount() {
+        int count = 0;
+        for (int c : counts.values()) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by all shapes.
+     *
+     * @return the estimated bytes retained by all shapes
+     */
+    public long getShapeBytes() {
+        long bytes = 0;
+        for (long b : shapeBytes.values()) {
+            bytes += b;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by the indices of the
+     * model, including the drawing order tree, the spatial index and the snap
+     * point index.
+     *
+     * @return the estimated bytes retained by the indices of the model
+     */
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    /**
+     * Returns the number of bytes retained by raster buffers of the canvas,
+     * or <tt>0</tt> if these statistics were obtained from the model alone.
+     *
+     * @return the bytes retained by raster buffers of the canvas
+     */
+    public long getRasterBytes() {
+        return rasterBytes;
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by the drawing, which is
+     * the sum of bytes retained by shapes, indices and raster buffers.
+     *
+     * @return the estimated bytes retained by the drawing
+     */
+    public long getTotalBytes() {
+        return getShapeBytes() + indexBytes + rasterBytes;
+    }
+
+    /**
+     * Returns a human readable representation of the specified number of
+     * <tt>bytes</tt>, such as <tt>1.5 MB</tt>.
+     *
+     * @param bytes number of bytes
+     * @return a human readable representation of the number of bytes
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %ciB", bytes / (double) (1L << (unit * 10)), " KMGTPE".charAt(unit));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String type : counts.keySet()) {
+            sb.append(type).append(": ").append(getCount(type))
+              .append(" (").append(formatBytes(getShapeBytes(type))).append("), ");
+        }
+        sb.append("index: ").append(formatBytes(indexBytes))
+          .append(", raster: ").append(formatBytes(rasterBytes))
+          .append(", total: ").append(formatBytes(getTotalBytes()));
+        return sb.toString();
+    }
+
+}
@@ -1,16 +1,28 @@
 package hr.fer.zemris.java.hw16.jvdraw.components;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.FlowLayout;
+import java.awt.Insets;
 import java.util.Objects;
 
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 
 /**
- * The StatusBar class contains a single {@link JLabel} object used for telling
+ * The StatusBar class contains a {@link JLabel} object used for telling
  * foreground and background <tt>RGB</tt> components.
  * <p>
+ * Another label on the right side shows the {@link MemoryStatistics memory
+ * footprint} of the drawing and the heap usage, with the footprint of each
+ * shape type in its tool tip.
+ * <p>
+ * While a long running task is in progress, a progress bar with a cancel
+ * button is shown between the two labels, see
+ * {@link #startProgress(String, Runnable)}.
+ * <p>
  * It implements the {@link ColorChangeListener} interface to be notified of a
  * color change event.
  *
@@ -22,6 +34,17 @@ public class StatusBar extends JPanel implements ColorChangeListener {
 
     /** JLabel containing color information */
     private JLabel colors = new JLabel();
+    /** JLabel containing memory information */
+    private JLabel memory = new JLabel();
+
+    /** Panel containing the progress bar and the cancel button */
+    private JPanel progressPanel = new JPanel(new BorderLayout(5, 0));
+    /** Progress bar of the current task */
+    private JProgressBar progressBar = new JProgressBar(0, 100);
+    /** Button that cancels the current task */
+    private JButton cancelButton = new JButton("Cancel");
+    /** Action that cancels the current task, or null */
+    private Runnable cancelAction;
 
     /** Foreground color picker. */
     private JColorArea foreground;
@@ -42,12 +65,63 @@ public class StatusBar extends JPanel implements ColorChangeListener {
         foreground.addColorChangeListener(this);
         background.addColorChangeListener(this);
 
-        setLayout(new FlowLayout(FlowLayout.LEFT));
-        add(colors);
+        setLayout(new BorderLayout());
+        setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+        add(colors, BorderLayout.LINE_START);
+        add(memory, BorderLayout.LINE_END);
+
+        progressBar.setStringPainted(true);
+        cancelButton.setMargin(new Insets(0, 5, 0, 5));
+        cancelButton.addActionListener((e) -> {
+            if (cancelAction != null) {
+                cancelAction.run();
+            }
+        });
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10));
+        progressPanel.add(progressBar);
+        progressPanel.add(cancelButton, BorderLayout.LINE_END);
+        progressPanel.setVisible(false);
+        add(progressPanel);
 
         newColorSelected(null, null, null);
     }
 
+    /**
+     * Shows the progress bar with the specified <tt>text</tt> and zero
+     * progress. The specified <tt>cancel</tt> action is run when the cancel
+     * button is pressed.
+     *
+     * @param text text describing the task
+     * @param cancel action that cancels the task
+     */
+    public void startProgress(String text, Runnable cancel) {
+        cancelAction = cancel;
+        progressBar.setValue(0);
+        progressBar.setString(text);
+        progressBar.setToolTipText(text);
+        cancelButton.setEnabled(true);
+        progressPanel.setVisible(true);
+        revalidate();
+    }
+
+    /**
+     * Sets the progress of the current task.
+     *
+     * @param percent progress of the task in percents
+     */
+    public void setProgress(int percent) {
+        progressBar.setValue(percent);
+    }
+
+    /**
+     * Hides the progress bar once the current task is finished or cancelled.
+     */
+    public void stopProgress() {
+        cancelAction = null;
+        progressPanel.setVisible(false);
+        revalidate();
+    }
+
     @Override
     public void newColorSelected(IColorProvider source, Color oldColor, Color newColor) {
         Color f = foreground.getCurrentColor();
@@ -56,6 +130,34 @@ public class StatusBar extends JPanel implements ColorChangeListener {
         colors.setText("Foreground color: " + colorToString(f) + ", background color: " + colorToString(b));
     }
 
+    /**
+     * Shows the specified memory statistics of the drawing, along with the
+     * current heap usage of the virtual machine.
+     *
+     * @param stats memory statistics of the drawing
+     */
+    public void setMemoryStatistics(MemoryStatistics stats) {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+
+        memory.setText(String.format("%d shapes, %s (raster %s) | heap %s / %s",
+            stats.getShapeCount(),
+            MemoryStatistics.formatBytes(stats.getTotalBytes()),
+            MemoryStatistics.formatBytes(stats.getRasterBytes()),
+            MemoryStatistics.formatBytes(used),
+            MemoryStatistics.formatBytes(runtime.maxMemory())
+        ));
+
+        StringBuilder sb = new StringBuilder("<html>");
+        for (String type : stats.getShapeTypes()) {
+            sb.append(type).append(": ").append(stats.getCount(type))
+              .append(", ").append(MemoryStatistics.formatBytes(stats.getShapeBytes(type))).append("<br>");
+        }
+        sb.append("Indices: ").append(MemoryStatistics.formatBytes(stats.getIndexBytes())).append("<br>");
+        sb.append("Raster buffers: ").append(MemoryStatistics.formatBytes(stats.getRasterBytes()));
+        memory.setToolTipText(sb.append("</html>").toString());
+    }
+
     /**
      * Returns a string representation of the specified color object
      * <tt>col</tt>, containing red, green and blue components in parentheses
@@ -0,0 +1,549 @@
+package hr.fer.zemris.java.hw16.jvdraw.index;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * An ordered sequence of elements backed by an implicit treap, a randomized
+ * balanced binary tree ordered by position instead of by key. Every node knows
+ * the size of its subtree, which makes it an order-statistic tree: elements
+ * can be fetched, inserted, removed or moved at an arbitrary index in expected
+ * <tt>O(log n)</tt> time, as opposed to the <tt>O(n)</tt> shifting of an
+ * {@code ArrayList}.
+ * <p>
+ * Elements are held by {@link Node} objects. A node stays the same object for
+ * as long as its element is in the tree, even if the element is moved, which
+ * makes nodes usable as handles: the current index of a node is found in
+ * <tt>O(log n)</tt> time by walking up the parent references.
+ *
+ * @param <E> the type of elements held in this tree
+ * @author Mario Bobic
+ */
+public class OrderStatisticTree<E> implements Iterable<E> {
+
+    /**
+     * A node of the order-statistic tree holding a single element. Nodes may
+     * be subclassed in order to attach additional data to the element.
+     *
+     * @param <E> the type of the element held in this node
+     * @author Mario Bobic
+     */
+    public static class Node<E> {
+        /** Element held by this node. */
+        private final E value;
+        /** Heap priority of this node. */
+        private int priority;
+
+        /** Left child. */
+        private Node<E> left;
+        /** Right child. */
+        private Node<E> right;
+        /** Parent node, <tt>null</tt> if this node is a root. */
+        private Node<E> parent;
+        /** Number of nodes in the subtree rooted at this node. */
+        private int size = 1;
+
+        /**
+         * Constructs an instance of {@code Node} with the specified
+         * <tt>value</tt>.
+         *
+         * @param value element to be held by this node
+         */
+        public Node(E value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the element held by this node.
+         *
+         * @return the element held by this node
+         */
+        public E getValue() {
+            return value;
+        }
+    }
+
+    /** Root of the tree. */
+    private Node<E> root;
+
+    /** Seed of the pseudo-random priority generator. */
+    private int seed = 0x2545F491;
+
+    /** Left result of the last split. */
+    private Node<E> splitLeft;
+    /** Right result of the last split. */
+    private Node<E> splitRight;
+
+    /**
+     * Returns the number of elements in this tree.
+     *
+     * @return the number of elements in this tree
+     */
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns <tt>true</tt> if this tree contains no elements.
+     *
+     * @return true if this tree contains no elements
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns the element at the specified <tt>index</tt>.
+     *
+     * @param index index of the element
+     * @return the element at the specified index
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public E get(int index) {
+        return node(index).value;
+    }
+
+    /**
+     * Returns the node at the specified <tt>index</tt>.
+     *
+     * @param index index of the node
+     * @return the node at the specified index
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public Node<E> node(int index) {
+        checkIndex(index, size());
+
+        Node<E> n = root;
+        while (true) {
+            int leftSize = size(n.left);
+            if (index < leftSize) {
+                n = n.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                n = n.right;
+            } else {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Returns the current index of the specified <tt>node</tt>, or
+     * <tt>-1</tt> if the node does not belong to this tree.
+     *
+     * @param node node whose index is to be returned
+     * @return the index of the node, or -1 if it is not in this tree
+     */
+    public int indexOf(Node<E> node) {
+        if (node == null) {
+            return -1;
+        }
+
+        int index = size(node.left);
+        while (node.parent != null) {
+            Node<E> parent = node.parent;
+            if (node == parent.right) {
+                index += size(parent.left) + 1;
+            }
+            node = parent;
+        }
+
+        return node == root ? index : -1;
+    }
+
+    /**
+     * Appends the specified <tt>value</tt> to the end of this tree.
+     *
+     * @param value element to be appended
+     * @return the node holding the element
+     */
+    public Node<E> add(E value) {
+        return insert(size(), new Node<>(value));
+    }
+
+    /**
+     * Inserts the specified <tt>node</tt> at the specified <tt>index</tt>,
+     * shifting the subsequent elements to the right. The node must not
+     * currently belong to any tree.
+     *
+     * @param index index at which the node is to be inserted
+     * @param node node to be inserted
+     * @return the inserted node
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public Node<E> insert(int index, Node<E> node) {
+        checkIndex(index, size() + 1);
+        reset(node);
+
+        split(root, index);
+        Node<E> right = splitRight;
+        setRoot(merge(merge(splitLeft, node), right));
+        return node;
+    }
+
+    /**
+     * Appends all of the specified <tt>nodes</tt> to the end of this tree in
+     * the order they are given. The tree for the new nodes is built in linear
+     * time and merged in a single operation. None of the nodes may currently
+     * belong to any tree.
+     *
+     * @param nodes nodes to be appended
+     */
+    public void addAll(List<? extends Node<E>> nodes) {
+        insertAll(size(), nodes);
+    }
+
+    /**
+     * Inserts all of the specified <tt>nodes</tt> at the specified
+     * <tt>index</tt> in the order they are given, shifting the subsequent
+     * elements to the right. None of the nodes may currently belong to any
+     * tree.
+     *
+     * @param index index at which the first node is to be inserted
+     * @param nodes nodes to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void insertAll(int index, List<? extends Node<E>> nodes) {
+        checkIndex(index, size() + 1);
+        if (nodes.isEmpty()) {
+            return;
+        }
+
+        // Cartesian tree construction using the right spine as a stack
+        Node<E>[] spine = new Node[64];
+        int top = -1;
+        for (Node<E> node : nodes) {
+            reset(node);
+
+            Node<E> last = null;
+            while (top >= 0 && spine[top].priority < node.priority) {
+                last = spine[top--];
+            }
+            node.left = last;
+            if (top >= 0) {
+                spine[top].right = node;
+            }
+
+            if (++top == spine.length) {
+                Node<E>[] grown = new Node[spine.length * 2];
+                System.arraycopy(spine, 0, grown, 0, spine.length);
+                spine = grown;
+            }
+            spine[top] = node;
+        }
+
+        Node<E> built = spine[0];
+        updateAll(built);
+
+        split(root, index);
+        Node<E> right = splitRight;
+        setRoot(merge(merge(splitLeft, built), right));
+    }
+
+    /**
+     * Removes the element at the specified <tt>index</tt> and returns the node
+     * that was holding it.
+     *
+     * @param index index of the element to be removed
+     * @return the removed node
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public Node<E> remove(int index) {
+        checkIndex(index, size());
+
+        split(root, index);
+        Node<E> left = splitLeft;
+        split(splitRight, 1);
+        Node<E> removed = splitLeft;
+        setRoot(merge(left, splitRight));
+
+        removed.parent = null;
+        return removed;
+    }
+
+    /**
+     * Removes the specified <tt>node</tt> from this tree. Does nothing if the
+     * node does not belong to this tree.
+     *
+     * @param node node to be removed
+     * @return true if the node was removed
+     */
+    public boolean remove(Node<E> node) {
+        int index = indexOf(node);
+        if (index == -1) {
+            return false;
+        }
+
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Moves the element at index <tt>from</tt> to index <tt>to</tt>, shifting
+     * the elements in between by one position. The node holding the element
+     * remains the same.
+     *
+     * @param from current index of the element
+     * @param to new index of the element
+     * @throws IndexOutOfBoundsException if any index is out of range
+     */
+    public void move(int from, int to) {
+        checkIndex(to, size());
+        if (from != to) {
+            insert(to, remove(from));
+        }
+    }
+
+    /**
+     * Removes all elements from this tree.
+     */
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * Performs the given <tt>action</tt> for each element in the index0,
+     * index1 interval, in order. The interval includes both index0 and index1.
+     * Iteration costs <tt>O(log n)</tt> for locating the first element and
+     * amortized constant time per element afterwards.
+     *
+     * @param index0 index of the first element
+     * @param index1 index of the last element
+     * @param action action to be performed for each element
+     */
+    public void forEach(int index0, int index1, Consumer<? super E> action) {
+        if (index0 > index1) {
+            return;
+        }
+
+        Node<E> n = node(index0);
+        for (int i = index0; i <= index1; i++) {
+            action.accept(n.value);
+            n = successor(n);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        forEach(0, size() - 1, action);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Node<E> next = root == null ? null : leftmost(root);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E value = next.value;
+                next = successor(next);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Returns an array containing all elements of this tree in order.
+     *
+     * @param array array into which the elements are stored, if it is big
+     *        enough; otherwise, a new array of the same type is allocated
+     * @return an array containing all elements of this tree
+     */
+    @SuppressWarnings("unchecked")
+    public E[] toArray(E[] array) {
+        int size = size();
+        if (array.length < size) {
+            array = (E[]) java.lang.reflect.Array.newInstance(
+                    array.getClass().getComponentType(), size);
+        }
+
+        int i = 0;
+        for (E value : this) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    //
+    // Treap internals
+    //
+
+    /**
+     * Returns the size of the subtree rooted at <tt>n</tt>.
+     *
+     * @param n root of the subtree, may be <tt>null</tt>
+     * @return the size of the subtree
+     */
+    private static int size(Node<?> n) {
+        return n == null ? 0 : n.size;
+    }
+
+    /**
+     * Throws an {@code IndexOutOfBoundsException} if <tt>index</tt> is not in
+     * range <tt>[0, bound)</tt>.
+     *
+     * @param index index to be checked
+     * @param bound exclusive upper bound
+     */
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+        }
+    }
+
+    /**
+     * Detaches the specified node and gives it a fresh random priority.
+     *
+     * @param node node to be reset
+     */
+    private void reset(Node<E> node) {
+        node.left = node.right = node.parent = null;
+        node.size = 1;
+
+        // xorshift32
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        node.priority = seed;
+    }
+
+    /**
+     * Sets the root of this tree.
+     *
+     * @param n the new root
+     */
+    private void setRoot(Node<E> n) {
+        if (n != null) {
+            n.parent = null;
+        }
+        root = n;
+    }
+
+    /**
+     * Recalculates the subtree size of <tt>n</tt> and sets it as the parent of
+     * its children.
+     *
+     * @param n node to be updated
+     */
+    private static <E> void update(Node<E> n) {
+        n.size = 1 + size(n.left) + size(n.right);
+        if (n.left != null) {
+            n.left.parent = n;
+        }
+        if (n.right != null) {
+            n.right.parent = n;
+        }
+    }
+
+    /**
+     * Updates all nodes of the subtree rooted at <tt>n</tt> in post-order.
+     *
+     * @param n root of the subtree
+     */
+    private static <E> void updateAll(Node<E> n) {
+        if (n.left != null) {
+            updateAll(n.left);
+        }
+        if (n.right != null) {
+            updateAll(n.right);
+        }
+        update(n);
+    }
+
+    /**
+     * Merges two treaps into one, where all elements of <tt>a</tt> precede
+     * all elements of <tt>b</tt>.
+     *
+     * @param a the left treap
+     * @param b the right treap
+     * @return root of the merged treap
+     */
+    private static <E> Node<E> merge(Node<E> a, Node<E> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    /**
+     * Splits the treap rooted at <tt>n</tt> so that its first <tt>k</tt>
+     * elements end up in {@link #splitLeft} and the rest in
+     * {@link #splitRight}.
+     *
+     * @param n root of the treap to be split
+     * @param k number of elements in the left part
+     */
+    private void split(Node<E> n, int k) {
+        if (n == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+
+        int leftSize = size(n.left);
+        if (leftSize < k) {
+            split(n.right, k - leftSize - 1);
+            n.right = splitLeft;
+            update(n);
+            splitLeft = n;
+        } else {
+            split(n.left, k);
+            n.left = splitRight;
+            update(n);
+            splitRight = n;
+        }
+    }
+
+    /**
+     * Returns the leftmost node of the subtree rooted at <tt>n</tt>.
+     *
+     * @param n root of the subtree
+     * @return the leftmost node of the subtree
+     */
+    private static <E> Node<E> leftmost(Node<E> n) {
+        while (n.left != null) {
+            n = n.left;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the in-order successor of <tt>n</tt>, or <tt>null</tt> if
+     * <tt>n</tt> is the last node.
+     *
+     * @param n node whose successor is to be returned
+     * @return the successor of the node
+     */
+    private static <E> Node<E> successor(Node<E> n) {
+        if (n.right != null) {
+            return leftmost(n.right);
+        }
+        while (n.parent != null && n == n.parent.right) {
+            n = n.parent;
+        }
+        return n.parent;
+    }
+
+}
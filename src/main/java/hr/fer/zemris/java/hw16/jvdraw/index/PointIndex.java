@@ -0,0 +1,286 @@
+package hr.fer.zemris.java.hw16.jvdraw.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spatial index of items located at integer points, implemented as a
+ * uniform grid of square cells, answering <tt>k</tt>-nearest-neighbour queries
+ * within a search radius.
+ * <p>
+ * A query visits cells in square rings around the cell of the queried point,
+ * from the innermost ring outwards, and stops as soon as no point of the next
+ * ring can be closer than the farthest of the <tt>k</tt> neighbours found so
+ * far, or farther than the search radius. The cost of a query therefore
+ * depends on the density of points around the queried point, and not on the
+ * total number of points in the index.
+ *
+ * @param <E> the type of items held in this index
+ * @author Mario Bobic
+ */
+public class PointIndex<E> {
+
+    /** Logarithm of the cell size. */
+    private static final int CELL_SHIFT = 5;
+    /** Side of a cell in pixels. */
+    private static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    /**
+     * A grid cell holding items and their coordinates in parallel arrays.
+     */
+    private static class Cell {
+        /** Items of this cell. */
+        private Object[] items = new Object[2];
+        /** Coordinates of items, two consecutive values per item. */
+        private int[] points = new int[4];
+        /** Number of items in this cell. */
+        private int size;
+    }
+
+    /** Cells mapped by their packed coordinates. */
+    private final Map<Long, Cell> cells = new HashMap<>();
+    /** Number of items in this index. */
+    private int size;
+
+    /**
+     * Returns the number of items in this index.
+     *
+     * @return the number of items in this index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Inserts the specified <tt>item</tt> located at <tt>(x, y)</tt> into this
+     * index. The same location must be used to remove the item.
+     *
+     * @param item item to be inserted
+     * @param x horizontal coordinate of the item
+     * @param y vertical coordinate of the item
+     */
+    public void insert(E item, int x, int y) {
+        Cell cell = cells.computeIfAbsent(key(x >> CELL_SHIFT, y >> CELL_SHIFT), (k) -> new Cell());
+
+        if (cell.size == cell.items.length) {
+            Object[] items = new Object[cell.size * 2];
+            System.arraycopy(cell.items, 0, items, 0, cell.size);
+            cell.items = items;
+
+            int[] points = new int[cell.size * 4];
+            System.arraycopy(cell.points, 0, points, 0, cell.size * 2);
+            cell.points = points;
+        }
+
+        cell.items[cell.size] = item;
+        cell.points[cell.size * 2] = x;
+        cell.points[cell.size * 2 + 1] = y;
+        cell.size++;
+        size++;
+    }
+
+    /**
+     * Removes the specified <tt>item</tt> that was inserted at <tt>(x, y)</tt>
+     * from this index.
+     *
+     * @param item item to be removed
+     * @param x horizontal coordinate the item was inserted at
+     * @param y vertical coordinate the item was inserted at
+     * @return true if the item was found and removed
+     */
+    public boolean remove(E item, int x, int y) {
+        Long key = key(x >> CELL_SHIFT, y >> CELL_SHIFT);
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            return false;
+        }
+
+        for (int i = 0; i < cell.size; i++) {
+            if (cell.items[i] != item) {
+                continue;
+            }
+
+            int last = --cell.size;
+            cell.items[i] = cell.items[last];
+            cell.items[last] = null;
+            System.arraycopy(cell.points, last * 2, cell.points, i * 2, 2);
+
+            if (cell.size == 0) {
+                cells.remove(key);
+            }
+
+            size--;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes all items from this index.
+     */
+    public void clear() {
+        cells.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the item nearest to the point <tt>(x, y)</tt> that is at most
+     * <tt>radius</tt> pixels away from it, or <tt>null</tt> if there is no
+     * such item.
+     *
+     * @param x horizontal coordinate of the point
+     * @param y vertical coordinate of the point
+     * @param radius maximum distance of the item from the point
+     * @return the nearest item within the radius, or null
+     */
+    public E nearest(int x, int y, int radius) {
+        List<E> nearest = nearest(x, y, 1, radius);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * Returns at most <tt>k</tt> items nearest to the point <tt>(x, y)</tt>
+     * that are at most <tt>radius</tt> pixels away from it, sorted from the
+     * nearest to the farthest.
+     *
+     * @param x horizontal coordinate of the point
+     * @param y vertical coordinate of the point
+     * @param k maximum number of items to be returned
+     * @param radius maximum distance of the items from the point
+     * @return a list of nearest items within the radius
+     * @throws IllegalArgumentException if <tt>k</tt> or <tt>radius</tt> is
+     *         negative
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> nearest(int x, int y, int k, int radius) {
+        if (k < 0 || radius < 0) {
+            throw new IllegalArgumentException("Invalid k or radius: " + k + ", " + radius);
+        }
+
+        if (k == 0 || size == 0) {
+            return new ArrayList<>();
+        }
+        Neighbours neighbours = new Neighbours(k, (long) radius * radius);
+
+        int cx = x >> CELL_SHIFT;
+        int cy = y >> CELL_SHIFT;
+        int rings = (radius >> CELL_SHIFT) + 1;
+
+        if ((2L * rings + 1) * (2L * rings + 1) > cells.size()) {
+            for (Cell cell : cells.values()) {
+                neighbours.offer(cell, x, y);
+            }
+        } else {
+            for (int ring = 0; ring <= rings; ring++) {
+                long gap = (long) Math.max(0, ring - 1) * CELL_SIZE;
+                if (gap * gap > neighbours.bound()) {
+                    break;
+                }
+
+                for (long i = cx - ring; i <= cx + ring; i++) {
+                    for (long j = cy - ring; j <= cy + ring; j++) {
+                        if (i != cx - ring && i != cx + ring && j != cy - ring && j != cy + ring) {
+                            j = cy + ring - 1;
+                            continue;
+                        }
+                        Cell cell = cells.get(key((int) i, (int) j));
+                        if (cell != null) {
+                            neighbours.offer(cell, x, y);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<E> list = new ArrayList<>(neighbours.count);
+        for (int i = 0; i < neighbours.count; i++) {
+            list.add((E) neighbours.items[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Packs the specified cell coordinates into a single key.
+     *
+     * @param cx horizontal cell coordinate
+     * @param cy vertical cell coordinate
+     * @return the key of the cell
+     */
+    private static Long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A bounded collection of the nearest items found so far, kept sorted by
+     * their squared distance from the queried point.
+     */
+    private static class Neighbours {
+        /** Items sorted by distance. */
+        private final Object[] items;
+        /** Squared distances of items. */
+        private final long[] distances;
+        /** Squared maximum distance of an item. */
+        private final long maxDistance;
+        /** Number of items found so far. */
+        private int count;
+
+        /**
+         * Constructs an instance of {@code Neighbours} that keeps at most
+         * <tt>k</tt> items at the squared distance of at most
+         * <tt>maxDistance</tt>.
+         *
+         * @param k maximum number of items
+         * @param maxDistance squared maximum distance of an item
+         */
+        public Neighbours(int k, long maxDistance) {
+            this.items = new Object[k];
+            this.distances = new long[k];
+            this.maxDistance = maxDistance;
+        }
+
+        /**
+         * Returns the squared distance that an item must not exceed to be
+         * accepted.
+         *
+         * @return the squared distance bound for new items
+         */
+        public long bound() {
+            return count < items.length ? maxDistance : distances[count - 1];
+        }
+
+        /**
+         * Offers all items of the specified <tt>cell</tt>, keeping only the
+         * nearest ones to the point <tt>(x, y)</tt>.
+         *
+         * @param cell cell whose items are offered
+         * @param x horizontal coordinate of the point
+         * @param y vertical coordinate of the point
+         */
+        public void offer(Cell cell, int x, int y) {
+            for (int i = 0; i < cell.size; i++) {
+                long dx = (long) cell.points[i * 2] - x;
+                long dy = (long) cell.points[i * 2 + 1] - y;
+                long distance = dx * dx + dy * dy;
+                if (distance > bound() || (count == items.length && distance == bound())) {
+                    continue;
+                }
+
+                int pos = Math.min(count, items.length - 1);
+                while (pos > 0 && distances[pos - 1] > distance) {
+                    items[pos] = items[pos - 1];
+                    distances[pos] = distances[pos - 1];
+                    pos--;
+                }
+                items[pos] = cell.items[i];
+                distances[pos] = distance;
+                if (count < items.length) {
+                    count++;
+                }
+            }
+        }
+    }
+
+}
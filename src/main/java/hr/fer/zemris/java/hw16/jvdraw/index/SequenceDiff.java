@@ -0,0 +1,259 @@
+package hr.fer.zemris.java.hw16.jvdraw.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes the differences between two sequences of hashes as a list of
+ * {@link Hunk hunks}, each replacing a range of the old sequence with a range
+ * of the new one.
+ * <p>
+ * The common prefix and suffix of the sequences are skipped first, so a
+ * sequence that was only appended to, or changed in a single place, is
+ * compared in linear time. The rest is compared with the greedy algorithm of
+ * Myers, which finds a shortest edit script in <tt>O((n + m) d)</tt> time for
+ * <tt>d</tt> edits. If the sequences differ in more than the given number of
+ * edits, the rest is reported as a single hunk instead.
+ *
+ * @author Mario Bobic
+ */
+public class SequenceDiff {
+
+    /**
+     * A difference between two sequences: the <tt>oldCount</tt> elements of
+     * the old sequence from <tt>oldIndex</tt> are replaced with the
+     * <tt>newCount</tt> elements of the new sequence from <tt>newIndex</tt>.
+     * Either count may be zero.
+     */
+    public static class Hunk {
+        /** Index of the first replaced element of the old sequence. */
+        private final int oldIndex;
+        /** Number of replaced elements of the old sequence. */
+        private final int oldCount;
+        /** Index of the first replacing element of the new sequence. */
+        private final int newIndex;
+        /** Number of replacing elements of the new sequence. */
+        private final int newCount;
+
+        /**
+         * Constructs a hunk with the specified ranges.
+         *
+         * @param oldIndex index of the first replaced element
+         * @param oldCount number of replaced elements
+         * @param newIndex index of the first replacing element
+         * @param newCount number of replacing elements
+         */
+        public Hunk(int oldIndex, int oldCount, int newIndex, int newCount) {
+            this.oldIndex = oldIndex;
+            this.oldCount = oldCount;
+            this.newIndex = newIndex;
+            this.newCount = newCount;
+        }
+
+        /**
+         * Returns the index of the first replaced element of the old
+         * sequence.
+         *
+         * @return the index of the first replaced element
+         */
+        public int getOldIndex() {
+            return oldIndex;
+        }
+
+        /**
+         * Returns the number of replaced elements of the old sequence.
+         *
+         * @return the number of replaced elements
+         */
+        public int getOldCount() {
+            return oldCount;
+        }
+
+        /**
+         * Returns the index of the first replacing element of the new
+         * sequence.
+         *
+         * @return the index of the first replacing element
+         */
+        public int getNewIndex() {
+            return newIndex;
+        }
+
+        /**
+         * Returns the number of replacing elements of the new sequence.
+         *
+         * @return the number of replacing elements
+         */
+        public int getNewCount() {
+            return newCount;
+        }
+
+        @Override
+        public String toString() {
+            return "-" + oldIndex + "," + oldCount + " +" + newIndex + "," + newCount;
+        }
+    }
+
+    /**
+     * Disables instantiation.
+     */
+    private SequenceDiff() {
+    }
+
+    /**
+     * Returns the hunks that turn the first <tt>oldLength</tt> hashes of the
+     * <tt>oldHashes</tt> into the first <tt>newLength</tt> hashes of the
+     * <tt>newHashes</tt>, in ascending order of their indices. Hashes are
+     * compared for equality only.
+     *
+     * @param oldHashes hashes of the old sequence
+     * @param oldLength length of the old sequence
+     * @param newHashes hashes of the new sequence
+     * @param newLength length of the new sequence
+     * @param maxEdits maximum number of inserted and removed elements that
+     *        are looked for one by one
+     * @return hunks of differences, empty if the sequences are equal
+     */
+    public static List<Hunk> diff(long[] oldHashes, int oldLength, long[] newHashes, int newLength, int maxEdits) {
+        int prefix = 0;
+        while (prefix < oldLength && prefix < newLength && oldHashes[prefix] == newHashes[prefix]) {
+            prefix++;
+        }
+
+        int oldEnd = oldLength;
+        int newEnd = newLength;
+        while (oldEnd > prefix && newEnd > prefix && oldHashes[oldEnd - 1] == newHashes[newEnd - 1]) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        if (prefix == oldEnd && prefix == newEnd) {
+            return Collections.emptyList();
+        }
+        if (prefix == oldEnd || prefix == newEnd) {
+            return Collections.singletonList(new Hunk(prefix, oldEnd - prefix, prefix, newEnd - prefix));
+        }
+
+        List<Hunk> hunks = myers(oldHashes, prefix, oldEnd, newHashes, prefix, newEnd, maxEdits);
+        if (hunks == null) {
+            return Collections.singletonList(new Hunk(prefix, oldEnd - prefix, prefix, newEnd - prefix));
+        }
+        return hunks;
+    }
+
+    /**
+     * Finds a shortest edit script between the specified ranges with the
+     * greedy algorithm of Myers and returns it as hunks, or <tt>null</tt> if
+     * it has more than <tt>maxEdits</tt> edits.
+     *
+     * @param a hashes of the old sequence
+     * @param aStart start of the old range, inclusive
+     * @param aEnd end of the old range, exclusive
+     * @param b hashes of the new sequence
+     * @param bStart start of the new range, inclusive
+     * @param bEnd end of the new range, exclusive
+     * @param maxEdits maximum number of edits
+     * @return hunks of the edit script, or null
+     */
+    private static List<Hunk> myers(long[] a, int aStart, int aEnd, long[] b, int bStart, int bEnd, int maxEdits) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int max = (int) Math.min((long) n + m, maxEdits);
+
+        // v[offset + k] is the furthest x reached on diagonal k
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+
+        for (int d = 0; d <= max; d++) {
+            trace.add(v.clone());
+
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+
+                while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+
+                if (x >= n && y >= m) {
+                    return backtrack(trace, offset, n, m, aStart, bStart);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Walks the edit script found by {@link #myers} back from its end and
+     * collects consecutive edits into hunks.
+     *
+     * @param trace diagonals reached before each round of the search
+     * @param offset offset of diagonal 0 in the diagonal arrays
+     * @param n length of the old range
+     * @param m length of the new range
+     * @param aStart start of the old range
+     * @param bStart start of the new range
+     * @return hunks of the edit script, in ascending order
+     */
+    private static List<Hunk> backtrack(List<int[]> trace, int offset, int n, int m, int aStart, int bStart) {
+        List<Hunk> hunks = new ArrayList<>();
+
+        int x = n;
+        int y = m;
+        // Bounds of the hunk being collected, its start being the current point
+        boolean open = false;
+        int aEnd = 0;
+        int bEnd = 0;
+
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+
+            int prevK;
+            if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = d == 0 ? 0 : v[offset + prevK];
+            int prevY = d == 0 ? 0 : prevX - prevK;
+
+            if (x > prevX && y > prevY && open) {
+                hunks.add(new Hunk(aStart + x, aEnd - x, bStart + y, bEnd - y));
+                open = false;
+            }
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+            }
+
+            if (d > 0) {
+                if (!open) {
+                    open = true;
+                    aEnd = x;
+                    bEnd = y;
+                }
+                x = prevX;
+                y = prevY;
+            }
+        }
+
+        if (open) {
+            hunks.add(new Hunk(aStart + x, aEnd - x, bStart + y, bEnd - y));
+        }
+
+        Collections.reverse(hunks);
+        return hunks;
+    }
+
+}
@@ -0,0 +1,254 @@
+package hr.fer.zemris.java.hw16.jvdraw.index;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A spatial index of items with axis-aligned bounding boxes, implemented as a
+ * hierarchy of loose uniform grids.
+ * <p>
+ * Level <tt>l</tt> of the hierarchy is a grid of square cells whose side is
+ * <tt>32 * 2<sup>l</sup></tt> pixels. Every item is stored in exactly one cell:
+ * the cell that contains the top-left corner of its bounding box, on the
+ * finest level whose cells are at least as large as the item. An item can
+ * therefore reach at most one cell to the right and one cell below its own
+ * cell, so a query only has to look at the cells overlapping the queried
+ * region grown by one cell. Since each item is stored once, insertion and
+ * removal are cheap and queries never report duplicates.
+ * <p>
+ * Bounds are inclusive on all edges; an item that is a single point has equal
+ * minimum and maximum coordinates.
+ *
+ * @param <E> the type of items held in this index
+ * @author Mario Bobic
+ */
+public class SpatialIndex<E> {
+
+    /** Logarithm of the cell size of the finest level. */
+    private static final int BASE_SHIFT = 5;
+    /** Number of levels, the coarsest having cells that span the int range. */
+    private static final int LEVELS = 32 - BASE_SHIFT;
+
+    /**
+     * A grid cell holding items and their bounds in parallel arrays.
+     */
+    private static class Cell {
+        /** Items of this cell. */
+        private Object[] items = new Object[2];
+        /** Bounds of items, four consecutive values per item. */
+        private int[] bounds = new int[8];
+        /** Number of items in this cell. */
+        private int size;
+    }
+
+    /** Cells of each level, mapped by their packed coordinates. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Map<Long, Cell>[] levels = new Map[LEVELS];
+    /** Number of items on each level. */
+    private final int[] levelSizes = new int[LEVELS];
+    /** Number of items in this index. */
+    private int size;
+
+    /**
+     * Returns the number of items in this index.
+     *
+     * @return the number of items in this index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Inserts the specified <tt>item</tt> with the specified bounds into this
+     * index. The same bounds must be used to remove the item.
+     *
+     * @param item item to be inserted
+     * @param minX minimum horizontal coordinate of the item
+     * @param minY minimum vertical coordinate of the item
+     * @param maxX maximum horizontal coordinate of the item
+     * @param maxY maximum vertical coordinate of the item
+     */
+    public void insert(E item, int minX, int minY, int maxX, int maxY) {
+        int level = levelOf(minX, minY, maxX, maxY);
+        int shift = BASE_SHIFT + level;
+
+        if (levels[level] == null) {
+            levels[level] = new HashMap<>();
+        }
+        Cell cell = levels[level].computeIfAbsent(key(minX >> shift, minY >> shift), (k) -> new Cell());
+
+        if (cell.size == cell.items.length) {
+            Object[] items = new Object[cell.size * 2];
+            System.arraycopy(cell.items, 0, items, 0, cell.size);
+            cell.items = items;
+
+            int[] bounds = new int[cell.size * 8];
+            System.arraycopy(cell.bounds, 0, bounds, 0, cell.size * 4);
+            cell.bounds = bounds;
+        }
+
+        int b = cell.size * 4;
+        cell.items[cell.size] = item;
+        cell.bounds[b] = minX;
+        cell.bounds[b + 1] = minY;
+        cell.bounds[b + 2] = maxX;
+        cell.bounds[b + 3] = maxY;
+        cell.size++;
+
+        levelSizes[level]++;
+        size++;
+    }
+
+    /**
+     * Removes the specified <tt>item</tt> that was inserted with the specified
+     * bounds from this index.
+     *
+     * @param item item to be removed
+     * @param minX minimum horizontal coordinate the item was inserted with
+     * @param minY minimum vertical coordinate the item was inserted with
+     * @param maxX maximum horizontal coordinate the item was inserted with
+     * @param maxY maximum vertical coordinate the item was inserted with
+     * @return true if the item was found and removed
+     */
+    public boolean remove(E item, int minX, int minY, int maxX, int maxY) {
+        int level = levelOf(minX, minY, maxX, maxY);
+        int shift = BASE_SHIFT + level;
+        if (levels[level] == null) {
+            return false;
+        }
+
+        Long key = key(minX >> shift, minY >> shift);
+        Cell cell = levels[level].get(key);
+        if (cell == null) {
+            return false;
+        }
+
+        for (int i = 0; i < cell.size; i++) {
+            if (cell.items[i] != item) {
+                continue;
+            }
+
+            int last = --cell.size;
+            cell.items[i] = cell.items[last];
+            cell.items[last] = null;
+            System.arraycopy(cell.bounds, last * 4, cell.bounds, i * 4, 4);
+
+            if (cell.size == 0) {
+                levels[level].remove(key);
+            }
+
+            levelSizes[level]--;
+            size--;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes all items from this index.
+     */
+    public void clear() {
+        for (int level = 0; level < LEVELS; level++) {
+            levels[level] = null;
+            levelSizes[level] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Performs the given <tt>action</tt> for each item whose bounds intersect
+     * the specified region. Items are reported in no particular order.
+     *
+     * @param minX minimum horizontal coordinate of the region
+     * @param minY minimum vertical coordinate of the region
+     * @param maxX maximum horizontal coordinate of the region
+     * @param maxY maximum vertical coordinate of the region
+     * @param action action to be performed for each item
+     */
+    public void query(int minX, int minY, int maxX, int maxY, Consumer<? super E> action) {
+        for (int level = 0; level < LEVELS; level++) {
+            if (levelSizes[level] == 0) {
+                continue;
+            }
+
+            Map<Long, Cell> cells = levels[level];
+            int shift = BASE_SHIFT + level;
+            long cx0 = (long) (minX >> shift) - 1;
+            long cy0 = (long) (minY >> shift) - 1;
+            long cx1 = maxX >> shift;
+            long cy1 = maxY >> shift;
+
+            if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > cells.size()) {
+                for (Cell cell : cells.values()) {
+                    query(cell, minX, minY, maxX, maxY, action);
+                }
+                continue;
+            }
+
+            for (long cx = cx0; cx <= cx1; cx++) {
+                for (long cy = cy0; cy <= cy1; cy++) {
+                    Cell cell = cells.get(key((int) cx, (int) cy));
+                    if (cell != null) {
+                        query(cell, minX, minY, maxX, maxY, action);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs the given <tt>action</tt> for each item of the specified
+     * <tt>cell</tt> whose bounds intersect the specified region.
+     *
+     * @param cell cell to be searched
+     * @param minX minimum horizontal coordinate of the region
+     * @param minY minimum vertical coordinate of the region
+     * @param maxX maximum horizontal coordinate of the region
+     * @param maxY maximum vertical coordinate of the region
+     * @param action action to be performed for each item
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> void query(Cell cell, int minX, int minY, int maxX, int maxY, Consumer<? super E> action) {
+        int[] bounds = cell.bounds;
+        for (int i = 0, b = 0; i < cell.size; i++, b += 4) {
+            if (bounds[b] <= maxX && bounds[b + 2] >= minX
+                    && bounds[b + 1] <= maxY && bounds[b + 3] >= minY) {
+                action.accept((E) cell.items[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the finest level whose cells are at least as large as the
+     * specified bounds.
+     *
+     * @param minX minimum horizontal coordinate
+     * @param minY minimum vertical coordinate
+     * @param maxX maximum horizontal coordinate
+     * @param maxY maximum vertical coordinate
+     * @return the level for the specified bounds
+     */
+    private static int levelOf(int minX, int minY, int maxX, int maxY) {
+        long extent = Math.max((long) maxX - minX, (long) maxY - minY);
+
+        int level = 0;
+        while (level < LEVELS - 1 && (1L << (BASE_SHIFT + level)) < extent) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Packs the specified cell coordinates into a single key.
+     *
+     * @param cx horizontal cell coordinate
+     * @param cy vertical cell coordinate
+     * @return the key of the cell
+     */
+    private static Long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+}
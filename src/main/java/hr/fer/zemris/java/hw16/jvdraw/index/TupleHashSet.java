@@ -0,0 +1,219 @@
+package hr.fer.zemris.java.hw16.jvdraw.index;
+
+import java.util.Arrays;
+
+/**
+ * A set of tuples of <tt>int</tt> values, such as the type and the arguments
+ * of a shape, implemented as an open-addressing hash table with linear
+ * probing. The hash of every tuple is given by the caller, and two tuples are
+ * the same element only if they are equal value by value, so tuples whose
+ * hashes collide are still told apart.
+ * <p>
+ * The values of the tuples are copied into a single array and the table keeps
+ * only the hash and the position of every tuple, side by side so a probe
+ * reads a single cache line, so a set of millions of tuples takes only a few
+ * bytes more than their values. The table has a capacity that is a power of
+ * two and is doubled before it gets more than half full. Hashes should be
+ * well distributed, such as those of
+ * {@link hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType#hash
+ * ShapeType.hash}, since the slot of a tuple is taken from the lower bits of
+ * its hash.
+ *
+ * @author Mario Bobic
+ */
+public class TupleHashSet {
+
+    /** Smallest capacity of the table. */
+    private static final int MIN_CAPACITY = 16;
+    /** Largest capacity of the table. */
+    private static final int MAX_CAPACITY = 1 << 29;
+    /** Largest length of the array of values. */
+    private static final int MAX_VALUES = Integer.MAX_VALUE - 8;
+
+    /**
+     * Table of slots, each a hash followed by the position of its tuple plus
+     * one, zero marking an empty slot.
+     */
+    private long[] table;
+    /** Lengths and values of the tuples, each length followed by its values. */
+    private int[] values;
+    /** Number of used elements of the array of values. */
+    private int valueCount;
+    /** Number of tuples in this set. */
+    private int count;
+
+    /**
+     * Constructs an empty {@code TupleHashSet} with the default capacity.
+     */
+    public TupleHashSet() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Constructs an empty {@code TupleHashSet} with a capacity enough for the
+     * specified number of tuples.
+     *
+     * @param expectedSize number of tuples the set is expected to hold
+     * @throws IllegalArgumentException if <tt>expectedSize</tt> is negative
+     */
+    public TupleHashSet(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative: " + expectedSize);
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity / 2 < expectedSize && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        table = new long[2 * capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * Returns the number of tuples in this set.
+     *
+     * @return the number of tuples in this set
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this set contains the tuple of the first
+     * <tt>length</tt> values of the specified array.
+     *
+     * @param hash hash of the tuple
+     * @param tuple array of the values of the tuple
+     * @param length number of values of the tuple
+     * @return true if this set contains the tuple
+     */
+    public boolean contains(long hash, int[] tuple, int length) {
+        int mask = table.length - 2;
+        for (int i = (int) (hash << 1) & mask; table[i + 1] != 0; i = (i + 2) & mask) {
+            if (table[i] == hash && equals((int) table[i + 1] - 1, tuple, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the tuple of the first <tt>length</tt> values of the specified
+     * array to this set, unless it is already present. The values are copied,
+     * so the array may be reused afterwards.
+     *
+     * @param hash hash of the tuple
+     * @param tuple array of the values of the tuple
+     * @param length number of values of the tuple
+     * @return true if the tuple was added, false if it was already present
+     * @throws IllegalStateException if the set is full
+     */
+    public boolean add(long hash, int[] tuple, int length) {
+        if (count >= table.length / 4) {
+            grow();
+        }
+
+        int mask = table.length - 2;
+        int i = (int) (hash << 1) & mask;
+        while (table[i + 1] != 0) {
+            if (table[i] == hash && equals((int) table[i + 1] - 1, tuple, length)) {
+                return false;
+            }
+            i = (i + 2) & mask;
+        }
+
+        int position = store(tuple, length);
+        table[i] = hash;
+        table[i + 1] = position + 1;
+        count++;
+        return true;
+    }
+
+    /**
+     * Removes all tuples from this set, keeping its capacity.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+        valueCount = 0;
+        count = 0;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the tuple stored at the specified
+     * <tt>position</tt> equals the tuple of the first <tt>length</tt> values
+     * of the specified array.
+     *
+     * @param position position of the stored tuple
+     * @param tuple array of the values of the other tuple
+     * @param length number of values of the other tuple
+     * @return true if the tuples are equal
+     */
+    private boolean equals(int position, int[] tuple, int length) {
+        if (values[position] != length) {
+            return false;
+        }
+        for (int j = 0; j < length; j++) {
+            if (values[position + 1 + j] != tuple[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the length and the values of the specified tuple to the array
+     * of values, growing the array if needed.
+     *
+     * @param tuple array of the values of the tuple
+     * @param length number of values of the tuple
+     * @return the position of the stored tuple
+     * @throws IllegalStateException if the array of values is full
+     */
+    private int store(int[] tuple, int length) {
+        int needed = valueCount + 1 + length;
+        if (needed < 0 || needed > MAX_VALUES) {
+            throw new IllegalStateException("Set is full.");
+        }
+        if (needed > values.length) {
+            long capacity = Math.max((long) values.length * 2, needed);
+            values = Arrays.copyOf(values, (int) Math.min(capacity, MAX_VALUES));
+        }
+
+        int position = valueCount;
+        values[position] = length;
+        System.arraycopy(tuple, 0, values, position + 1, length);
+        valueCount = needed;
+        return position;
+    }
+
+    /**
+     * Doubles the capacity of the table and reinserts its tuples. A table at
+     * its largest capacity is filled up instead, leaving one empty slot that
+     * ends every probe.
+     *
+     * @throws IllegalStateException if the table is full
+     */
+    private void grow() {
+        int capacity = table.length / 2;
+        if (capacity == MAX_CAPACITY) {
+            if (count < capacity - 1) {
+                return;
+            }
+            throw new IllegalStateException("Set is full.");
+        }
+
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 2;
+        for (int j = 0; j < old.length; j += 2) {
+            if (old[j + 1] != 0) {
+                int i = (int) (old[j] << 1) & mask;
+                while (table[i + 1] != 0) {
+                    i = (i + 2) & mask;
+                }
+                table[i] = old[j];
+                table[i + 1] = old[j + 1];
+            }
+        }
+    }
+
+}
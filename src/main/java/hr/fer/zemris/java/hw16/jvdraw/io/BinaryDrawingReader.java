@@ -0,0 +1,93 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+
+/**
+ * A reader of <tt>.jvdb</tt> documents, the compact binary drawing format
+ * described in {@link BinaryDrawingWriter}. Blocks are read one at a time and
+ * their checksums are verified before they are decoded, and the shapes of
+ * every block are handed over as one batch.
+ *
+ * @author Mario Bobic
+ */
+public class BinaryDrawingReader {
+
+    /**
+     * Disables instantiation.
+     */
+    private BinaryDrawingReader() {
+    }
+
+    /**
+     * Reads the <tt>.jvdb</tt> document at the specified <tt>file</tt> and
+     * passes its shapes to the specified <tt>consumer</tt>, one batch per
+     * block, in the order they appear in the document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted or not a binary document
+     */
+    public static void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            read(input, consumer);
+        }
+    }
+
+    /**
+     * Reads a <tt>.jvdb</tt> document from the specified <tt>input</tt>
+     * stream and passes its shapes to the specified <tt>consumer</tt>, one
+     * batch per block, in the order they appear in the document. Every batch
+     * is a new list, so the consumer may keep it. The stream is not closed by
+     * this method.
+     *
+     * @param input input stream of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted or not a binary document
+     */
+    public static void read(InputStream input, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        try {
+            read(new DataInputStream(new BufferedInputStream(input)), consumer);
+        } catch (EOFException e) {
+            throw new EOFException("Unexpected end of binary drawing.");
+        }
+    }
+
+    /**
+     * Reads a <tt>.jvdb</tt> document from the specified data input stream.
+     *
+     * @param in input stream of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted or not a binary document
+     */
+    private static void read(DataInputStream in, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        byte[] magic = new byte[BinaryDrawingWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, BinaryDrawingWriter.MAGIC)) {
+            throw new IOException("Not a binary drawing.");
+        }
+        int version = in.readUnsignedByte();
+        if (version > BinaryDrawingWriter.VERSION) {
+            throw new IOException("Unsupported binary drawing version: " + version);
+        }
+
+        BlockDecoder decoder = new BlockDecoder(false);
+        for (List<GeometricalObject> shapes; (shapes = decoder.read(in)) != null; ) {
+            consumer.accept(shapes);
+        }
+    }
+
+}
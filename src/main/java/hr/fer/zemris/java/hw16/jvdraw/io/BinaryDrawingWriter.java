@@ -0,0 +1,89 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * A writer of <tt>.jvdb</tt> documents, the compact binary drawing format.
+ * <p>
+ * A document starts with the {@link #MAGIC} bytes and a {@link #VERSION}
+ * byte, which are followed by blocks of up to {@link #BLOCK_SIZE} shapes. A
+ * block consists of the number of shapes, the length of the payload in bytes,
+ * the payload and the CRC-32 of the payload as a big-endian integer. The
+ * document ends with a block of zero shapes, which has neither a length nor a
+ * payload.
+ * <p>
+ * The payload holds one record per shape: a byte with the
+ * {@link ShapeType#ordinal() ordinal} of the shape type, followed by the
+ * arguments of the shape. The first two arguments are a point which is
+ * stored as a difference to the point of the previous shape, the end point
+ * of a line is stored as a difference to its start point, and other
+ * geometric arguments are stored as they are. Colors are stored as indices
+ * to a palette; a color that is not yet in the palette is stored as the
+ * current size of the palette followed by its red, green and blue bytes, and
+ * is added to the palette. Both the previous point and the palette are
+ * reset at the start of every block, so every block can be decoded on its
+ * own.
+ * <p>
+ * All numbers other than color components and the CRC are zig-zag encoded
+ * variable length integers, seven bits per byte with the lowest bits first.
+ * Counts and lengths are never negative and are therefore not zig-zag
+ * encoded.
+ *
+ * @author Mario Bobic
+ */
+public class BinaryDrawingWriter implements DrawingWriter {
+
+    /** Bytes that every binary document starts with. */
+    public static final byte[] MAGIC = {'J', 'V', 'D', 'B'};
+    /** Version of the format written by this writer. */
+    public static final int VERSION = 1;
+    /** Maximum number of shapes in a block. */
+    public static final int BLOCK_SIZE = DrawingReader.DEFAULT_BATCH_SIZE;
+
+    /** Output stream of the document. */
+    private final DataOutputStream out;
+    /** Encoder of the current block. */
+    private final BlockEncoder encoder = new BlockEncoder(false);
+
+    /**
+     * Constructs an instance of {@code BinaryDrawingWriter} that writes to
+     * the specified <tt>output</tt> stream, and writes the header.
+     *
+     * @param output output stream of the document
+     * @throws IOException if an I/O error occurs
+     */
+    public BinaryDrawingWriter(OutputStream output) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(output));
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    @Override
+    public void write(GeometricalObject shape) throws IOException {
+        encoder.add(shape, 0);
+        if (encoder.size() == BLOCK_SIZE) {
+            encoder.writeTo(out);
+        }
+    }
+
+    /**
+     * Writes the current block, if it is not empty, and the end of the
+     * document, and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            encoder.writeTo(out);
+            BlockEncoder.writeEnd(out);
+        } finally {
+            out.close();
+        }
+    }
+
+}
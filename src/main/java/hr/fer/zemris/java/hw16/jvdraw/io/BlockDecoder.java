@@ -0,0 +1,233 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * A decoder of shape blocks written by a {@link BlockEncoder}. Blocks are
+ * read one at a time and their checksums are verified before they are
+ * decoded. The decoder keeps its buffers between blocks.
+ *
+ * @author Mario Bobic
+ */
+class BlockDecoder {
+
+    /** All shape types, indexed by their tags. */
+    private static final ShapeType[] TYPES = ShapeType.values();
+
+    /** Indicates whether records are prefixed with indices. */
+    private final boolean indexed;
+    /** Checksum of block payloads. */
+    private final CRC32 crc = new CRC32();
+    /** Number of blocks read so far. */
+    private int blocks;
+
+    /** Payload of the current block. */
+    private byte[] payload = new byte[BinaryDrawingWriter.BLOCK_SIZE * 16];
+    /** Length of the payload. */
+    private int length;
+    /** Position in the payload. */
+    private int pos;
+
+    /** Colors of the palette as red, green and blue triples. */
+    private int[] palette = new int[3 * 256];
+    /** Drawing order indices of the shapes of the last block. */
+    private int[] indices = new int[BinaryDrawingWriter.BLOCK_SIZE];
+    /** Arguments of the shape being decoded, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code BlockDecoder}.
+     *
+     * @param indexed true if records are prefixed with indices
+     */
+    public BlockDecoder(boolean indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * Returns the drawing order index of the shape at the specified position
+     * of the last decoded block. Valid only for indexed decoders.
+     *
+     * @param i position of the shape in the block
+     * @return the drawing order index of the shape
+     */
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    /**
+     * Reads and decodes the next block from the specified stream and returns
+     * its shapes as a new list, or returns <tt>null</tt> if the stream is at
+     * the end of blocks.
+     *
+     * @param in stream to be read from
+     * @return shapes of the block, or null at the end of blocks
+     * @throws IOException if an I/O error occurs or if the block is corrupted
+     */
+    public List<GeometricalObject> read(DataInputStream in) throws IOException {
+        int count = readVarint(in);
+        if (count == 0) {
+            return null;
+        }
+        blocks++;
+
+        length = readVarint(in);
+        if (count < 0 || length < 0) {
+            throw new IOException("Invalid block length in binary drawing.");
+        }
+        // Checked before the payload is allocated for the declared length
+        if (count > BlockEncoder.MAX_COUNT || length > count * BlockEncoder.MAX_RECORD_SIZE) {
+            throw new IOException("Block " + blocks + " is corrupted.");
+        }
+        if (payload.length < length) {
+            payload = new byte[length];
+        }
+        in.readFully(payload, 0, length);
+
+        crc.reset();
+        crc.update(payload, 0, length);
+        if (in.readInt() != (int) crc.getValue()) {
+            throw new IOException("Block " + blocks + " is corrupted.");
+        }
+
+        return decode(count);
+    }
+
+    /**
+     * Decodes <tt>count</tt> shapes from the payload.
+     *
+     * @param count number of shapes in the block
+     * @return decoded shapes
+     * @throws IOException if the payload is invalid
+     */
+    private List<GeometricalObject> decode(int count) throws IOException {
+        pos = 0;
+        if (indexed && indices.length < count) {
+            indices = new int[count];
+        }
+
+        List<GeometricalObject> shapes = new ArrayList<>(count);
+        int paletteSize = 0;
+        int prevX = 0;
+        int prevY = 0;
+        int prevIndex = 0;
+
+        for (int n = 0; n < count; n++) {
+            if (indexed) {
+                indices[n] = prevIndex += nextUnsigned();
+            }
+
+            int tag = nextByte();
+            if (tag >= TYPES.length) {
+                throw new IOException("Unknown shape type in binary drawing: " + tag);
+            }
+            ShapeType type = TYPES[tag];
+            int geometry = type.getArgumentCount() - 3 * type.getColorCount();
+
+            args[0] = prevX += nextSigned();
+            args[1] = prevY += nextSigned();
+            for (int i = 2; i < geometry; i++) {
+                args[i] = type == ShapeType.LINE ? args[i - 2] + nextSigned() : nextSigned();
+            }
+
+            for (int i = geometry; i < type.getArgumentCount(); i += 3) {
+                int index = nextUnsigned();
+                if (index == paletteSize) {
+                    if (palette.length < 3 * (paletteSize + 1)) {
+                        palette = Arrays.copyOf(palette, palette.length * 2);
+                    }
+                    palette[3 * index] = nextByte();
+                    palette[3 * index + 1] = nextByte();
+                    palette[3 * index + 2] = nextByte();
+                    paletteSize++;
+                } else if (index > paletteSize) {
+                    throw new IOException("Invalid color in binary drawing.");
+                }
+                args[i] = palette[3 * index];
+                args[i + 1] = palette[3 * index + 1];
+                args[i + 2] = palette[3 * index + 2];
+            }
+
+            shapes.add(type.create(args));
+        }
+
+        if (pos != length) {
+            throw new IOException("Invalid block length in binary drawing.");
+        }
+        return shapes;
+    }
+
+    /**
+     * Returns the next byte of the payload as an unsigned value.
+     *
+     * @return the next byte
+     * @throws IOException if there are no more bytes in the payload
+     */
+    private int nextByte() throws IOException {
+        if (pos >= length) {
+            throw new IOException("Invalid block length in binary drawing.");
+        }
+        return payload[pos++] & 0xFF;
+    }
+
+    /**
+     * Returns the next zig-zag encoded variable length integer.
+     *
+     * @return the next signed integer
+     * @throws IOException if the integer is invalid
+     */
+    private int nextSigned() throws IOException {
+        int value = nextUnsigned();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Returns the next unsigned variable length integer.
+     *
+     * @return the next unsigned integer
+     * @throws IOException if the integer is invalid
+     */
+    private int nextUnsigned() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = nextByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid number in binary drawing.");
+    }
+
+    /**
+     * Reads an unsigned variable length integer from the specified stream.
+     *
+     * @param in stream to be read from
+     * @return the read integer
+     * @throws IOException if an I/O error occurs or if the integer is invalid
+     */
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid number in binary drawing.");
+    }
+
+}
@@ -0,0 +1,254 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * An encoder of shape blocks, the building blocks of the binary formats
+ * described in {@link BinaryDrawingWriter}. Shapes are encoded into the
+ * payload of the current block as they are added, and the block is written
+ * out on demand, after which a new block is started.
+ * <p>
+ * An indexed encoder additionally prefixes every record with the drawing
+ * order index of the shape, stored as a difference to the index of the
+ * previous shape of the block. Indices within a block must be increasing.
+ *
+ * @author Mario Bobic
+ */
+class BlockEncoder {
+
+    /** Largest number of shapes in a block. */
+    static final int MAX_COUNT = Math.max(BinaryDrawingWriter.BLOCK_SIZE, PagedDrawingWriter.PAGE_SIZE);
+    /**
+     * Largest size of the record of a shape in bytes, that of a shape with
+     * an index, the largest geometry and colors new to the palette.
+     */
+    static final int MAX_RECORD_SIZE = 6 + 5 * ShapeType.MAX_ARGUMENTS;
+
+    /** Capacity of the palette table, above twice the most colors in a block. */
+    private static final int PALETTE_CAPACITY = 1 << 15;
+
+    /** Indicates whether records are prefixed with indices. */
+    private final boolean indexed;
+    /** Checksum of block payloads. */
+    private final CRC32 crc = new CRC32();
+
+    /** Payload of the current block. */
+    private byte[] payload = new byte[BinaryDrawingWriter.BLOCK_SIZE * 16];
+    /** Length of the payload. */
+    private int length;
+    /** Number of shapes in the current block. */
+    private int count;
+
+    /** Colors of the palette plus one, in an open addressing table. */
+    private final int[] paletteKeys = new int[PALETTE_CAPACITY];
+    /** Palette indices of the colors in the table. */
+    private final int[] paletteIndices = new int[PALETTE_CAPACITY];
+    /** Number of colors in the palette. */
+    private int paletteSize;
+
+    /** Point of the previous shape. */
+    private int prevX, prevY;
+    /** Drawing order index of the previous shape. */
+    private int prevIndex;
+    /** Arguments of the shape being encoded, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code BlockEncoder}.
+     *
+     * @param indexed true if records are to be prefixed with indices
+     */
+    public BlockEncoder(boolean indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * Returns the number of shapes in the current block.
+     *
+     * @return the number of shapes in the current block
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Encodes the specified <tt>shape</tt> into the current block. The
+     * <tt>index</tt> is ignored if this encoder is not indexed.
+     *
+     * @param shape shape to be encoded
+     * @param index drawing order index of the shape
+     * @throws IllegalArgumentException if the index is not greater than the
+     *         index of the previous shape of the block
+     * @throws IllegalStateException if the block already has
+     *         {@link #MAX_COUNT} shapes
+     */
+    public void add(GeometricalObject shape, int index) {
+        if (count == MAX_COUNT) {
+            throw new IllegalStateException("Block is full.");
+        }
+        ShapeType type = shape.getShapeType();
+        type.getArguments(shape, args);
+
+        int geometry = type.getArgumentCount() - 3 * type.getColorCount();
+        ensureCapacity(6 + 5 * geometry + 8 * type.getColorCount());
+
+        if (indexed) {
+            if (count > 0 && index <= prevIndex) {
+                throw new IllegalArgumentException("Indices of a block must be increasing: " + index);
+            }
+            putUnsigned(index - prevIndex);
+            prevIndex = index;
+        }
+
+        payload[length++] = (byte) type.ordinal();
+        putSigned(args[0] - prevX);
+        putSigned(args[1] - prevY);
+        prevX = args[0];
+        prevY = args[1];
+
+        for (int i = 2; i < geometry; i++) {
+            // The end point of a line is near its start point
+            putSigned(type == ShapeType.LINE ? args[i] - args[i - 2] : args[i]);
+        }
+        for (int i = geometry; i < type.getArgumentCount(); i += 3) {
+            putColor(args[i], args[i + 1], args[i + 2]);
+        }
+
+        count++;
+    }
+
+    /**
+     * Writes the current block to the specified stream, if it is not empty,
+     * and starts a new block.
+     *
+     * @param out stream to be written to
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs
+     */
+    public int writeTo(DataOutputStream out) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+
+        crc.reset();
+        crc.update(payload, 0, length);
+
+        int written = putVarint(out, count) + putVarint(out, length) + length + Integer.BYTES;
+        out.write(payload, 0, length);
+        out.writeInt((int) crc.getValue());
+
+        length = 0;
+        count = 0;
+        prevX = 0;
+        prevY = 0;
+        prevIndex = 0;
+        Arrays.fill(paletteKeys, 0);
+        paletteSize = 0;
+
+        return written;
+    }
+
+    /**
+     * Writes the block of zero shapes that marks the end of blocks.
+     *
+     * @param out stream to be written to
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs
+     */
+    public static int writeEnd(OutputStream out) throws IOException {
+        return putVarint(out, 0);
+    }
+
+    /**
+     * Puts the palette index of the specified color into the payload, and
+     * the color itself if it is new to the palette.
+     *
+     * @param r red component
+     * @param g green component
+     * @param b blue component
+     */
+    private void putColor(int r, int g, int b) {
+        int key = (r << 16 | g << 8 | b) + 1;
+        int mask = PALETTE_CAPACITY - 1;
+
+        int slot = (key * 0x9E3779B9) >>> 16 & mask;
+        while (paletteKeys[slot] != 0) {
+            if (paletteKeys[slot] == key) {
+                putUnsigned(paletteIndices[slot]);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        paletteKeys[slot] = key;
+        paletteIndices[slot] = paletteSize;
+        putUnsigned(paletteSize++);
+        payload[length++] = (byte) r;
+        payload[length++] = (byte) g;
+        payload[length++] = (byte) b;
+    }
+
+    /**
+     * Puts the specified value into the payload as a zig-zag encoded
+     * variable length integer.
+     *
+     * @param value value to be put
+     */
+    private void putSigned(int value) {
+        putUnsigned((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Puts the specified value into the payload as an unsigned variable
+     * length integer.
+     *
+     * @param value value to be put
+     */
+    private void putUnsigned(int value) {
+        while ((value & ~0x7F) != 0) {
+            payload[length++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        payload[length++] = (byte) value;
+    }
+
+    /**
+     * Writes the specified value to the specified stream as an unsigned
+     * variable length integer.
+     *
+     * @param out stream to be written to
+     * @param value value to be written
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs
+     */
+    private static int putVarint(OutputStream out, int value) throws IOException {
+        int written = 1;
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+            written++;
+        }
+        out.write(value);
+        return written;
+    }
+
+    /**
+     * Grows the payload, if needed, so that it can take the specified number
+     * of additional bytes.
+     *
+     * @param additional number of bytes to be added
+     */
+    private void ensureCapacity(int additional) {
+        if (length + additional > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payload.length * 2, length + additional));
+        }
+    }
+
+}
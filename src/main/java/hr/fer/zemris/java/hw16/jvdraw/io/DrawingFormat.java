@@ -0,0 +1,645 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import hr.fer.zemris.java.hw16.jvdraw.components.JDrawingCanvasModel;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+
+/**
+ * Formats in which a drawing can be stored. The format of an existing
+ * document is {@link #detect(Path) detected} from its first bytes, while the
+ * format of a document that is to be written is
+ * {@link #forPath(Path) determined} by its extension.
+ * <p>
+ * A document in any format may be compressed with gzip. Compressed documents
+ * are recognized by the gzip magic bytes when read, and are written when the
+ * path ends with the {@link #COMPRESSED_EXTENSION}, for example
+ * <tt>drawing.jvd.gz</tt>. Compressed documents are streamed through the
+ * compressor, so they are never held in memory as a whole. The only exception
+ * is the {@link #PAGED} format, which can not be compressed.
+ *
+ * @author Mario Bobic
+ */
+public enum DrawingFormat {
+
+    /** The text format, one serialized shape per line. */
+    TEXT(".jvd") {
+        @Override
+        public void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            ParallelDrawingReader.read(file, consumer);
+        }
+
+        @Override
+        public void read(InputStream input, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            DrawingReader.read(input, DrawingReader.DEFAULT_BATCH_SIZE, consumer);
+        }
+
+        @Override
+        public DrawingWriter newWriter(OutputStream output) {
+            return new TextDrawingWriter(output);
+        }
+    },
+
+    /** The compact binary format, see {@link BinaryDrawingWriter}. */
+    BINARY(".jvdb") {
+        @Override
+        public void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            BinaryDrawingReader.read(file, consumer);
+        }
+
+        @Override
+        public void read(InputStream input, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            BinaryDrawingReader.read(input, consumer);
+        }
+
+        @Override
+        public DrawingWriter newWriter(OutputStream output) throws IOException {
+            return new BinaryDrawingWriter(output);
+        }
+    },
+
+    /**
+     * The spatially paged format, see {@link PagedDrawingWriter}. Paged
+     * documents are read with random access, so they are never compressed:
+     * writing a paged document to a path with the compressed extension
+     * fails.
+     */
+    PAGED(".jvdp") {
+        @Override
+        public void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            PagedDrawingReader.read(file, consumer);
+        }
+
+        @Override
+        public void read(InputStream input, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            throw new IOException("A paged drawing can not be read when compressed.");
+        }
+
+        @Override
+        public DrawingWriter newWriter(OutputStream output) {
+            return new PagedDrawingWriter(output);
+        }
+    },
+
+    /**
+     * The fixed-width record format, see {@link RecordDrawingWriter}.
+     * Uncompressed record documents can be updated in place by a
+     * {@link RecordFile}.
+     */
+    RECORDS(".jvdr") {
+        @Override
+        public void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            RecordDrawingReader.read(file, consumer);
+        }
+
+        @Override
+        public void read(InputStream input, Consumer<List<GeometricalObject>> consumer) throws IOException {
+            RecordDrawingReader.read(input, consumer);
+        }
+
+        @Override
+        public DrawingWriter newWriter(OutputStream output) {
+            return new RecordDrawingWriter(output);
+        }
+    };
+
+    /** Extension appended to the extension of compressed documents. */
+    public static final String COMPRESSED_EXTENSION = ".gz";
+
+    /** Bytes that every gzip stream starts with. */
+    private static final byte[] GZIP_MAGIC = {0x1f, (byte) 0x8b};
+    /** Size of the buffers of compressed streams. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Extension of documents in this format. */
+    private final String extension;
+
+    /**
+     * Constructs a drawing format with the specified extension.
+     *
+     * @param extension extension of documents in this format
+     */
+    private DrawingFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the extension of documents in this format, including the dot.
+     *
+     * @return the extension of documents in this format
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Reads the uncompressed document at the specified <tt>file</tt>, which
+     * must be in this format, and passes its shapes to the specified
+     * <tt>consumer</tt> in batches, in the order they appear in the document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     * @throws IllegalArgumentException if a shape can not be parsed
+     */
+    public abstract void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException;
+
+    /**
+     * Reads a document in this format from the specified <tt>input</tt>
+     * stream and passes its shapes to the specified <tt>consumer</tt> in
+     * batches, in the order they appear in the document. The stream is not
+     * closed by this method.
+     *
+     * @param input input stream of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     * @throws IllegalArgumentException if a shape can not be parsed
+     */
+    public abstract void read(InputStream input, Consumer<List<GeometricalObject>> consumer) throws IOException;
+
+    /**
+     * Returns a writer of documents in this format that writes to the
+     * specified <tt>output</tt> stream.
+     *
+     * @param output output stream of the document
+     * @return a writer of documents in this format
+     * @throws IOException if an I/O error occurs
+     */
+    public abstract DrawingWriter newWriter(OutputStream output) throws IOException;
+
+    /**
+     * Writes all shapes of the specified <tt>model</tt> in drawing order to
+     * the specified <tt>file</tt> in this format, compressed with the default
+     * level if the file has the compressed extension.
+     *
+     * @param file path of the document
+     * @param model model whose shapes are to be written
+     * @throws IOException if an I/O error occurs or if the file has the
+     *         compressed extension and this format can not be compressed
+     */
+    public void write(Path file, JDrawingCanvasModel model) throws IOException {
+        write(file, model, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Writes all shapes of the specified <tt>model</tt> in drawing order to
+     * the specified <tt>file</tt> in this format, compressed with the
+     * specified <tt>level</tt> if the file has the compressed extension.
+     *
+     * @param file path of the document
+     * @param model model whose shapes are to be written
+     * @param level compression level, from 0 to 9 or
+     *        {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IOException if an I/O error occurs or if the file has the
+     *         compressed extension and this format can not be compressed
+     * @throws IllegalArgumentException if the compression level is invalid
+     */
+    public void write(Path file, JDrawingCanvasModel model, int level) throws IOException {
+        try (DrawingWriter writer = newWriter(create(file, level))) {
+            if (model.getSize() > 0) {
+                model.forEachObject(0, model.getSize() - 1, (shape) -> write(writer, shape));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the specified <tt>shapes</tt> in the given order to the specified
+     * <tt>file</tt> in this format, compressed with the specified
+     * <tt>level</tt> if the file has the compressed extension.
+     *
+     * @param file path of the document
+     * @param shapes shapes to be written
+     * @param level compression level, from 0 to 9 or
+     *        {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IOException if an I/O error occurs or if the file has the
+     *         compressed extension and this format can not be compressed
+     * @throws IllegalArgumentException if the compression level is invalid
+     */
+    public void write(Path file, Iterable<? extends GeometricalObject> shapes, int level) throws IOException {
+        try (DrawingWriter writer = newWriter(create(file, level))) {
+            for (GeometricalObject shape : shapes) {
+                writer.write(shape);
+            }
+        }
+    }
+
+    /**
+     * Converts the document at the <tt>source</tt> path, in whichever format
+     * it is, to a document in this format at the <tt>target</tt> path,
+     * compressed with the default level if the target has the compressed
+     * extension.
+     *
+     * @param source path of the document to be converted
+     * @param target path of the converted document
+     * @throws IOException if an I/O error occurs, if the source document is
+     *         corrupted or if the target has the compressed extension and
+     *         this format can not be compressed
+     * @throws IllegalArgumentException if a shape can not be parsed
+     */
+    public void convert(Path source, Path target) throws IOException {
+        convert(source, target, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Converts the document at the <tt>source</tt> path, in whichever format
+     * it is, to a document in this format at the <tt>target</tt> path,
+     * compressed with the specified <tt>level</tt> if the target has the
+     * compressed extension. Shapes are streamed from one document to the
+     * other, so the drawing is never held in memory as a whole.
+     *
+     * @param source path of the document to be converted
+     * @param target path of the converted document
+     * @param level compression level, from 0 to 9 or
+     *        {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IOException if an I/O error occurs, if the source document is
+     *         corrupted or if the target has the compressed extension and
+     *         this format can not be compressed
+     * @throws IllegalArgumentException if a shape can not be parsed or if the
+     *         compression level is invalid
+     */
+    public void convert(Path source, Path target, int level) throws IOException {
+        try (DrawingWriter writer = newWriter(create(target, level))) {
+            readDocument(source, (batch) -> batch.forEach((shape) -> write(writer, shape)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads the document at the specified <tt>file</tt>, in whichever format
+     * it is and whether it is compressed or not, and passes its shapes to the
+     * specified <tt>consumer</tt> in batches, in the order they appear in the
+     * document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     * @throws IllegalArgumentException if a shape can not be parsed
+     */
+    public static void readDocument(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        if (!isCompressed(file)) {
+            detect(file).read(file, consumer);
+            return;
+        }
+
+        try (InputStream input = open(file)) {
+            detect(input).read(input, consumer);
+        }
+    }
+
+    /**
+     * Reads the document at the specified <tt>file</tt> like
+     * {@link #readDocument(Path, Consumer)}, reporting the progress to the
+     * specified <tt>monitor</tt> as the bytes of the document are read. The
+     * read is stopped with a {@link CancellationException} as soon as the
+     * monitor is cancelled.
+     * <p>
+     * Uncompressed text documents are read with the
+     * {@link MappedDrawingReader}. Paged documents are read as a whole before
+     * their shapes are passed on, so their progress is only reported at the
+     * start and at the end.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @param monitor monitor of the read
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     * @throws IllegalArgumentException if a shape can not be parsed
+     * @throws CancellationException if the read was cancelled
+     */
+    public static void readDocument(Path file, Consumer<List<GeometricalObject>> consumer, ReadMonitor monitor) throws IOException {
+        long size = Files.size(file);
+
+        if (!isCompressed(file)) {
+            DrawingFormat format = detect(file);
+            if (format == TEXT) {
+                MappedDrawingReader.read(file, consumer, monitor);
+                return;
+            } else if (format == PAGED) {
+                monitor.progress(0, size);
+                format.read(file, (batch) -> {
+                    if (monitor.isCancelled()) {
+                        throw new CancellationException();
+                    }
+                    consumer.accept(batch);
+                });
+                monitor.progress(size, size);
+                return;
+            }
+        }
+
+        InputStream raw = new MonitoredInputStream(Files.newInputStream(file), size, monitor);
+        try (InputStream input = open(raw, isCompressed(file))) {
+            detect(input).read(input, consumer);
+        }
+        monitor.progress(size, size);
+    }
+
+    /**
+     * Detects the format of the document at the specified <tt>file</tt> from
+     * its first bytes, looking through compression if the document is
+     * compressed. Documents that are not in any other format are assumed to
+     * be in the text format.
+     *
+     * @param file path of the document
+     * @return the format of the document
+     * @throws IOException if an I/O error occurs
+     */
+    public static DrawingFormat detect(Path file) throws IOException {
+        try (InputStream input = open(file)) {
+            return detect(input);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the document at the specified <tt>file</tt> is
+     * compressed, which is detected from its first bytes.
+     *
+     * @param file path of the document
+     * @return true if the document is compressed
+     * @throws IOException if an I/O error occurs
+     */
+    public static boolean isCompressed(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return Arrays.equals(readHeader(input, GZIP_MAGIC.length), GZIP_MAGIC);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified <tt>file</tt> has the compressed
+     * extension, which means a document written to it is compressed.
+     *
+     * @param file path of a document
+     * @return true if the path has the compressed extension
+     */
+    public static boolean isCompressedPath(Path file) {
+        return file.getFileName().toString().endsWith(COMPRESSED_EXTENSION);
+    }
+
+    /**
+     * Returns the format whose extension the specified <tt>file</tt> has, not
+     * counting the compressed extension, or <tt>null</tt> if it has none of
+     * the extensions.
+     *
+     * @param file path of the document
+     * @return the format for the file, or null
+     */
+    public static DrawingFormat forPath(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(COMPRESSED_EXTENSION)) {
+            name = name.substring(0, name.length() - COMPRESSED_EXTENSION.length());
+        }
+
+        for (DrawingFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Detects the format of the document that the specified <tt>input</tt>
+     * stream is positioned at, and resets the stream back to its position.
+     *
+     * @param input a stream that supports marking
+     * @return the format of the document
+     * @throws IOException if an I/O error occurs
+     */
+    private static DrawingFormat detect(InputStream input) throws IOException {
+        input.mark(BinaryDrawingWriter.MAGIC.length);
+        byte[] header = readHeader(input, BinaryDrawingWriter.MAGIC.length);
+        input.reset();
+
+        if (Arrays.equals(header, BinaryDrawingWriter.MAGIC)) {
+            return BINARY;
+        } else if (Arrays.equals(header, PagedDrawingWriter.MAGIC)) {
+            return PAGED;
+        } else if (Arrays.equals(header, RecordDrawingWriter.MAGIC)) {
+            return RECORDS;
+        } else {
+            return TEXT;
+        }
+    }
+
+    /**
+     * Reads up to <tt>length</tt> first bytes from the specified
+     * <tt>input</tt> stream. If the stream ends sooner, the remaining bytes of
+     * the returned array are zero.
+     *
+     * @param input stream to be read from
+     * @param length number of bytes to be read
+     * @return the first bytes of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private static byte[] readHeader(InputStream input, int length) throws IOException {
+        byte[] header = new byte[length];
+
+        int read = 0;
+        while (read < length) {
+            int n = input.read(header, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+
+        return header;
+    }
+
+    /**
+     * Opens a buffered input stream of the document at the specified
+     * <tt>file</tt>, which decompresses the document if it is compressed.
+     *
+     * @param file path of the document
+     * @return an input stream of the uncompressed document
+     * @throws IOException if an I/O error occurs
+     */
+    private static InputStream open(Path file) throws IOException {
+        return open(Files.newInputStream(file), isCompressed(file));
+    }
+
+    /**
+     * Wraps the specified raw <tt>input</tt> stream of a document into a
+     * buffered input stream, which decompresses the document if it is
+     * <tt>compressed</tt>. The raw stream is closed if wrapping fails.
+     *
+     * @param input raw input stream of the document
+     * @param compressed true if the document is compressed
+     * @return an input stream of the uncompressed document
+     * @throws IOException if an I/O error occurs
+     */
+    private static InputStream open(InputStream input, boolean compressed) throws IOException {
+        try {
+            if (compressed) {
+                input = new GZIPInputStream(input, BUFFER_SIZE);
+            }
+            return new BufferedInputStream(input, BUFFER_SIZE);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if documents in this format can be compressed.
+     *
+     * @return true if documents in this format can be compressed
+     */
+    public boolean isCompressible() {
+        return this != PAGED;
+    }
+
+    /**
+     * Creates an output stream of a document in this format to the specified
+     * <tt>file</tt>, which compresses with the specified <tt>level</tt> if
+     * the file has the compressed extension. The file is not touched if the
+     * document can not be written.
+     *
+     * @param file path of the document
+     * @param level compression level, from 0 to 9 or
+     *        {@link Deflater#DEFAULT_COMPRESSION}
+     * @return an output stream of the document
+     * @throws IOException if an I/O error occurs or if the file has the
+     *         compressed extension and this format can not be compressed
+     * @throws IllegalArgumentException if the compression level is invalid
+     */
+    private OutputStream create(Path file, int level) throws IOException {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        if (!isCompressible() && isCompressedPath(file)) {
+            throw new IOException("A " + name().toLowerCase() + " drawing can not be compressed.");
+        }
+
+        OutputStream output = Files.newOutputStream(file);
+        if (!isCompressedPath(file)) {
+            return output;
+        }
+
+        try {
+            return new LeveledGZIPOutputStream(output, level);
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the specified <tt>shape</tt> to the specified <tt>writer</tt>,
+     * wrapping an I/O error into an {@link UncheckedIOException}.
+     *
+     * @param writer writer of the document
+     * @param shape shape to be written
+     */
+    private static void write(DrawingWriter writer, GeometricalObject shape) {
+        try {
+            writer.write(shape);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * An input stream that reports the number of bytes read from the
+     * underlying stream to a {@link ReadMonitor}, and stops reading once the
+     * monitor is cancelled.
+     */
+    private static class MonitoredInputStream extends FilterInputStream {
+
+        /** Total number of bytes of the stream. */
+        private final long total;
+        /** Monitor of the read. */
+        private final ReadMonitor monitor;
+        /** Number of bytes read so far. */
+        private long done;
+
+        /**
+         * Constructs an instance of {@code MonitoredInputStream} that reads
+         * <tt>total</tt> bytes from the specified <tt>input</tt> stream.
+         *
+         * @param input input stream to be read from
+         * @param total total number of bytes of the stream
+         * @param monitor monitor of the read
+         */
+        public MonitoredInputStream(InputStream input, long total, ReadMonitor monitor) {
+            super(input);
+            this.total = total;
+            this.monitor = monitor;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (monitor.isCancelled()) {
+                throw new CancellationException();
+            }
+
+            int b = super.read();
+            if (b >= 0) {
+                monitor.progress(++done, total);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (monitor.isCancelled()) {
+                throw new CancellationException();
+            }
+
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                done += n;
+                monitor.progress(done, total);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            done += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * A gzip output stream with a selectable compression level.
+     */
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        /**
+         * Constructs an instance of {@code LeveledGZIPOutputStream} that
+         * compresses with the specified <tt>level</tt> to the specified
+         * <tt>output</tt> stream.
+         *
+         * @param output output stream of the compressed data
+         * @param level compression level
+         * @throws IOException if an I/O error occurs
+         */
+        public LeveledGZIPOutputStream(OutputStream output, int level) throws IOException {
+            super(output, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+
+}
@@ -0,0 +1,803 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModel;
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModelListener;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * An append-only journal of the changes made to a drawing since its document
+ * was last written in full. Saving a journaled drawing appends only the
+ * changes to the journal, so the cost of a save depends on the changes and
+ * not on the size of the drawing.
+ * <p>
+ * The journal listens to its {@link DrawingModel} and records every added,
+ * removed and changed range of shapes in memory, until the records are
+ * {@link #commit() committed} to the journal file, which lies next to the
+ * document and has the document name followed by the {@link #EXTENSION}.
+ * Consecutive changes of the same range, such as those made while a shape is
+ * drawn, are folded into a single record.
+ * <p>
+ * The journal file starts with the {@link #MAGIC} bytes, a {@link #VERSION}
+ * byte and the size and the modification time of the document it applies to,
+ * so that a journal of an older version of the document is never applied.
+ * Each commit is then appended as a frame holding the length of its records,
+ * the records and their CRC-32. A frame that was not completely written is
+ * ignored, along with anything after it.
+ * <p>
+ * Once the journal grows past the compaction threshold, it is compacted on a
+ * background thread. The document is read and the journal is replayed onto
+ * it, the result is written as a new document in the format of the old one,
+ * and the document and the journal are replaced with the new document and a
+ * journal holding only the commits made in the meantime. The replacement
+ * journal is written before the document is replaced, and is recovered by
+ * the next commit or by {@link #readDocument(Path, Consumer, ReadMonitor)}
+ * if the compaction was interrupted, so no commit is lost or applied twice.
+ *
+ * @author Mario Bobic
+ */
+public class DrawingJournal implements DrawingModelListener, Closeable {
+
+    /** Extension appended to the document name to form the journal name. */
+    public static final String EXTENSION = ".jvdj";
+    /** Bytes that every journal starts with. */
+    public static final byte[] MAGIC = {'J', 'V', 'D', 'J'};
+    /** Version of the journal format. */
+    public static final int VERSION = 1;
+    /** Default size of the journal in bytes above which it is compacted. */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 8 << 20;
+
+    /** Size of the journal header in bytes. */
+    private static final int HEADER_SIZE = MAGIC.length + 1 + 2 * Long.BYTES;
+    /** Prefix of the name of a document that is being written by compaction. */
+    private static final String COMPACTION_PREFIX = ".compacting-";
+    /** Suffix of the name of a journal that is being written by compaction. */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** Record of shapes inserted at an index. */
+    private static final int ADD = 1;
+    /** Record of shapes removed from an index. */
+    private static final int REMOVE = 2;
+    /** Record of shapes replaced from an index. */
+    private static final int SET = 3;
+
+    /** All shape types, indexed by their tags. */
+    private static final ShapeType[] TYPES = ShapeType.values();
+    /**
+     * Compaction stamps of the documents compacted by this process, mapped by
+     * their absolute paths. A stamp is odd while its document is compacted.
+     */
+    private static final Map<Path, Long> STAMPS = new ConcurrentHashMap<>();
+
+    /** Path of the document. */
+    private final Path document;
+    /** Path of the journal. */
+    private final Path journal;
+    /** Model whose changes are recorded. */
+    private final DrawingModel model;
+    /** Size of the journal above which it is compacted. */
+    private final long threshold;
+    /** Executor of compactions. */
+    private final ExecutorService compactor;
+
+    /** Lock held while the journal file is written or replaced. */
+    private final Object lock = new Object();
+    /** Length of the valid part of the journal file, or -1 if not known yet. */
+    private long journalEnd = -1;
+    /** Indicates whether a compaction is scheduled or running. */
+    private volatile boolean compacting;
+
+    /** Records that are not committed yet. */
+    private byte[] pending = new byte[1024];
+    /** Length of the pending records. */
+    private int length;
+    /** Position of the last pending record, or -1 if it can not be folded. */
+    private int lastStart = -1;
+    /** Type, index and count of the last pending record. */
+    private int lastType, lastIndex, lastCount;
+    /** Arguments of the shape being recorded, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code DrawingJournal} of the specified
+     * <tt>document</tt> that records the changes of the specified
+     * <tt>model</tt> and is compacted above the
+     * {@link #DEFAULT_COMPACTION_THRESHOLD}.
+     *
+     * @param document path of the document
+     * @param model model whose changes are to be recorded
+     */
+    public DrawingJournal(Path document, DrawingModel model) {
+        this(document, model, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Constructs an instance of {@code DrawingJournal} of the specified
+     * <tt>document</tt> that records the changes of the specified
+     * <tt>model</tt> and is compacted above the specified <tt>threshold</tt>.
+     * The model must contain the shapes of the document, with the journal
+     * replayed onto them if it exists.
+     *
+     * @param document path of the document
+     * @param model model whose changes are to be recorded
+     * @param threshold size of the journal in bytes above which it is compacted
+     */
+    public DrawingJournal(Path document, DrawingModel model, long threshold) {
+        this.document = document;
+        this.journal = journalPath(document);
+        this.model = model;
+        this.threshold = threshold;
+
+        compactor = Executors.newSingleThreadExecutor((r) -> {
+            Thread thread = new Thread(r, "Compactor of " + document.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        model.addDrawingModelListener(this);
+    }
+
+    /**
+     * Returns the path of the document of this journal.
+     *
+     * @return the path of the document
+     */
+    public Path getDocument() {
+        return document;
+    }
+
+    /**
+     * Returns <tt>true</tt> if there are changes that are not committed yet.
+     *
+     * @return true if there are uncommitted changes
+     */
+    public boolean hasPendingChanges() {
+        return length > 0;
+    }
+
+    @Override
+    public void objectsAdded(DrawingModel source, int index0, int index1) {
+        record(ADD, source, index0, index1 - index0 + 1);
+    }
+
+    @Override
+    public void objectsRemoved(DrawingModel source, int index0, int index1) {
+        record(REMOVE, source, index0, index1 - index0 + 1);
+    }
+
+    @Override
+    public void objectsChanged(DrawingModel source, int index0, int index1) {
+        record(SET, source, index0, index1 - index0 + 1);
+    }
+
+    /**
+     * Appends a record of the specified <tt>type</tt> to the pending records.
+     * A change of the same range as the last record replaces the shapes of
+     * that record instead.
+     *
+     * @param type type of the record
+     * @param source model of the shapes
+     * @param index index of the first shape
+     * @param count number of shapes
+     */
+    private void record(int type, DrawingModel source, int index, int count) {
+        if (type == SET && lastStart >= 0 && lastType != REMOVE && lastIndex == index && lastCount == count) {
+            length = lastStart;
+            type = lastType;
+        }
+
+        lastStart = length;
+        lastType = type;
+        lastIndex = index;
+        lastCount = count;
+
+        ensureCapacity(11);
+        pending[length++] = (byte) type;
+        putUnsigned(index);
+        putUnsigned(count);
+        if (type == REMOVE) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            GeometricalObject shape = source.getObject(index + i);
+            ShapeType shapeType = shape.getShapeType();
+            shapeType.getArguments(shape, args);
+
+            ensureCapacity(1 + 5 * shapeType.getArgumentCount());
+            pending[length++] = (byte) shapeType.ordinal();
+            for (int j = 0, n = shapeType.getArgumentCount(); j < n; j++) {
+                putUnsigned((args[j] << 1) ^ (args[j] >> 31));
+            }
+        }
+    }
+
+    /**
+     * Puts the specified value into the pending records as an unsigned
+     * variable length integer.
+     *
+     * @param value value to be put
+     */
+    private void putUnsigned(int value) {
+        while ((value & ~0x7F) != 0) {
+            pending[length++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        pending[length++] = (byte) value;
+    }
+
+    /**
+     * Grows the pending records, if needed, so that they can take the
+     * specified number of additional bytes.
+     *
+     * @param additional number of bytes to be added
+     */
+    private void ensureCapacity(int additional) {
+        if (length + additional > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, length + additional));
+        }
+    }
+
+    /**
+     * Appends the pending records to the journal file as a single frame and
+     * forces it to the storage device. If the journal file does not exist or
+     * applies to another version of the document, it is started anew. A
+     * compaction is scheduled if the journal has grown past the threshold.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void commit() throws IOException {
+        if (length == 0) {
+            return;
+        }
+
+        long end;
+        synchronized (lock) {
+            if (journalEnd < 0) {
+                finishCompaction(document);
+            }
+            try (FileChannel channel = FileChannel.open(journal,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (journalEnd < 0) {
+                    journalEnd = open(channel);
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(pending, 0, length);
+
+                ByteBuffer frame = ByteBuffer.allocate(length + 2 * Integer.BYTES);
+                frame.putInt(length).put(pending, 0, length).putInt((int) crc.getValue());
+                frame.flip();
+
+                long position = journalEnd;
+                while (frame.hasRemaining()) {
+                    position += channel.write(frame, position);
+                }
+                channel.force(false);
+                journalEnd = position;
+            }
+            end = journalEnd;
+        }
+
+        length = 0;
+        lastStart = -1;
+
+        if (end > threshold && !compacting) {
+            compacting = true;
+            compactor.execute(this::compact);
+        }
+    }
+
+    /**
+     * Returns the length of the valid part of the specified journal
+     * <tt>channel</tt>, cutting off an incomplete last frame, or starts the
+     * journal anew if it does not apply to the current document.
+     *
+     * @param channel channel of the journal file
+     * @return the length of the valid part of the journal
+     * @throws IOException if an I/O error occurs
+     */
+    private long open(FileChannel channel) throws IOException {
+        long end = 0;
+        if (matches(journal, document)) {
+            try (DataInputStream in = frames(journal)) {
+                end = HEADER_SIZE + readFrames(in, Long.MAX_VALUE, null);
+            }
+        }
+
+        if (end == 0) {
+            channel.truncate(0);
+            ByteBuffer header = header(document);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            end = HEADER_SIZE;
+        }
+
+        channel.truncate(end);
+        return end;
+    }
+
+    /**
+     * Folds the committed part of the journal into a new document and
+     * replaces the document and the journal. Runs on the compactor thread. A
+     * compaction that fails before the document is replaced leaves the
+     * document and the journal unchanged and is retried after the next
+     * commit. If only the journal could not be replaced, its replacement is
+     * kept and moved in place by the next commit.
+     */
+    private void compact() {
+        Path compacted = document.resolveSibling(COMPACTION_PREFIX + document.getFileName());
+        Path temporary = temporaryPath(journal);
+        Path key = document.toAbsolutePath().normalize();
+
+        STAMPS.merge(key, 1L, Long::sum);
+        try {
+            long end;
+            synchronized (lock) {
+                end = journalEnd;
+            }
+            if (end < 0) {
+                // The journal is reopened by the next commit
+                return;
+            }
+
+            List<GeometricalObject> shapes = new ArrayList<>();
+            DrawingFormat format = DrawingFormat.detect(document);
+            DrawingFormat.readDocument(document, shapes::addAll);
+            replay(journal, end, shapes);
+            format.write(compacted, shapes, Deflater.DEFAULT_COMPRESSION);
+
+            synchronized (lock) {
+                try (FileChannel in = FileChannel.open(journal, StandardOpenOption.READ);
+                        FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    ByteBuffer header = header(compacted);
+                    while (header.hasRemaining()) {
+                        out.write(header);
+                    }
+                    // Commits made while the document was being written
+                    for (long position = end; position < journalEnd; ) {
+                        position += in.transferTo(position, journalEnd - position, out);
+                    }
+                    out.force(false);
+                }
+
+                Files.move(compacted, document, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                try {
+                    Files.move(temporary, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    journalEnd = HEADER_SIZE + journalEnd - end;
+                } catch (IOException | RuntimeException e) {
+                    // The journal on disk applies to the old document and the
+                    // new one is kept, so the next commit moves it in place
+                    journalEnd = -1;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(compacted);
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignorable) {}
+        } finally {
+            STAMPS.merge(key, 1L, Long::sum);
+            compacting = false;
+        }
+    }
+
+    /**
+     * Stops recording the changes of the model and waits for a running
+     * compaction to finish. Changes that were not committed are discarded.
+     */
+    @Override
+    public void close() {
+        model.removeDrawingModelListener(this);
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the document at the specified <tt>file</tt> like
+     * {@link DrawingFormat#readDocument(Path, Consumer, ReadMonitor)}, with
+     * its journal replayed onto it if there is one. A journal that was being
+     * replaced by an interrupted compaction is recovered first.
+     * <p>
+     * A document without a journal is streamed to the consumer, while a
+     * journaled document is read as a whole, replayed and then passed on in
+     * batches of {@link DrawingReader#DEFAULT_BATCH_SIZE} shapes.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @param monitor monitor of the read
+     * @throws IOException if an I/O error occurs or if the document or the
+     *         journal is corrupted
+     * @throws IllegalArgumentException if a shape can not be parsed
+     * @throws CancellationException if the read was cancelled
+     */
+    public static void readDocument(Path file, Consumer<List<GeometricalObject>> consumer, ReadMonitor monitor) throws IOException {
+        read(file, recover(file), consumer, monitor);
+    }
+
+    /**
+     * Reads the document at the specified <tt>file</tt> like
+     * {@link #readDocument(Path, Consumer, ReadMonitor)}, but leaves the
+     * files of an interrupted or a running compaction alone, so it may be
+     * used while the journal of the document is compacted. The shapes that
+     * are read during a compaction may not be those of the drawing, which is
+     * told by a change of the {@link #compactionStamp(Path) compaction stamp}
+     * of the document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @param monitor monitor of the read
+     * @throws IOException if an I/O error occurs or if the document or the
+     *         journal is corrupted
+     * @throws IllegalArgumentException if a shape can not be parsed
+     * @throws CancellationException if the read was cancelled
+     */
+    public static void peekDocument(Path file, Consumer<List<GeometricalObject>> consumer, ReadMonitor monitor) throws IOException {
+        Path journal = journalPath(file);
+        read(file, Files.exists(journal) && matches(journal, file) ? journal : null, consumer, monitor);
+    }
+
+    /**
+     * Returns the compaction stamp of the document at the specified
+     * <tt>file</tt>, which changes whenever a compaction of the document by
+     * this process starts or ends, and is odd while the document is
+     * compacted. A read of the document was not disturbed by a compaction of
+     * this process if the stamp was even before the read and did not change
+     * until after it.
+     *
+     * @param file path of the document
+     * @return the compaction stamp of the document
+     */
+    public static long compactionStamp(Path file) {
+        return STAMPS.getOrDefault(file.toAbsolutePath().normalize(), 0L);
+    }
+
+    /**
+     * Reads the document at the specified <tt>file</tt> and replays the
+     * specified <tt>journal</tt> onto it, if it is not <tt>null</tt>.
+     *
+     * @param file path of the document
+     * @param journal path of the journal of the document, or null
+     * @param consumer consumer of shape batches
+     * @param monitor monitor of the read
+     * @throws IOException if an I/O error occurs or if the document or the
+     *         journal is corrupted
+     * @throws IllegalArgumentException if a shape can not be parsed
+     * @throws CancellationException if the read was cancelled
+     */
+    private static void read(Path file, Path journal, Consumer<List<GeometricalObject>> consumer, ReadMonitor monitor) throws IOException {
+        if (journal == null) {
+            DrawingFormat.readDocument(file, consumer, monitor);
+            return;
+        }
+
+        List<GeometricalObject> shapes = new ArrayList<>();
+        DrawingFormat.readDocument(file, shapes::addAll, monitor);
+        replay(journal, Long.MAX_VALUE, shapes);
+
+        int batchSize = DrawingReader.DEFAULT_BATCH_SIZE;
+        for (int start = 0; start < shapes.size(); start += batchSize) {
+            consumer.accept(new ArrayList<>(shapes.subList(start, Math.min(start + batchSize, shapes.size()))));
+        }
+    }
+
+    /**
+     * Deletes the journal of the document at the specified <tt>file</tt>, if
+     * there is one. Should be called after the document is written in full.
+     *
+     * @param file path of the document
+     * @throws IOException if an I/O error occurs
+     */
+    public static void discard(Path file) throws IOException {
+        Path journal = journalPath(file);
+        Files.deleteIfExists(temporaryPath(journal));
+        Files.deleteIfExists(journal);
+    }
+
+    /**
+     * Finishes an interrupted compaction of the document at the specified
+     * <tt>file</tt> and returns the path of its journal, or <tt>null</tt> if
+     * the document has no journal that applies to it.
+     *
+     * @param file path of the document
+     * @return the path of the journal, or null
+     * @throws IOException if an I/O error occurs
+     */
+    private static Path recover(Path file) throws IOException {
+        Path journal = journalPath(file);
+
+        Files.deleteIfExists(file.resolveSibling(COMPACTION_PREFIX + file.getFileName()));
+        finishCompaction(file);
+
+        return Files.exists(journal) && matches(journal, file) ? journal : null;
+    }
+
+    /**
+     * Moves the journal written by compaction of the document at the
+     * specified <tt>file</tt> in place of its journal if the document was
+     * replaced but the journal was not, or deletes it otherwise.
+     *
+     * @param file path of the document
+     * @throws IOException if an I/O error occurs
+     */
+    private static void finishCompaction(Path file) throws IOException {
+        Path journal = journalPath(file);
+        Path temporary = temporaryPath(journal);
+
+        if (Files.exists(temporary)) {
+            if (matches(temporary, file)) {
+                // The document was replaced, but the journal was not
+                Files.move(temporary, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.delete(temporary);
+            }
+        }
+    }
+
+    /**
+     * Replays the frames of the specified <tt>journal</tt> that lie before the
+     * byte offset <tt>end</tt> onto the specified <tt>shapes</tt>.
+     *
+     * @param journal path of the journal
+     * @param end byte offset up to which frames are replayed
+     * @param shapes shapes to be replayed onto
+     * @throws IOException if an I/O error occurs or if the journal is
+     *         corrupted
+     */
+    private static void replay(Path journal, long end, List<GeometricalObject> shapes) throws IOException {
+        try (DataInputStream in = frames(journal)) {
+            readFrames(in, end - HEADER_SIZE, (frame) -> apply(frame, shapes));
+        }
+    }
+
+    /**
+     * Reads complete frames from the specified stream, positioned after the
+     * header, until <tt>limit</tt> bytes are read or an incomplete or damaged
+     * frame is found, and passes the records of each frame to the specified
+     * <tt>consumer</tt>, if it is not <tt>null</tt>.
+     *
+     * @param in stream of the journal
+     * @param limit maximum number of bytes to be read
+     * @param consumer consumer of frame records, or null
+     * @return the number of bytes of the complete frames
+     * @throws IOException if an I/O error occurs or if the records of a frame
+     *         are invalid
+     */
+    private static long readFrames(DataInputStream in, long limit, FrameConsumer consumer) throws IOException {
+        CRC32 crc = new CRC32();
+        long read = 0;
+
+        while (read < limit) {
+            byte[] frame;
+            try {
+                int length = in.readInt();
+                if (length < 0 || read + length + 2 * Integer.BYTES > limit) {
+                    break;
+                }
+                frame = new byte[length];
+                in.readFully(frame);
+
+                crc.reset();
+                crc.update(frame);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+
+            if (consumer != null) {
+                consumer.accept(frame);
+            }
+            read += frame.length + 2 * Integer.BYTES;
+        }
+
+        return read;
+    }
+
+    /**
+     * Applies the records of the specified <tt>frame</tt> to the specified
+     * <tt>shapes</tt>.
+     *
+     * @param frame records of a frame
+     * @param shapes shapes to be applied to
+     * @throws IOException if a record is invalid
+     */
+    private static void apply(byte[] frame, List<GeometricalObject> shapes) throws IOException {
+        int[] pos = {0};
+        int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+        try {
+            while (pos[0] < frame.length) {
+                int type = frame[pos[0]++];
+                int index = nextUnsigned(frame, pos);
+                int count = nextUnsigned(frame, pos);
+
+                int bound = type == ADD ? shapes.size() : shapes.size() - count;
+                if (index < 0 || count < 0 || index > bound || (type != ADD && type != REMOVE && type != SET)) {
+                    throw new IOException("Drawing journal is corrupted.");
+                }
+
+                if (type == REMOVE) {
+                    shapes.subList(index, index + count).clear();
+                    continue;
+                }
+
+                List<GeometricalObject> records = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int tag = frame[pos[0]++];
+                    if (tag < 0 || tag >= TYPES.length) {
+                        throw new IOException("Drawing journal is corrupted.");
+                    }
+                    ShapeType shapeType = TYPES[tag];
+                    for (int j = 0, n = shapeType.getArgumentCount(); j < n; j++) {
+                        int value = nextUnsigned(frame, pos);
+                        args[j] = (value >>> 1) ^ -(value & 1);
+                    }
+                    records.add(shapeType.create(args));
+                }
+
+                if (type == ADD) {
+                    shapes.addAll(index, records);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        shapes.set(index + i, records.get(i));
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Drawing journal is corrupted.", e);
+        }
+    }
+
+    /**
+     * Returns the unsigned variable length integer at the position of the
+     * specified <tt>frame</tt>, advancing the position.
+     *
+     * @param frame records of a frame
+     * @param pos single element array holding the position
+     * @return the integer
+     * @throws IOException if the integer is invalid
+     */
+    private static int nextUnsigned(byte[] frame, int[] pos) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = frame[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Drawing journal is corrupted.");
+    }
+
+    /**
+     * Opens a stream of the frames of the specified <tt>journal</tt>,
+     * positioned after its header.
+     *
+     * @param journal path of the journal
+     * @return a stream of the frames
+     * @throws IOException if an I/O error occurs
+     */
+    private static DataInputStream frames(Path journal) throws IOException {
+        InputStream input = new BufferedInputStream(Files.newInputStream(journal), 1 << 16);
+        DataInputStream in = new DataInputStream(input);
+        try {
+            in.readFully(new byte[HEADER_SIZE]);
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the header of the specified <tt>journal</tt>
+     * is valid and names the current size and modification time of the
+     * specified <tt>file</tt>.
+     *
+     * @param journal path of the journal
+     * @param file path of the document
+     * @return true if the journal applies to the document
+     * @throws IOException if an I/O error occurs
+     */
+    private static boolean matches(Path journal, Path file) throws IOException {
+        byte[] bytes = new byte[HEADER_SIZE];
+        try (InputStream input = Files.newInputStream(journal)) {
+            int read = 0;
+            while (read < HEADER_SIZE) {
+                int n = input.read(bytes, read, HEADER_SIZE - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+        }
+        return ByteBuffer.wrap(bytes).equals(header(file));
+    }
+
+    /**
+     * Returns the header of a journal that applies to the document at the
+     * specified <tt>file</tt> in its current version.
+     *
+     * @param file path of the document
+     * @return the header of a journal
+     * @throws IOException if an I/O error occurs
+     */
+    private static ByteBuffer header(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).put((byte) VERSION);
+        header.putLong(Files.size(file));
+        header.putLong(Files.getLastModifiedTime(file).toMillis());
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Returns the path of the journal of the document at the specified
+     * <tt>file</tt>.
+     *
+     * @param file path of the document
+     * @return the path of the journal
+     */
+    private static Path journalPath(Path file) {
+        return file.resolveSibling(file.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Returns the path under which a replacement of the specified
+     * <tt>journal</tt> is written.
+     *
+     * @param journal path of the journal
+     * @return the path of the replacement journal
+     */
+    private static Path temporaryPath(Path journal) {
+        return journal.resolveSibling(journal.getFileName() + TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * A consumer of the records of journal frames.
+     */
+    @FunctionalInterface
+    private interface FrameConsumer {
+
+        /**
+         * Consumes the records of a frame.
+         *
+         * @param frame records of a frame
+         * @throws IOException if the records are invalid
+         */
+        void accept(byte[] frame) throws IOException;
+    }
+
+}
@@ -0,0 +1,155 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeTokenizer;
+
+/**
+ * A streaming reader of <tt>.jvd</tt> documents. Bytes are read into a
+ * buffer and complete lines are parsed straight from it by a
+ * {@link ShapeTokenizer} as they arrive, and parsed shapes are handed over in
+ * batches of a fixed size. Neither the lines nor the shapes of the whole
+ * document are ever held in memory at once, so memory used by reading stays
+ * flat no matter the size of the document.
+ *
+ * @author Mario Bobic
+ */
+public class DrawingReader {
+
+    /** Default number of shapes in a batch. */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    /** Initial size of the read buffer, which grows only for longer lines. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Disables instantiation.
+     */
+    private DrawingReader() {
+    }
+
+    /**
+     * Reads the <tt>.jvd</tt> document at the specified <tt>file</tt> and
+     * passes its shapes to the specified <tt>consumer</tt> in batches of
+     * {@link #DEFAULT_BATCH_SIZE} shapes, in the order they appear in the
+     * document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a line can not be parsed
+     */
+    public static void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        read(file, DEFAULT_BATCH_SIZE, consumer);
+    }
+
+    /**
+     * Reads the <tt>.jvd</tt> document at the specified <tt>file</tt> and
+     * passes its shapes to the specified <tt>consumer</tt> in batches of
+     * <tt>batchSize</tt> shapes, in the order they appear in the document.
+     *
+     * @param file path of the document
+     * @param batchSize number of shapes in a batch
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a line can not be parsed or if
+     *         <tt>batchSize</tt> is not positive
+     */
+    public static void read(Path file, int batchSize, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            read(input, batchSize, consumer);
+        }
+    }
+
+    /**
+     * Reads a <tt>.jvd</tt> document from the specified <tt>input</tt> stream
+     * and passes its shapes to the specified <tt>consumer</tt> in batches of
+     * <tt>batchSize</tt> shapes, in the order they appear in the document.
+     * Every batch is a new list, so the consumer may keep it. The stream is
+     * not closed by this method.
+     *
+     * @param input input stream of the document
+     * @param batchSize number of shapes in a batch
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a line can not be parsed or if
+     *         <tt>batchSize</tt> is not positive
+     */
+    public static void read(InputStream input, int batchSize, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int length = 0;
+        boolean eof = false;
+
+        ShapeTokenizer tokenizer = new ShapeTokenizer();
+        List<GeometricalObject> batch = new ArrayList<>(batchSize);
+
+        while (!eof) {
+            int read = input.read(bytes, length, bytes.length - length);
+            if (read < 0) {
+                eof = true;
+            } else {
+                length += read;
+            }
+
+            int end = eof ? length : lastLineEnd(bytes, length);
+            if (end == 0) {
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                continue;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, end);
+            tokenizer.reset(buffer);
+            while (tokenizer.hasNext()) {
+                try {
+                    batch.add(tokenizer.next());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + tokenizer.getLineNumber() + ": " + e.getMessage(), e);
+                }
+
+                if (batch.size() == batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+
+            System.arraycopy(bytes, end, bytes, 0, length - end);
+            length -= end;
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Returns the position just after the last line break among the first
+     * <tt>length</tt> bytes, or <tt>0</tt> if there is no line break.
+     *
+     * @param bytes bytes to be searched
+     * @param length number of bytes to be searched
+     * @return position just after the last line break, or 0
+     */
+    private static int lastLineEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+}
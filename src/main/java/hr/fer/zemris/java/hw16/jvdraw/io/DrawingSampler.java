@@ -0,0 +1,172 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeTokenizer;
+
+/**
+ * Reads a sample of the shapes of a document, spread evenly over the drawing
+ * order, for previews that need to look like the drawing without reading
+ * every shape of it.
+ * <p>
+ * An uncompressed text document larger than {@link #SAMPLE_BYTES} is sampled
+ * by reading {@link #SAMPLE_WINDOWS} windows of it at evenly spaced
+ * positions and parsing the whole lines in each window, so the sample is read
+ * in the same time regardless of the size of the document. Lines that can not
+ * be parsed are skipped. Documents in other formats are streamed from the
+ * start to the end, and only every <tt>n</tt>-th shape is kept, with
+ * <tt>n</tt> doubled whenever the sample grows past its limit.
+ *
+ * @author Mario Bobic
+ */
+public class DrawingSampler {
+
+    /** Number of bytes of a text document that are read for a sample. */
+    public static final int SAMPLE_BYTES = 4 << 20;
+    /** Number of windows a sample of a text document is read from. */
+    public static final int SAMPLE_WINDOWS = 64;
+
+    /**
+     * Disables instantiation.
+     */
+    private DrawingSampler() {
+    }
+
+    /**
+     * Returns at most <tt>maxShapes</tt> shapes of the document at the
+     * specified <tt>file</tt>, spread over the document and in their drawing
+     * order. The sample is the whole drawing if the document is small enough.
+     *
+     * @param file path of the document
+     * @param maxShapes maximum number of shapes of the sample, at least 1
+     * @param monitor monitor of the read, which may cancel it
+     * @return shapes of the sample
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     * @throws IllegalArgumentException if a shape of a document that is not
+     *         a text document can not be parsed
+     * @throws CancellationException if the read was cancelled
+     */
+    public static List<GeometricalObject> sample(Path file, int maxShapes, ReadMonitor monitor) throws IOException {
+        if (!DrawingFormat.isCompressed(file) && DrawingFormat.detect(file) == DrawingFormat.TEXT) {
+            return sampleText(file, maxShapes, monitor);
+        }
+
+        List<GeometricalObject> sample = new ArrayList<>();
+        int[] stride = {1};
+        long[] index = {0};
+        DrawingFormat.readDocument(file, (batch) -> {
+            for (GeometricalObject shape : batch) {
+                if (index[0]++ % stride[0] == 0) {
+                    sample.add(shape);
+                    if (sample.size() > maxShapes) {
+                        decimate(sample);
+                        stride[0] *= 2;
+                    }
+                }
+            }
+        }, monitor);
+        return sample;
+    }
+
+    /**
+     * Samples the uncompressed text document at the specified <tt>file</tt>
+     * from evenly spaced windows.
+     *
+     * @param file path of the text document
+     * @param maxShapes maximum number of shapes of the sample
+     * @param monitor monitor of the read
+     * @return shapes of the sample
+     * @throws IOException if an I/O error occurs
+     * @throws CancellationException if the read was cancelled
+     */
+    private static List<GeometricalObject> sampleText(Path file, int maxShapes, ReadMonitor monitor) throws IOException {
+        List<GeometricalObject> sample = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int windows = size <= SAMPLE_BYTES ? 1 : SAMPLE_WINDOWS;
+            int windowSize = (int) Math.min(size, SAMPLE_BYTES / windows);
+            ByteBuffer buffer = ByteBuffer.allocate(windowSize + 1);
+            ShapeTokenizer tokenizer = new ShapeTokenizer();
+
+            for (int w = 0; w < windows; w++) {
+                if (monitor.isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                long position = windows == 1 ? 0 : (size - windowSize) / (windows - 1) * w;
+                // Read from the byte before the window, which tells whether
+                // the window starts a line
+                if (position > 0) {
+                    position--;
+                    buffer.clear();
+                } else {
+                    buffer.clear().limit(windowSize);
+                }
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+
+                // Only whole lines of the window are parsed
+                int start = 0;
+                if (position > 0) {
+                    while (start < buffer.limit() && buffer.get(start) != '\n') {
+                        start++;
+                    }
+                    start++;
+                }
+                int end = buffer.limit();
+                if (position + end < size) {
+                    while (end > start && buffer.get(end - 1) != '\n') {
+                        end--;
+                    }
+                }
+                if (start >= end) {
+                    continue;
+                }
+
+                buffer.limit(end).position(start);
+                tokenizer.reset(buffer);
+                while (tokenizer.hasNext()) {
+                    try {
+                        sample.add(tokenizer.next());
+                    } catch (IllegalArgumentException e) {
+                        // not a shape, skipped
+                    }
+                }
+                monitor.progress((long) (w + 1) * windowSize, (long) windows * windowSize);
+            }
+        }
+
+        while (sample.size() > maxShapes) {
+            decimate(sample);
+        }
+        return sample;
+    }
+
+    /**
+     * Removes every other shape from the specified sample, keeping the first.
+     *
+     * @param sample sample to be decimated
+     */
+    private static void decimate(List<GeometricalObject> sample) {
+        int kept = 0;
+        for (int i = 0, n = sample.size(); i < n; i += 2) {
+            sample.set(kept++, sample.get(i));
+        }
+        sample.subList(kept, sample.size()).clear();
+    }
+
+}
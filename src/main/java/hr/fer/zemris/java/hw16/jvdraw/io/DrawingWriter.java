@@ -0,0 +1,27 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+
+/**
+ * A writer of documents in one of the {@link DrawingFormat drawing formats}.
+ * Shapes are written one at a time in drawing order, so a document of any
+ * size can be written without holding its serialized form in memory.
+ * Closing the writer completes the document and closes the underlying
+ * stream.
+ *
+ * @author Mario Bobic
+ */
+public interface DrawingWriter extends Closeable {
+
+    /**
+     * Writes the specified <tt>shape</tt> after the shapes written so far.
+     *
+     * @param shape shape to be written
+     * @throws IOException if an I/O error occurs
+     */
+    void write(GeometricalObject shape) throws IOException;
+
+}
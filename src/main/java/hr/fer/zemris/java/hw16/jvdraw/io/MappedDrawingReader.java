@@ -0,0 +1,148 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeTokenizer;
+
+/**
+ * A reader of <tt>.jvd</tt> documents that maps the document into memory and
+ * parses shapes directly from the mapped bytes with a {@link ShapeTokenizer}.
+ * The bytes are served from the page cache of the operating system and are
+ * never copied into the heap.
+ * <p>
+ * Since a single mapping can not exceed 2 GB, the document is mapped in
+ * consecutive windows of {@link #WINDOW_SIZE} bytes, each ending on a line
+ * break. A window is released for garbage collection as soon as it has been
+ * parsed.
+ * <p>
+ * Progress is reported to a {@link ReadMonitor} after every batch of shapes,
+ * which is also when cancellation is checked.
+ *
+ * @author Mario Bobic
+ */
+public class MappedDrawingReader {
+
+    /** Size of a mapped window in bytes. */
+    public static final int WINDOW_SIZE = 1 << 28;
+
+    /**
+     * Disables instantiation.
+     */
+    private MappedDrawingReader() {
+    }
+
+    /**
+     * Reads the <tt>.jvd</tt> document at the specified <tt>file</tt> and
+     * passes its shapes to the specified <tt>consumer</tt> in batches of
+     * {@link DrawingReader#DEFAULT_BATCH_SIZE} shapes, in the order they
+     * appear in the document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @param monitor monitor of the read
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a line can not be parsed
+     * @throws CancellationException if the read was cancelled
+     */
+    public static void read(Path file, Consumer<List<GeometricalObject>> consumer, ReadMonitor monitor) throws IOException {
+        read(file, DrawingReader.DEFAULT_BATCH_SIZE, consumer, monitor);
+    }
+
+    /**
+     * Reads the <tt>.jvd</tt> document at the specified <tt>file</tt> and
+     * passes its shapes to the specified <tt>consumer</tt> in batches of
+     * <tt>batchSize</tt> shapes, in the order they appear in the document.
+     * Shapes handed over before the read was cancelled or failed remain with
+     * the consumer.
+     *
+     * @param file path of the document
+     * @param batchSize number of shapes in a batch
+     * @param consumer consumer of shape batches
+     * @param monitor monitor of the read
+     * @throws IOException if an I/O error occurs or if a line is longer than
+     *         the window size
+     * @throws IllegalArgumentException if a line can not be parsed or if
+     *         <tt>batchSize</tt> is not positive
+     * @throws CancellationException if the read was cancelled
+     */
+    public static void read(Path file, int batchSize, Consumer<List<GeometricalObject>> consumer, ReadMonitor monitor) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = 0;
+
+            ShapeTokenizer tokenizer = new ShapeTokenizer();
+            List<GeometricalObject> batch = new ArrayList<>(batchSize);
+            monitor.progress(0, size);
+
+            while (start < size) {
+                if (monitor.isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                MappedByteBuffer window = channel.map(MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+                int end = start + window.capacity() == size ? window.capacity() : lastLineEnd(window);
+                if (end == 0) {
+                    throw new IOException("Line at byte " + start + " is longer than " + WINDOW_SIZE + " bytes.");
+                }
+
+                window.limit(end);
+                tokenizer.reset(window);
+                while (tokenizer.hasNext()) {
+                    try {
+                        batch.add(tokenizer.next());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Line " + tokenizer.getLineNumber() + ": " + e.getMessage(), e);
+                    }
+
+                    if (batch.size() == batchSize) {
+                        consumer.accept(batch);
+                        batch = new ArrayList<>(batchSize);
+
+                        monitor.progress(start + window.position(), size);
+                        if (monitor.isCancelled()) {
+                            throw new CancellationException();
+                        }
+                    }
+                }
+
+                start += end;
+            }
+
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+            monitor.progress(size, size);
+        }
+    }
+
+    /**
+     * Returns the position just after the last line break in the specified
+     * <tt>window</tt>, or <tt>0</tt> if there is no line break.
+     *
+     * @param window window to be searched
+     * @return position just after the last line break, or 0
+     */
+    private static int lastLineEnd(MappedByteBuffer window) {
+        for (int i = window.capacity() - 1; i >= 0; i--) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+}
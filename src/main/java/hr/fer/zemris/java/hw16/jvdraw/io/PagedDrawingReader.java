@@ -0,0 +1,413 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+
+/**
+ * A reader of <tt>.jvdp</tt> documents, the spatially paged drawing format
+ * described in {@link PagedDrawingWriter}. The footer of the document is
+ * read when the reader is opened, after which the shapes of a region can be
+ * {@link #read(Rectangle) read} by reading only the pages whose bounds
+ * intersect the region, and an interval of the drawing order can be
+ * {@link #read(int, int) read} by reading only the pages whose drawing order
+ * ranges overlap the interval. The reader may be queried any number of times
+ * before it is closed.
+ *
+ * @author Mario Bobic
+ */
+public class PagedDrawingReader implements Closeable {
+
+    /** Channel of the document. */
+    private final FileChannel channel;
+
+    /** Number of shapes in the document. */
+    private final int shapeCount;
+    /** Number of pages in the document. */
+    private final int pageCount;
+    /** Positions of pages, with the position of the footer at the end. */
+    private final long[] positions;
+    /** Bounds of pages as minX, minY, maxX and maxY quadruples. */
+    private final int[] bounds;
+    /** Drawing order ranges of pages as lowest and highest index pairs. */
+    private final int[] ranges;
+
+    /**
+     * Constructs an instance of {@code PagedDrawingReader} that reads the
+     * <tt>.jvdp</tt> document at the specified <tt>file</tt>, and reads its
+     * footer.
+     *
+     * @param file path of the document
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted or not a paged document
+     */
+    public PagedDrawingReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < PagedDrawingWriter.MAGIC.length + 1 + PagedDrawingWriter.TRAILER_SIZE) {
+                throw new IOException("Not a paged drawing.");
+            }
+
+            ByteBuffer header = readFully(0, PagedDrawingWriter.MAGIC.length + 1);
+            ByteBuffer trailer = readFully(size - PagedDrawingWriter.TRAILER_SIZE, PagedDrawingWriter.TRAILER_SIZE);
+            if (!hasMagic(header, 0) || !hasMagic(trailer, Long.BYTES)) {
+                throw new IOException("Not a paged drawing.");
+            }
+            int version = header.get(PagedDrawingWriter.MAGIC.length) & 0xFF;
+            if (version > PagedDrawingWriter.VERSION) {
+                throw new IOException("Unsupported paged drawing version: " + version);
+            }
+
+            long footerPosition = trailer.getLong(0);
+            long footerSize = size - PagedDrawingWriter.TRAILER_SIZE - Integer.BYTES - footerPosition;
+            if (footerPosition < header.capacity() || footerSize < 2 * Integer.BYTES || footerSize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid footer of paged drawing.");
+            }
+
+            ByteBuffer footer = readFully(footerPosition, (int) footerSize + Integer.BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(footer.array(), 0, (int) footerSize);
+            if (footer.getInt((int) footerSize) != (int) crc.getValue()) {
+                throw new IOException("Footer of paged drawing is corrupted.");
+            }
+
+            pageCount = footer.getInt();
+            shapeCount = footer.getInt();
+            if (pageCount < 0 || shapeCount < 0 || footerSize != 2 * Integer.BYTES + (long) pageCount * PagedDrawingWriter.PAGE_ENTRY_SIZE) {
+                throw new IOException("Invalid footer of paged drawing.");
+            }
+
+            positions = new long[pageCount + 1];
+            bounds = new int[4 * pageCount];
+            ranges = new int[2 * pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                positions[i] = footer.getLong();
+                footer.getInt();
+                for (int j = 0; j < 4; j++) {
+                    bounds[4 * i + j] = footer.getInt();
+                }
+                ranges[2 * i] = footer.getInt();
+                ranges[2 * i + 1] = footer.getInt();
+            }
+            positions[pageCount] = footerPosition;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the <tt>.jvdp</tt> document at the specified <tt>file</tt> and
+     * passes all of its shapes to the specified <tt>consumer</tt> in batches,
+     * in drawing order.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted or not a paged document
+     */
+    public static void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        try (PagedDrawingReader reader = new PagedDrawingReader(file)) {
+            reader.read(consumer);
+        }
+    }
+
+    /**
+     * Returns the number of shapes in the document.
+     *
+     * @return the number of shapes in the document
+     */
+    public int getShapeCount() {
+        return shapeCount;
+    }
+
+    /**
+     * Returns the number of pages in the document.
+     *
+     * @return the number of pages in the document
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns the bounds of all shapes of the document, or <tt>null</tt> if
+     * the document is empty.
+     *
+     * @return the bounds of all shapes, or null
+     */
+    public Rectangle getBounds() {
+        Rectangle union = null;
+        for (int i = 0; i < pageCount; i++) {
+            Rectangle page = pageBounds(i);
+            union = union == null ? page : union.union(page);
+        }
+        return union;
+    }
+
+    /**
+     * Returns the number of pages whose bounds intersect the specified
+     * <tt>region</tt>, which is the number of pages read by
+     * {@link #read(Rectangle)}.
+     *
+     * @param region region of the drawing
+     * @return the number of pages that intersect the region
+     */
+    public int getPageCount(Rectangle region) {
+        int count = 0;
+        for (int i = 0; i < pageCount; i++) {
+            if (intersects(bounds, 4 * i, region)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads all shapes of the document and passes them to the specified
+     * <tt>consumer</tt> in batches of {@link DrawingReader#DEFAULT_BATCH_SIZE}
+     * shapes, in drawing order.
+     * <p>
+     * Pages are not in drawing order, so all shapes are read before the
+     * first batch is handed over.
+     *
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     */
+    public void read(Consumer<List<GeometricalObject>> consumer) throws IOException {
+        GeometricalObject[] shapes = new GeometricalObject[shapeCount];
+        BlockDecoder decoder = new BlockDecoder(true);
+
+        for (int page = 0; page < pageCount; page++) {
+            List<GeometricalObject> pageShapes = readPage(decoder, page);
+            for (int i = 0; i < pageShapes.size(); i++) {
+                int index = decoder.getIndex(i);
+                if (index >= shapeCount || shapes[index] != null) {
+                    throw new IOException("Page " + (page + 1) + " of paged drawing is corrupted.");
+                }
+                shapes[index] = pageShapes.get(i);
+            }
+        }
+
+        int batchSize = DrawingReader.DEFAULT_BATCH_SIZE;
+        for (int start = 0; start < shapeCount; start += batchSize) {
+            List<GeometricalObject> batch = new ArrayList<>(Arrays.asList(shapes).subList(start, Math.min(start + batchSize, shapeCount)));
+            if (batch.contains(null)) {
+                throw new IOException("Paged drawing is missing shapes.");
+            }
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Reads the shapes whose bounding boxes intersect the specified
+     * <tt>region</tt>, reading only the pages whose bounds intersect it, and
+     * returns them in drawing order.
+     *
+     * @param region region of the drawing
+     * @return shapes that intersect the region, in drawing order
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     */
+    public List<GeometricalObject> read(Rectangle region) throws IOException {
+        return query((page) -> intersects(bounds, 4 * page, region), 0, shapeCount, region);
+    }
+
+    /**
+     * Reads the shapes whose drawing order indices are between
+     * <tt>fromIndex</tt> inclusive and <tt>toIndex</tt> exclusive, reading
+     * only the pages whose drawing order ranges overlap the interval, and
+     * returns them in drawing order.
+     *
+     * @param fromIndex index of the first shape
+     * @param toIndex index after the last shape
+     * @return shapes of the interval, in drawing order
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     * @throws IndexOutOfBoundsException if the interval is out of bounds
+     */
+    public List<GeometricalObject> read(int fromIndex, int toIndex) throws IOException {
+        if (fromIndex < 0 || toIndex > shapeCount || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Invalid interval [" + fromIndex + ", " + toIndex + ") of " + shapeCount + " shapes.");
+        }
+        return query((page) -> ranges[2 * page] < toIndex && ranges[2 * page + 1] >= fromIndex, fromIndex, toIndex, null);
+    }
+
+    /**
+     * Reads the pages accepted by the specified <tt>pages</tt> predicate and
+     * returns their shapes whose drawing order indices are between
+     * <tt>fromIndex</tt> inclusive and <tt>toIndex</tt> exclusive and whose
+     * bounding boxes intersect the specified <tt>region</tt>, in drawing
+     * order.
+     *
+     * @param pages predicate of pages to be read
+     * @param fromIndex index of the first shape
+     * @param toIndex index after the last shape
+     * @param region region of the drawing, or <tt>null</tt> for any region
+     * @return the found shapes, in drawing order
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted
+     */
+    private List<GeometricalObject> query(IntPredicate pages, int fromIndex, int toIndex, Rectangle region) throws IOException {
+        BlockDecoder decoder = new BlockDecoder(true);
+        List<GeometricalObject> found = new ArrayList<>();
+        // Drawing order index in the high bits, position in found in the low bits
+        long[] keys = new long[16];
+        int[] box = new int[4];
+
+        for (int page = 0; page < pageCount; page++) {
+            if (!pages.test(page)) {
+                continue;
+            }
+
+            List<GeometricalObject> pageShapes = readPage(decoder, page);
+            for (int i = 0; i < pageShapes.size(); i++) {
+                int index = decoder.getIndex(i);
+                if (index < fromIndex || index >= toIndex) {
+                    continue;
+                }
+
+                GeometricalObject shape = pageShapes.get(i);
+                if (region != null) {
+                    Rectangle r = shape.getBoundingBox();
+                    box[0] = r.x;
+                    box[1] = r.y;
+                    box[2] = r.x + r.width;
+                    box[3] = r.y + r.height;
+                    if (!intersects(box, 0, region)) {
+                        continue;
+                    }
+                }
+
+                if (found.size() == keys.length) {
+                    keys = Arrays.copyOf(keys, keys.length * 2);
+                }
+                keys[found.size()] = (long) index << 32 | found.size();
+                found.add(shape);
+            }
+        }
+
+        Arrays.sort(keys, 0, found.size());
+        List<GeometricalObject> shapes = new ArrayList<>(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            shapes.add(found.get((int) keys[i]));
+        }
+        return shapes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads and decodes the specified <tt>page</tt>.
+     *
+     * @param decoder decoder of the page
+     * @param page index of the page
+     * @return shapes of the page
+     * @throws IOException if an I/O error occurs or if the page is corrupted
+     */
+    private List<GeometricalObject> readPage(BlockDecoder decoder, int page) throws IOException {
+        long length = positions[page + 1] - positions[page];
+        if (length <= 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Page " + (page + 1) + " of paged drawing is corrupted.");
+        }
+
+        ByteBuffer buffer = readFully(positions[page], (int) length);
+        try {
+            List<GeometricalObject> shapes = decoder.read(new DataInputStream(new ByteArrayInputStream(buffer.array())));
+            if (shapes == null) {
+                throw new IOException("Page " + (page + 1) + " of paged drawing is corrupted.");
+            }
+            return shapes;
+        } catch (EOFException e) {
+            throw new IOException("Page " + (page + 1) + " of paged drawing is corrupted.");
+        }
+    }
+
+    /**
+     * Reads <tt>length</tt> bytes at the specified <tt>position</tt> of the
+     * document into a new heap buffer.
+     *
+     * @param position position of the first byte
+     * @param length number of bytes to be read
+     * @return a buffer with the read bytes
+     * @throws IOException if an I/O error occurs or if the document ends
+     *         before all bytes are read
+     */
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of paged drawing.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the bounds of the specified <tt>page</tt>.
+     *
+     * @param page index of the page
+     * @return the bounds of the page
+     */
+    private Rectangle pageBounds(int page) {
+        int i = 4 * page;
+        return new Rectangle(bounds[i], bounds[i + 1], bounds[i + 2] - bounds[i], bounds[i + 3] - bounds[i + 1]);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified buffer has the magic bytes at
+     * the specified <tt>offset</tt>.
+     *
+     * @param buffer buffer to be tested
+     * @param offset offset of the magic bytes
+     * @return true if the buffer has the magic bytes
+     */
+    private static boolean hasMagic(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < PagedDrawingWriter.MAGIC.length; i++) {
+            if (buffer.get(offset + i) != PagedDrawingWriter.MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the bounds stored as minX, minY, maxX and maxY
+     * at the specified <tt>offset</tt> of the array intersect the specified
+     * <tt>region</tt>. Bounds are inclusive, so bounds of zero width or height
+     * may intersect the region too.
+     *
+     * @param bounds array of bounds
+     * @param offset offset of the bounds in the array
+     * @param region region to be tested
+     * @return true if the bounds intersect the region
+     */
+    private static boolean intersects(int[] bounds, int offset, Rectangle region) {
+        return bounds[offset] <= (long) region.x + region.width
+            && bounds[offset + 2] >= region.x
+            && bounds[offset + 1] <= (long) region.y + region.height
+            && bounds[offset + 3] >= region.y;
+    }
+
+}
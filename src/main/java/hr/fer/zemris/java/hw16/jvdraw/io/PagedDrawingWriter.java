@@ -0,0 +1,205 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+
+/**
+ * A writer of <tt>.jvdp</tt> documents, the spatially paged drawing format.
+ * Shapes are grouped into pages of up to {@link #PAGE_SIZE} shapes that lie
+ * close to each other, so that a part of a drawing can be read without
+ * reading the whole document, see {@link PagedDrawingReader}.
+ * <p>
+ * Shapes are ordered along a Hilbert curve by the centers of their bounding
+ * boxes, and consecutive runs of that order form pages. Within a page,
+ * shapes are stored in drawing order as a block of the binary format
+ * described in {@link BinaryDrawingWriter}, with every record prefixed by the
+ * drawing order index of the shape.
+ * <p>
+ * A document starts with the {@link #MAGIC} bytes and a {@link #VERSION}
+ * byte, which are followed by the pages and the footer. The footer holds the
+ * number of pages and the number of shapes, and for every page its position
+ * in the document, its number of shapes, the bounds of the bounding boxes of
+ * its shapes and the lowest and highest drawing order index of its shapes,
+ * followed by the CRC-32 of the footer. The document ends with the position
+ * of the footer and the magic bytes, so the footer is found by reading the
+ * end of the document. All footer numbers are big-endian.
+ * <p>
+ * Since pages can only be formed once all shapes are known, shapes are kept
+ * in memory until the writer is closed.
+ *
+ * @author Mario Bobic
+ */
+public class PagedDrawingWriter implements DrawingWriter {
+
+    /** Bytes that every paged document starts and ends with. */
+    public static final byte[] MAGIC = {'J', 'V', 'D', 'P'};
+    /** Version of the format written by this writer. */
+    public static final int VERSION = 1;
+    /** Maximum number of shapes in a page. */
+    public static final int PAGE_SIZE = 1024;
+
+    /** Size of a page entry of the footer in bytes. */
+    static final int PAGE_ENTRY_SIZE = Long.BYTES + 7 * Integer.BYTES;
+    /** Size of the end of the document in bytes. */
+    static final int TRAILER_SIZE = Long.BYTES + 4;
+
+    /** Bits of a Hilbert curve coordinate. */
+    private static final int HILBERT_BITS = 16;
+
+    /** Output stream of the document. */
+    private final DataOutputStream out;
+    /** Shapes written so far. */
+    private final List<GeometricalObject> shapes = new ArrayList<>();
+
+    /**
+     * Constructs an instance of {@code PagedDrawingWriter} that writes to the
+     * specified <tt>output</tt> stream.
+     *
+     * @param output output stream of the document
+     */
+    public PagedDrawingWriter(OutputStream output) {
+        out = new DataOutputStream(new BufferedOutputStream(output));
+    }
+
+    @Override
+    public void write(GeometricalObject shape) {
+        shapes.add(shape);
+    }
+
+    /**
+     * Writes the pages and the footer of the document and closes the
+     * underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeDocument();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Forms the pages of the written shapes and writes the whole document.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeDocument() throws IOException {
+        int n = shapes.size();
+        Rectangle[] boxes = new Rectangle[n];
+        long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+
+        for (int i = 0; i < n; i++) {
+            Rectangle r = boxes[i] = shapes.get(i).getBoundingBox();
+            minX = Math.min(minX, r.x);
+            minY = Math.min(minY, r.y);
+            maxX = Math.max(maxX, (long) r.x + r.width);
+            maxY = Math.max(maxY, (long) r.y + r.height);
+        }
+
+        // Hilbert index of the center in the high bits, drawing order index in the low bits
+        long[] keys = new long[n];
+        int cells = 1 << HILBERT_BITS;
+        for (int i = 0; i < n; i++) {
+            Rectangle r = boxes[i];
+            long x = ((long) r.x + r.x + r.width) / 2 - minX;
+            long y = ((long) r.y + r.y + r.height) / 2 - minY;
+            int hx = (int) (x * (cells - 1) / Math.max(1, maxX - minX));
+            int hy = (int) (y * (cells - 1) / Math.max(1, maxY - minY));
+            keys[i] = hilbert(hx, hy) << 31 | i;
+        }
+        Arrays.sort(keys);
+
+        out.write(MAGIC);
+        out.write(VERSION);
+        long position = MAGIC.length + 1;
+
+        int pageCount = (n + PAGE_SIZE - 1) / PAGE_SIZE;
+        ByteArrayOutputStream footerBytes = new ByteArrayOutputStream(2 * Integer.BYTES + pageCount * PAGE_ENTRY_SIZE);
+        DataOutputStream footer = new DataOutputStream(footerBytes);
+        footer.writeInt(pageCount);
+        footer.writeInt(n);
+
+        BlockEncoder encoder = new BlockEncoder(true);
+        int[] indices = new int[PAGE_SIZE];
+
+        for (int start = 0; start < n; start += PAGE_SIZE) {
+            int count = Math.min(PAGE_SIZE, n - start);
+            for (int i = 0; i < count; i++) {
+                indices[i] = (int) (keys[start + i] & Integer.MAX_VALUE);
+            }
+            Arrays.sort(indices, 0, count);
+
+            int pageMinX = Integer.MAX_VALUE, pageMinY = Integer.MAX_VALUE;
+            int pageMaxX = Integer.MIN_VALUE, pageMaxY = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                Rectangle r = boxes[indices[i]];
+                pageMinX = Math.min(pageMinX, r.x);
+                pageMinY = Math.min(pageMinY, r.y);
+                pageMaxX = Math.max(pageMaxX, r.x + r.width);
+                pageMaxY = Math.max(pageMaxY, r.y + r.height);
+                encoder.add(shapes.get(indices[i]), indices[i]);
+            }
+
+            footer.writeLong(position);
+            footer.writeInt(count);
+            footer.writeInt(pageMinX);
+            footer.writeInt(pageMinY);
+            footer.writeInt(pageMaxX);
+            footer.writeInt(pageMaxY);
+            footer.writeInt(indices[0]);
+            footer.writeInt(indices[count - 1]);
+
+            position += encoder.writeTo(out);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(footerBytes.toByteArray());
+
+        footerBytes.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        out.writeLong(position);
+        out.write(MAGIC);
+    }
+
+    /**
+     * Returns the distance along a Hilbert curve of the specified cell of a
+     * grid of <tt>2^16</tt> by <tt>2^16</tt> cells.
+     *
+     * @param x column of the cell
+     * @param y row of the cell
+     * @return the distance of the cell along a Hilbert curve
+     */
+    private static long hilbert(int x, int y) {
+        int n = 1 << HILBERT_BITS;
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+}
@@ -0,0 +1,240 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeTokenizer;
+
+/**
+ * A parallel reader of <tt>.jvd</tt> documents. The document is split into
+ * byte ranges of roughly equal size whose boundaries are aligned on line
+ * breaks, and every range is read and parsed as a separate task on a
+ * {@link ForkJoinPool}. Chunks are parsed straight from their bytes by a
+ * {@link ShapeTokenizer}.
+ * <p>
+ * Parsed chunks are merged in the original order of the document, so the
+ * drawing order of shapes is the same as with the {@link DrawingReader}. Each
+ * chunk is handed over as one batch as soon as it and all chunks before it are
+ * parsed. Only a limited number of chunks is parsed ahead of the chunk that is
+ * to be handed over next, so memory used by reading stays bounded.
+ *
+ * @author Mario Bobic
+ */
+public class ParallelDrawingReader {
+
+    /** Default size of a chunk in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /** Size of the buffer used for finding line breaks at chunk boundaries. */
+    private static final int SCAN_BUFFER_SIZE = 256;
+
+    /**
+     * Disables instantiation.
+     */
+    private ParallelDrawingReader() {
+    }
+
+    /**
+     * Reads the <tt>.jvd</tt> document at the specified <tt>file</tt> in
+     * chunks of {@link #DEFAULT_CHUNK_SIZE} bytes parsed on the common
+     * {@code ForkJoinPool}, and passes its shapes to the specified
+     * <tt>consumer</tt> in the order they appear in the document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a line can not be parsed
+     */
+    public static void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        read(file, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, consumer);
+    }
+
+    /**
+     * Reads the <tt>.jvd</tt> document at the specified <tt>file</tt> in
+     * chunks of roughly <tt>chunkSize</tt> bytes parsed on the specified
+     * <tt>pool</tt>, and passes its shapes to the specified <tt>consumer</tt>
+     * in the order they appear in the document, one batch per chunk. The
+     * consumer is called on the calling thread.
+     *
+     * @param file path of the document
+     * @param pool pool that parses chunks
+     * @param chunkSize size of a chunk in bytes
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a line can not be parsed or if
+     *         <tt>chunkSize</tt> is not positive
+     */
+    public static void read(Path file, ForkJoinPool pool, int chunkSize, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        int window = 2 * pool.getParallelism();
+        Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>(window);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = 0;
+            long lines = 0;
+
+            while (start < size || !pending.isEmpty()) {
+                while (start < size && pending.size() < window) {
+                    long end = lineBoundary(channel, start + chunkSize, size);
+                    pending.add(pool.submit(new ParseTask(channel, start, end)));
+                    start = end;
+                }
+
+                Chunk chunk = join(pending.poll());
+                if (chunk.error != null) {
+                    pending.forEach((task) -> task.cancel(false));
+                    throw new IllegalArgumentException(
+                        "Line " + (lines + chunk.errorLine) + ": " + chunk.error.getMessage(), chunk.error
+                    );
+                }
+
+                lines += chunk.lineCount;
+                if (!chunk.shapes.isEmpty()) {
+                    consumer.accept(chunk.shapes);
+                }
+            }
+        } finally {
+            pending.forEach((task) -> task.cancel(false));
+        }
+    }
+
+    /**
+     * Waits for the specified <tt>task</tt> to complete and returns its
+     * result, rethrowing an I/O error that occurred in the task.
+     *
+     * @param task task to be joined
+     * @return the result of the task
+     * @throws IOException if an I/O error occurred in the task
+     */
+    private static Chunk join(ForkJoinTask<Chunk> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the position just after the first line break at or after the
+     * byte preceding the specified <tt>position</tt>, or <tt>size</tt> if
+     * there is no such line break. The returned position is therefore the
+     * start of a line.
+     *
+     * @param channel channel of the document
+     * @param position position to start searching from
+     * @param size size of the document
+     * @return position of the start of a line
+     * @throws IOException if an I/O error occurs
+     */
+    private static long lineBoundary(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+
+        for (long pos = position - 1; pos < size; ) {
+            buffer.clear();
+            int read = channel.read(buffer, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * Shapes parsed from a chunk of the document, or the first error that
+     * occurred while parsing it.
+     */
+    private static class Chunk {
+        /** Parsed shapes in document order. */
+        private List<GeometricalObject> shapes = new ArrayList<>();
+        /** Number of lines in the chunk. */
+        private int lineCount;
+        /** The first parsing error, or <tt>null</tt>. */
+        private IllegalArgumentException error;
+        /** Number of the erroneous line within the chunk, starting from 1. */
+        private int errorLine;
+    }
+
+    /**
+     * A task that reads a chunk of the document and parses its lines.
+     */
+    private static class ParseTask extends RecursiveTask<Chunk> {
+        /** Serialization UID. */
+        private static final long serialVersionUID = 1L;
+
+        /** Channel of the document. */
+        private final FileChannel channel;
+        /** Position of the first byte of the chunk. */
+        private final long start;
+        /** Position just after the last byte of the chunk. */
+        private final long end;
+
+        /**
+         * Constructs an instance of {@code ParseTask} for the chunk between
+         * <tt>start</tt> inclusive and <tt>end</tt> exclusive.
+         *
+         * @param channel channel of the document
+         * @param start position of the first byte of the chunk
+         * @param end position just after the last byte of the chunk
+         */
+        public ParseTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Chunk compute() {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            buffer.flip();
+            ShapeTokenizer tokenizer = new ShapeTokenizer(buffer);
+            Chunk chunk = new Chunk();
+
+            while (tokenizer.hasNext()) {
+                try {
+                    chunk.shapes.add(tokenizer.next());
+                } catch (IllegalArgumentException e) {
+                    chunk.error = e;
+                    chunk.errorLine = tokenizer.getLineNumber();
+                    return chunk;
+                }
+            }
+
+            chunk.lineCount = tokenizer.getLineNumber();
+            return chunk;
+        }
+    }
+
+}
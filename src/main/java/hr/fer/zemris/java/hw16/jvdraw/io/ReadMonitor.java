@@ -0,0 +1,36 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+/**
+ * A monitor of a long running document read. The reader reports its progress
+ * to the monitor and periodically asks it whether the read was cancelled, in
+ * which case the reader stops and throws a
+ * {@link java.util.concurrent.CancellationException CancellationException}.
+ * <p>
+ * Both methods are called on the reading thread.
+ *
+ * @author Mario Bobic
+ */
+public interface ReadMonitor {
+
+    /** A monitor that ignores progress and is never cancelled. */
+    ReadMonitor NONE = new ReadMonitor() {};
+
+    /**
+     * Reports that <tt>done</tt> out of <tt>total</tt> bytes were read.
+     *
+     * @param done number of bytes read so far
+     * @param total total number of bytes to be read
+     */
+    default void progress(long done, long total) {
+    }
+
+    /**
+     * Returns <tt>true</tt> if the read was cancelled and should be stopped.
+     *
+     * @return true if the read was cancelled
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+
+}
@@ -0,0 +1,183 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * A reader of <tt>.jvdr</tt> documents, the fixed-width record format
+ * described in {@link RecordDrawingWriter}. Records are read in chunks and
+ * tombstones are skipped, and the shapes are handed over in batches of
+ * {@link DrawingReader#DEFAULT_BATCH_SIZE}.
+ *
+ * @author Mario Bobic
+ */
+public class RecordDrawingReader {
+
+    /** All shape types, indexed by their ordinals. */
+    private static final ShapeType[] TYPES = ShapeType.values();
+
+    /**
+     * Disables instantiation.
+     */
+    private RecordDrawingReader() {
+    }
+
+    /**
+     * Reads the <tt>.jvdr</tt> document at the specified <tt>file</tt> and
+     * passes its shapes to the specified <tt>consumer</tt> in batches, in the
+     * order they appear in the document.
+     *
+     * @param file path of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted or not a record document
+     */
+    public static void read(Path file, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            read(input, consumer);
+        }
+    }
+
+    /**
+     * Reads a <tt>.jvdr</tt> document from the specified <tt>input</tt>
+     * stream and passes its shapes to the specified <tt>consumer</tt> in
+     * batches, in the order they appear in the document. Every batch is a new
+     * list, so the consumer may keep it. The stream is not closed by this
+     * method.
+     *
+     * @param input input stream of the document
+     * @param consumer consumer of shape batches
+     * @throws IOException if an I/O error occurs or if the document is
+     *         corrupted or not a record document
+     */
+    public static void read(InputStream input, Consumer<List<GeometricalObject>> consumer) throws IOException {
+        byte[] header = new byte[RecordDrawingWriter.HEADER_SIZE];
+        if (readFully(input, header, 0, header.length) < header.length) {
+            throw new EOFException("Unexpected end of record drawing.");
+        }
+        checkHeader(header);
+
+        int batchSize = DrawingReader.DEFAULT_BATCH_SIZE;
+        byte[] chunk = new byte[batchSize * RecordDrawingWriter.RECORD_SIZE];
+        int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+        List<GeometricalObject> batch = new ArrayList<>(batchSize);
+        while (true) {
+            int n = readFully(input, chunk, 0, chunk.length);
+            if (n % RecordDrawingWriter.RECORD_SIZE != 0) {
+                throw new EOFException("Unexpected end of record drawing.");
+            }
+
+            for (int offset = 0; offset < n; offset += RecordDrawingWriter.RECORD_SIZE) {
+                GeometricalObject shape = decode(chunk, offset, args);
+                if (shape == null) {
+                    continue;
+                }
+                batch.add(shape);
+                if (batch.size() == batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+
+            if (n < chunk.length) {
+                break;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Checks that the specified bytes are the header of a record document of
+     * a supported version.
+     *
+     * @param header first {@link RecordDrawingWriter#HEADER_SIZE} bytes of
+     *        the document
+     * @throws IOException if the header is not a supported record header
+     */
+    static void checkHeader(byte[] header) throws IOException {
+        if (!Arrays.equals(Arrays.copyOf(header, RecordDrawingWriter.MAGIC.length), RecordDrawingWriter.MAGIC)) {
+            throw new IOException("Not a record drawing.");
+        }
+        int version = header[4] & 0xFF;
+        if (version > RecordDrawingWriter.VERSION) {
+            throw new IOException("Unsupported record drawing version: " + version);
+        }
+        if ((header[5] & 0xFF) != RecordDrawingWriter.RECORD_SIZE) {
+            throw new IOException("Unsupported record size: " + (header[5] & 0xFF));
+        }
+    }
+
+    /**
+     * Decodes the record that starts at the specified <tt>offset</tt> of the
+     * specified array.
+     *
+     * @param bytes array holding the record
+     * @param offset index of the first byte of the record
+     * @param args array of at least {@link ShapeType#MAX_ARGUMENTS} elements
+     *        to use for the arguments of the shape
+     * @return the shape of the record, or <tt>null</tt> if it is a tombstone
+     * @throws IOException if the record has an unknown tag
+     */
+    static GeometricalObject decode(byte[] bytes, int offset, int[] args) throws IOException {
+        int tag = bytes[offset] & 0xFF;
+        if (tag == RecordDrawingWriter.TOMBSTONE) {
+            return null;
+        }
+        if (tag > TYPES.length) {
+            throw new IOException("Unknown shape type tag: " + tag);
+        }
+
+        ShapeType type = TYPES[tag - 1];
+        offset += 4;
+
+        int geometric = type.getArgumentCount() - 3 * type.getColorCount();
+        for (int i = 0; i < geometric; i++) {
+            args[i] = (bytes[offset] << 24) | (bytes[offset + 1] & 0xFF) << 16
+                    | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+            offset += 4;
+        }
+        for (int i = geometric, n = type.getArgumentCount(); i < n; i++) {
+            args[i] = bytes[offset++] & 0xFF;
+        }
+
+        return type.create(args);
+    }
+
+    /**
+     * Reads up to <tt>length</tt> bytes from the specified <tt>input</tt>
+     * stream, stopping early only at the end of the stream.
+     *
+     * @param input stream to be read from
+     * @param bytes array to read into
+     * @param offset index of the first byte to be read into
+     * @param length number of bytes to be read
+     * @return the number of bytes read
+     * @throws IOException if an I/O error occurs
+     */
+    private static int readFully(InputStream input, byte[] bytes, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = input.read(bytes, offset + read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+}
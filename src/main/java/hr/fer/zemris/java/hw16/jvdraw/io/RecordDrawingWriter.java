@@ -0,0 +1,143 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * A writer of <tt>.jvdr</tt> documents, the fixed-width record format. Every
+ * shape takes exactly {@link #RECORD_SIZE} bytes, so the record of the shape
+ * at any index can be found, read and rewritten without touching the rest of
+ * the document, see {@link RecordFile}.
+ * <p>
+ * A document starts with the {@link #MAGIC} bytes, a {@link #VERSION} byte,
+ * a byte with the record size and two reserved bytes, which are followed by
+ * the records. A record starts with a tag byte, which is the
+ * {@link ShapeType#ordinal() ordinal} of the shape type plus one, or zero for
+ * a tombstone of a removed shape, and three reserved bytes. The tag is
+ * followed by the geometric arguments of the shape as big-endian integers and
+ * by the red, green and blue bytes of its colors. The rest of the record is
+ * filled with zeros.
+ *
+ * @author Mario Bobic
+ */
+public class RecordDrawingWriter implements DrawingWriter {
+
+    /** Bytes that every record document starts with. */
+    public static final byte[] MAGIC = {'J', 'V', 'D', 'R'};
+    /** Version of the format written by this writer. */
+    public static final int VERSION = 1;
+    /** Size of the header in bytes. */
+    public static final int HEADER_SIZE = 8;
+    /** Size of a record in bytes, enough for the largest shape type. */
+    public static final int RECORD_SIZE = 32;
+    /** Tag of a tombstone record. */
+    public static final int TOMBSTONE = 0;
+
+    /** Number of records in the buffer. */
+    private static final int BUFFER_RECORDS = 2048;
+
+    /** Output stream of the document. */
+    private final OutputStream out;
+    /** Buffer of encoded records. */
+    private final byte[] buffer = new byte[BUFFER_RECORDS * RECORD_SIZE];
+    /** Number of bytes in the buffer. */
+    private int length;
+    /** Arguments of the shape being written, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code RecordDrawingWriter} that writes to
+     * the specified <tt>output</tt> stream, and puts the header into the
+     * buffer.
+     *
+     * @param output output stream of the document
+     */
+    public RecordDrawingWriter(OutputStream output) {
+        out = output;
+        length = putHeader(buffer);
+    }
+
+    @Override
+    public void write(GeometricalObject shape) throws IOException {
+        if (length + RECORD_SIZE > buffer.length) {
+            flushBuffer();
+        }
+        encode(shape, args, buffer, length);
+        length += RECORD_SIZE;
+    }
+
+    /**
+     * Writes the buffer to the underlying stream and empties it.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Puts the header of a record document at the start of the specified
+     * array.
+     *
+     * @param bytes array to put the header into
+     * @return the size of the header
+     */
+    static int putHeader(byte[] bytes) {
+        System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+        bytes[4] = VERSION;
+        bytes[5] = RECORD_SIZE;
+        bytes[6] = 0;
+        bytes[7] = 0;
+        return HEADER_SIZE;
+    }
+
+    /**
+     * Encodes the record of the specified <tt>shape</tt> into the specified
+     * array, starting from <tt>offset</tt>.
+     *
+     * @param shape shape to be encoded
+     * @param args array of at least {@link ShapeType#MAX_ARGUMENTS} elements
+     *        to use for the arguments of the shape
+     * @param bytes array to encode the record into
+     * @param offset index of the first byte of the record
+     */
+    static void encode(GeometricalObject shape, int[] args, byte[] bytes, int offset) {
+        ShapeType type = shape.getShapeType();
+        type.getArguments(shape, args);
+
+        int end = offset + RECORD_SIZE;
+        bytes[offset++] = (byte) (type.ordinal() + 1);
+        bytes[offset++] = 0;
+        bytes[offset++] = 0;
+        bytes[offset++] = 0;
+
+        int geometric = type.getArgumentCount() - 3 * type.getColorCount();
+        for (int i = 0; i < geometric; i++) {
+            int value = args[i];
+            bytes[offset++] = (byte) (value >>> 24);
+            bytes[offset++] = (byte) (value >>> 16);
+            bytes[offset++] = (byte) (value >>> 8);
+            bytes[offset++] = (byte) value;
+        }
+        for (int i = geometric, n = type.getArgumentCount(); i < n; i++) {
+            bytes[offset++] = (byte) args[i];
+        }
+        while (offset < end) {
+            bytes[offset++] = 0;
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModel;
+import hr.fer.zemris.java.hw16.jvdraw.components.DrawingModelListener;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * A <tt>.jvdr</tt> document that is updated in place. Since every shape of a
+ * record document takes a record of the same size, described in
+ * {@link RecordDrawingWriter}, saving the changes of a drawing only rewrites
+ * the records of the shapes that changed, so an edit of a single shape costs
+ * a single record write regardless of the size of the drawing.
+ * <p>
+ * A record file listens to its {@link DrawingModel} and keeps the slot of the
+ * record of every shape, in drawing order. Changed shapes are encoded into
+ * their slots, removed shapes leave tombstones in their slots, and added
+ * shapes take new slots at the end of the document. Shapes inserted between
+ * other shapes, which the canvas never does, move the following shapes to new
+ * slots as well. The records are kept in memory until they are
+ * {@link #commit() committed}, when they are written with positional writes
+ * of the document channel, consecutive slots at once. Consecutive changes of
+ * the same shape, such as those made while a shape is drawn, are folded into
+ * a single record.
+ * <p>
+ * Once tombstones outnumber the shapes and there are at least
+ * {@link #MIN_COMPACTION_TOMBSTONES} of them, a commit compacts the document
+ * instead, by writing the shapes of the model to a new document and
+ * replacing the old one with it. Unlike a compaction, a commit is not atomic,
+ * so a commit that is interrupted may leave only a part of its records
+ * written.
+ * <p>
+ * Like the model, a record file must be used only from the event dispatch
+ * thread.
+ *
+ * @author Mario Bobic
+ */
+public class RecordFile implements DrawingModelListener, Closeable {
+
+    /** Smallest number of tombstones for which the document is compacted. */
+    public static final int MIN_COMPACTION_TOMBSTONES = 4096;
+
+    /** Size of a record in bytes. */
+    private static final int RECORD_SIZE = RecordDrawingWriter.RECORD_SIZE;
+    /** Number of records read at a time while the document is scanned. */
+    private static final int SCAN_RECORDS = 8192;
+    /** Prefix of the name of a document that is being written by compaction. */
+    private static final String COMPACTION_PREFIX = ".compacting-";
+
+    /** Path of the document. */
+    private final Path document;
+    /** Model whose changes are written. */
+    private final DrawingModel model;
+    /** Channel of the document. */
+    private FileChannel channel;
+
+    /** Slots of the records of the shapes, in drawing order. */
+    private int[] slots;
+    /** Number of slots in use, one for each shape of the drawing. */
+    private int size;
+    /** Number of slots of the document, including those not written yet. */
+    private int slotCount;
+
+    /** Slots of the pending records, in the order they were made. */
+    private int[] pendingSlots = new int[64];
+    /** Pending records, one after another. */
+    private byte[] pendingRecords = new byte[64 * RECORD_SIZE];
+    /** Number of pending records. */
+    private int pendingCount;
+    /** Arguments of the shape being encoded, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code RecordFile} that writes the changes
+     * of the specified <tt>model</tt> to the record document at the specified
+     * <tt>document</tt> path. The document is scanned for tombstones, and its
+     * shapes must be the shapes of the model.
+     *
+     * @param document path of the record document
+     * @param model model whose changes are to be written
+     * @throws IOException if an I/O error occurs, if the document is not a
+     *         record document or if it does not have as many shapes as the
+     *         model
+     */
+    public RecordFile(Path document, DrawingModel model) throws IOException {
+        this.document = document;
+        this.model = model;
+
+        channel = FileChannel.open(document, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            scan();
+            if (size != model.getSize()) {
+                throw new IOException("Document " + document + " does not match the drawing.");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        model.addDrawingModelListener(this);
+    }
+
+    /**
+     * Returns the path of the document of this file.
+     *
+     * @return the path of the document
+     */
+    public Path getDocument() {
+        return document;
+    }
+
+    /**
+     * Returns <tt>true</tt> if there are records that are not committed yet.
+     *
+     * @return true if there are uncommitted records
+     */
+    public boolean hasPendingChanges() {
+        return pendingCount > 0;
+    }
+
+    /**
+     * Checks the header of the document and collects the slots of all
+     * records that are not tombstones.
+     *
+     * @throws IOException if an I/O error occurs or if the document is not a
+     *         valid record document
+     */
+    private void scan() throws IOException {
+        long length = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_RECORDS * RECORD_SIZE);
+
+        buffer.limit(RecordDrawingWriter.HEADER_SIZE);
+        readFully(buffer, 0);
+        RecordDrawingReader.checkHeader(buffer.array());
+
+        long records = (length - RecordDrawingWriter.HEADER_SIZE) / RECORD_SIZE;
+        if ((length - RecordDrawingWriter.HEADER_SIZE) % RECORD_SIZE != 0) {
+            throw new IOException("Unexpected end of record drawing.");
+        }
+        if (records > Integer.MAX_VALUE) {
+            throw new IOException("Record drawing is too large: " + document);
+        }
+
+        slotCount = (int) records;
+        slots = new int[Math.max(16, slotCount)];
+        byte[] bytes = buffer.array();
+
+        for (int slot = 0; slot < slotCount; ) {
+            int n = Math.min(SCAN_RECORDS, slotCount - slot);
+            buffer.clear();
+            buffer.limit(n * RECORD_SIZE);
+            readFully(buffer, position(slot));
+
+            for (int i = 0; i < n; i++, slot++) {
+                if (bytes[i * RECORD_SIZE] != RecordDrawingWriter.TOMBSTONE) {
+                    slots[size++] = slot;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void objectsAdded(DrawingModel source, int index0, int index1) {
+        int count = index1 - index0 + 1;
+
+        // Shapes that follow the added ones must stay after them in the document
+        for (int i = index0; i < size; i++) {
+            put(slots[i], null);
+        }
+
+        if (size + count > slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(2 * slots.length, size + count));
+        }
+        System.arraycopy(slots, index0, slots, index0 + count, size - index0);
+        size += count;
+
+        for (int i = index0; i < size; i++) {
+            slots[i] = slotCount++;
+            put(slots[i], source.getObject(i));
+        }
+    }
+
+    @Override
+    public void objectsRemoved(DrawingModel source, int index0, int index1) {
+        int count = index1 - index0 + 1;
+        for (int i = index0; i < index0 + count; i++) {
+            put(slots[i], null);
+        }
+        System.arraycopy(slots, index0 + count, slots, index0, size - index0 - count);
+        size -= count;
+    }
+
+    @Override
+    public void objectsChanged(DrawingModel source, int index0, int index1) {
+        for (int i = index0; i <= index1; i++) {
+            put(slots[i], source.getObject(i));
+        }
+    }
+
+    /**
+     * Appends the record of the specified <tt>shape</tt> to the pending
+     * records, or replaces the last pending record if it has the same slot.
+     *
+     * @param slot slot of the record
+     * @param shape shape of the record, or <tt>null</tt> for a tombstone
+     */
+    private void put(int slot, GeometricalObject shape) {
+        int index = pendingCount;
+        if (index > 0 && pendingSlots[index - 1] == slot) {
+            index--;
+        } else {
+            if (index == pendingSlots.length) {
+                pendingSlots = Arrays.copyOf(pendingSlots, 2 * index);
+                pendingRecords = Arrays.copyOf(pendingRecords, 2 * index * RECORD_SIZE);
+            }
+            pendingSlots[index] = slot;
+            pendingCount++;
+        }
+
+        int offset = index * RECORD_SIZE;
+        if (shape == null) {
+            Arrays.fill(pendingRecords, offset, offset + RECORD_SIZE, (byte) RecordDrawingWriter.TOMBSTONE);
+        } else {
+            RecordDrawingWriter.encode(shape, args, pendingRecords, offset);
+        }
+    }
+
+    /**
+     * Writes the pending records to their slots of the document and forces
+     * them to the storage device, or compacts the document if it holds too
+     * many tombstones. If writing fails, the records remain pending.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void commit() throws IOException {
+        if (pendingCount == 0) {
+            return;
+        }
+
+        int tombstones = slotCount - size;
+        if (tombstones >= MIN_COMPACTION_TOMBSTONES && tombstones > size) {
+            compact();
+            return;
+        }
+
+        for (int start = 0; start < pendingCount; ) {
+            int end = start + 1;
+            while (end < pendingCount && pendingSlots[end] == pendingSlots[end - 1] + 1) {
+                end++;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(pendingRecords, start * RECORD_SIZE, (end - start) * RECORD_SIZE);
+            long position = position(pendingSlots[start]);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            start = end;
+        }
+
+        channel.force(false);
+        pendingCount = 0;
+    }
+
+    /**
+     * Writes the shapes of the model to a new document without tombstones
+     * and replaces the document with it.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void compact() throws IOException {
+        Path compacted = document.resolveSibling(COMPACTION_PREFIX + document.getFileName());
+        try {
+            try (DrawingWriter writer = new RecordDrawingWriter(Files.newOutputStream(compacted))) {
+                for (int i = 0; i < size; i++) {
+                    writer.write(model.getObject(i));
+                }
+            }
+            channel.force(false);
+            channel.close();
+            Files.move(compacted, document, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(compacted);
+            if (!channel.isOpen()) {
+                channel = FileChannel.open(document, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = i;
+        }
+        slotCount = size;
+        pendingCount = 0;
+    }
+
+    /**
+     * Reads bytes from the document at the specified <tt>position</tt> until
+     * the buffer is full.
+     *
+     * @param buffer buffer to read into
+     * @param position position of the first byte to be read
+     * @throws IOException if an I/O error occurs or if the document ends
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of record drawing.");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Returns the position of the record at the specified <tt>slot</tt> of
+     * the document.
+     *
+     * @param slot slot of the record
+     * @return the position of the record
+     */
+    private static long position(int slot) {
+        return RecordDrawingWriter.HEADER_SIZE + (long) slot * RECORD_SIZE;
+    }
+
+    /**
+     * Stops writing the changes of the model and closes the document.
+     * Records that were not committed are discarded.
+     */
+    @Override
+    public void close() {
+        model.removeDrawingModelListener(this);
+        try {
+            channel.close();
+        } catch (IOException ignorable) {}
+    }
+
+}
@@ -0,0 +1,136 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import hr.fer.zemris.java.hw16.jvdraw.shapes.GeometricalObject;
+import hr.fer.zemris.java.hw16.jvdraw.shapes.ShapeType;
+
+/**
+ * A writer of <tt>.jvd</tt> documents. Every shape is written as its
+ * {@link GeometricalObject#serialize() serialized} form followed by the line
+ * separator of the platform.
+ * <p>
+ * Shapes are not serialized to strings. The keyword and the
+ * {@link ShapeType#getArguments(GeometricalObject, int[]) arguments} of a
+ * shape are encoded as ASCII straight into a reused byte buffer, which is
+ * written to the underlying stream whenever it fills up, so writing a shape
+ * allocates no objects. The bytes are the same as those of the serialized
+ * form, whose numbers are always written with ASCII digits.
+ *
+ * @author Mario Bobic
+ */
+public class TextDrawingWriter implements DrawingWriter {
+
+    /** Size of the buffer in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Keywords of shape types, indexed by type ordinals. */
+    private static final byte[][] KEYWORDS = new byte[ShapeType.values().length][];
+    /** Line separator of the platform. */
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    /** Maximum length of a line, including the line separator. */
+    private static final int MAX_LINE_LENGTH;
+
+    static {
+        int keywordLength = 0;
+        for (ShapeType type : ShapeType.values()) {
+            KEYWORDS[type.ordinal()] = type.getKeyword().getBytes(StandardCharsets.US_ASCII);
+            keywordLength = Math.max(keywordLength, KEYWORDS[type.ordinal()].length);
+        }
+        // A space and at most eleven characters for every argument
+        MAX_LINE_LENGTH = keywordLength + 12 * ShapeType.MAX_ARGUMENTS + LINE_SEPARATOR.length;
+    }
+
+    /** Output stream of the document. */
+    private final OutputStream out;
+    /** Buffer of encoded lines. */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /** Number of bytes in the buffer. */
+    private int length;
+    /** Arguments of the shape being written, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code TextDrawingWriter} that writes to the
+     * specified <tt>output</tt> stream.
+     *
+     * @param output output stream of the document
+     */
+    public TextDrawingWriter(OutputStream output) {
+        out = output;
+    }
+
+    @Override
+    public void write(GeometricalObject shape) throws IOException {
+        ShapeType type = shape.getShapeType();
+        type.getArguments(shape, args);
+
+        if (length + MAX_LINE_LENGTH > buffer.length) {
+            flushBuffer();
+        }
+
+        put(KEYWORDS[type.ordinal()]);
+        for (int i = 0, n = type.getArgumentCount(); i < n; i++) {
+            buffer[length++] = ' ';
+            putInteger(args[i]);
+        }
+        put(LINE_SEPARATOR);
+    }
+
+    /**
+     * Puts the specified bytes into the buffer.
+     *
+     * @param bytes bytes to be put
+     */
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Puts the decimal digits of the specified <tt>value</tt> into the
+     * buffer, preceded by a minus sign if the value is negative.
+     *
+     * @param value value to be put
+     */
+    private void putInteger(int value) {
+        long v = value;
+        if (v < 0) {
+            buffer[length++] = '-';
+            v = -v;
+        }
+
+        int digits = 1;
+        for (long bound = 10; bound <= v; bound *= 10) {
+            digits++;
+        }
+
+        int pos = length + digits;
+        do {
+            buffer[--pos] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        length += digits;
+    }
+
+    /**
+     * Writes the buffer to the underlying stream and empties it.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+}
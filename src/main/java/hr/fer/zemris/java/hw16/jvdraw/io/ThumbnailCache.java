@@ -0,0 +1,250 @@
+package hr.fer.zemris.java.hw16.jvdraw.io;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A cache of thumbnails of documents, kept on disk so thumbnails survive
+ * restarts of the program. A thumbnail is stored as a PNG image whose name is
+ * derived from the absolute path, the last modification time and the size of
+ * its document, so a thumbnail of a document that changed is never found and
+ * simply ages out of the cache.
+ * <p>
+ * The cache holds at most {@link #MAX_ENTRIES} thumbnails and at most
+ * {@link #MAX_BYTES} bytes of them, and evicts the least recently used
+ * thumbnails first. The order of use is kept in memory and persisted through
+ * the modification times of the thumbnail files, which are updated whenever a
+ * thumbnail is used, and from which the order is restored when the cache is
+ * first used.
+ * <p>
+ * The cache may be used from any thread. Errors of the cache are ignored, as
+ * a thumbnail can always be rendered again.
+ *
+ * @author Mario Bobic
+ */
+public class ThumbnailCache {
+
+    /** Default directory of the cache. */
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".jvdraw", "thumbnails");
+    /** Maximum number of thumbnails in the cache. */
+    public static final int MAX_ENTRIES = 1024;
+    /** Maximum total size of the thumbnails in the cache, in bytes. */
+    public static final long MAX_BYTES = 32 << 20;
+
+    /** Extension of thumbnail files. */
+    private static final String EXTENSION = ".png";
+
+    /** Directory of the cache. */
+    private final Path directory;
+    /**
+     * Sizes of the thumbnail files mapped by their names, the least recently
+     * used first, or <tt>null</tt> if they are not loaded yet.
+     */
+    private LinkedHashMap<String, Long> entries;
+    /** Total size of the thumbnail files. */
+    private long bytes;
+
+    /**
+     * Constructs an instance of {@code ThumbnailCache} in the
+     * {@link #DEFAULT_DIRECTORY}.
+     */
+    public ThumbnailCache() {
+        this(DEFAULT_DIRECTORY);
+    }
+
+    /**
+     * Constructs an instance of {@code ThumbnailCache} in the specified
+     * <tt>directory</tt>, which is created once the first thumbnail is put.
+     *
+     * @param directory directory of the cache
+     */
+    public ThumbnailCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached thumbnail of the document at the specified
+     * <tt>file</tt>, or <tt>null</tt> if there is none for the current
+     * version of the document.
+     *
+     * @param file path of the document
+     * @return the thumbnail of the document, or null
+     */
+    public BufferedImage get(Path file) {
+        String name = name(file);
+        if (name == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            load();
+            if (entries.get(name) == null) {
+                return null;
+            }
+        }
+
+        Path thumbnail = directory.resolve(name);
+        try {
+            BufferedImage image = ImageIO.read(thumbnail.toFile());
+            Files.setLastModifiedTime(thumbnail, FileTime.fromMillis(System.currentTimeMillis()));
+            return image;
+        } catch (IOException e) {
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Puts the specified <tt>image</tt> into the cache as the thumbnail of
+     * the current version of the document at the specified <tt>file</tt>,
+     * and evicts the least recently used thumbnails if the cache is full.
+     *
+     * @param file path of the document
+     * @param image thumbnail of the document
+     */
+    public void put(Path file, BufferedImage image) {
+        String name = name(file);
+        if (name == null) {
+            return;
+        }
+
+        Path thumbnail = directory.resolve(name);
+        Path temporary = directory.resolve("." + name + ".tmp");
+        long size;
+        try {
+            Files.createDirectories(directory);
+            ImageIO.write(image, "png", temporary.toFile());
+            size = Files.size(temporary);
+            Files.move(temporary, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignorable) {}
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            load();
+            Long old = entries.put(name, size);
+            bytes += size - (old == null ? 0 : old);
+
+            Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+            while ((entries.size() > MAX_ENTRIES || bytes > MAX_BYTES) && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(name)) {
+                    break;
+                }
+                bytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+
+        for (String key : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(key));
+            } catch (IOException ignorable) {}
+        }
+    }
+
+    /**
+     * Removes the thumbnail with the specified file <tt>name</tt> from the
+     * cache.
+     *
+     * @param name file name of the thumbnail
+     */
+    private void remove(String name) {
+        synchronized (this) {
+            Long size = entries.remove(name);
+            if (size != null) {
+                bytes -= size;
+            }
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException ignorable) {}
+    }
+
+    /**
+     * Loads the thumbnail files of the cache directory in the order of their
+     * last use, if they are not loaded yet.
+     */
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        Map<String, BasicFileAttributes> files = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                files.put(path.getFileName().toString(), Files.readAttributes(path, BasicFileAttributes.class));
+            }
+        } catch (IOException e) {
+            // thumbnails that were not listed are rendered again
+        }
+
+        List<String> names = new ArrayList<>(files.keySet());
+        names.sort((n1, n2) -> files.get(n1).lastModifiedTime().compareTo(files.get(n2).lastModifiedTime()));
+        for (String name : names) {
+            long size = files.get(name).size();
+            entries.put(name, size);
+            bytes += size;
+        }
+    }
+
+    /**
+     * Returns the file name of the thumbnail of the current version of the
+     * document at the specified <tt>file</tt>, which is a hash of its
+     * absolute path, last modification time and size, or <tt>null</tt> if
+     * the document can not be accessed.
+     *
+     * @param file path of the document
+     * @return the file name of the thumbnail, or null
+     */
+    private static String name(Path file) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+
+        String key = file.toAbsolutePath() + "\0" + attributes.lastModifiedTime().toMillis() + "\0" + attributes.size();
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError("SHA-1 is not supported.", e);
+        }
+
+        StringBuilder sb = new StringBuilder(2 * digest.length + EXTENSION.length());
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.append(EXTENSION).toString();
+    }
+
+}
@@ -2,7 +2,10 @@ package hr.fer.zemris.java.hw16.jvdraw.shapes;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.AbstractShapePanel;
@@ -20,11 +23,6 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.CirclePanel;
  */
 public class Circle extends GeometricalObject {
 
-    /** Counter of this class' instantiated objects. */
-    protected static int instanceCounter = 0;
-    /** Instance index of this object. */
-    private int instance;
-
     /** Horizontal coordinate of the circle center. */
     protected int x;
     /** Vertical coordinate of the circle center. */
@@ -46,11 +44,6 @@ public class Circle extends GeometricalObject {
         this.x = x;
         this.y = y;
         this.radius = radius;
-
-        synchronized (Circle.class) {
-            instanceCounter++;
-            instance = instanceCounter;
-        }
     }
 
     /**
@@ -63,13 +56,6 @@ public class Circle extends GeometricalObject {
         this(x, y, 0);
     }
 
-    /**
-     * Resets the instance counter of this class.
-     */
-    public static void resetCounter() {
-        instanceCounter = 0;
-    }
-
     /**
      * Returns a {@link ShapeCreator} object for this class.
      *
@@ -197,6 +183,87 @@ public class Circle extends GeometricalObject {
         return new Rectangle(x-radius, y-radius, 2*radius, 2*radius);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The circle is hit if the distance of the point from the center differs
+     * from the radius by no more than the tolerance, that is if the point lies
+     * on the ring around the circle outline.
+     */
+    @Override
+    public boolean isHit(int x, int y, int tolerance) {
+        double distance = Math.hypot(x - this.x, y - this.y);
+        return Math.abs(distance - radius) <= tolerance;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The circle outline intersects the rectangle if the nearest point of the
+     * rectangle is inside of the circle and the farthest one is outside.
+     */
+    @Override
+    public boolean intersects(Rectangle r) {
+        return nearestDistance(r) <= radius && farthestDistance(r) >= radius;
+    }
+
+    /**
+     * Returns the distance of the circle center from the nearest point of the
+     * specified rectangle <tt>r</tt>.
+     *
+     * @param r the rectangle
+     * @return the distance of the center from the nearest point of r
+     */
+    protected double nearestDistance(Rectangle r) {
+        int nx = Math.max(r.x, Math.min(x, r.x + r.width));
+        int ny = Math.max(r.y, Math.min(y, r.y + r.height));
+        return Math.hypot(x - nx, y - ny);
+    }
+
+    /**
+     * Returns the distance of the circle center from the farthest point of the
+     * specified rectangle <tt>r</tt>.
+     *
+     * @param r the rectangle
+     * @return the distance of the center from the farthest point of r
+     */
+    private double farthestDistance(Rectangle r) {
+        int fx = Math.max(Math.abs(x - r.x), Math.abs(x - r.x - r.width));
+        int fy = Math.max(Math.abs(y - r.y), Math.abs(y - r.y - r.height));
+        return Math.hypot(fx, fy);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Points of the outline are visited with a step of about one pixel.
+     */
+    @Override
+    public boolean isInside(Region region) {
+        int n = Math.max(8, (int) Math.ceil(2 * Math.PI * radius));
+
+        for (int i = 0; i < n; i++) {
+            double angle = 2 * Math.PI * i / n;
+            int px = (int) Math.round(x + radius * Math.cos(angle));
+            int py = (int) Math.round(y + radius * Math.sin(angle));
+            if (!region.contains(px, py)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The snap point of a circle is its center.
+     */
+    @Override
+    public List<Point> getSnapPoints() {
+        return Collections.singletonList(new Point(x, y));
+    }
+
     @Override
     public void setEndpoint(int x, int y) {
         radius = (int) Math.sqrt((this.x - x)*(this.x - x) + (this.y - y)*(this.y - y));
@@ -208,8 +275,29 @@ public class Circle extends GeometricalObject {
     }
 
     @Override
-    public String getName() {
-        return "Circle " + instance;
+    public String getTypeName() {
+        return "Circle";
+    }
+
+    @Override
+    public ShapeType getShapeType() {
+        return ShapeType.CIRCLE;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize(0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Fields declared by the {@code Circle} class are added to the fields
+     * declared by a subclass.
+     */
+    @Override
+    protected long estimateSize(int fieldsSize, int colors) {
+        return super.estimateSize(3*Integer.BYTES + REFERENCE + fieldsSize, 1 + colors);
     }
 
     @Override
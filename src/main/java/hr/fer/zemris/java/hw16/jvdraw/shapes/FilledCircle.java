@@ -2,6 +2,7 @@ package hr.fer.zemris.java.hw16.jvdraw.shapes;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.util.Objects;
 
 import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.AbstractShapePanel;
@@ -40,6 +41,9 @@ public class FilledCircle extends Circle {
      */
     public FilledCircle(Circle circle) {
         this(circle.x, circle.y, circle.radius);
+        if (circle.getForeground() != null) {
+            setForeground(circle.getForeground());
+        }
     }
 
     /**
@@ -84,7 +88,6 @@ public class FilledCircle extends Circle {
             throw new IllegalArgumentException("Filled circle must contain 9 elements.");
         }
 
-        instanceCounter--; // this is a "transformation"
         FilledCircle filledCircle = new FilledCircle(parseWithoutCheck(s));
 
         int r = Integer.parseInt(arguments[7]);
@@ -121,6 +124,28 @@ public class FilledCircle extends Circle {
         super.draw(area, offsetX, offsetY);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The filled circle is hit anywhere in its interior or at most tolerance
+     * pixels away from its outline.
+     */
+    @Override
+    public boolean isHit(int x, int y, int tolerance) {
+        return Math.hypot(x - this.x, y - this.y) <= radius + tolerance;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The filled circle intersects the rectangle if the nearest point of the
+     * rectangle is inside of the circle.
+     */
+    @Override
+    public boolean intersects(Rectangle r) {
+        return nearestDistance(r) <= radius;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -141,6 +166,16 @@ public class FilledCircle extends Circle {
         return serialize(this);
     }
 
+    @Override
+    public ShapeType getShapeType() {
+        return ShapeType.FCIRCLE;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize(REFERENCE, 1);
+    }
+
     @Override
     public AbstractShapePanel getModificationPanel() {
         return new FilledCirclePanel(this);
@@ -2,7 +2,9 @@ package hr.fer.zemris.java.hw16.jvdraw.shapes;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.util.List;
 
 import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.AbstractShapePanel;
 
@@ -21,6 +23,18 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.AbstractShapePanel;
  */
 public abstract class GeometricalObject {
 
+    /** Size of an object header in bytes, with compressed references. */
+    protected static final int OBJECT_HEADER = 12;
+    /** Size of a compressed object reference in bytes. */
+    protected static final int REFERENCE = 4;
+    /** Estimated size of a {@link Color} object in bytes. */
+    protected static final int COLOR_SIZE = 32;
+
+    /** Instance number of this shape, <tt>0</tt> if not yet assigned. */
+    private int instance;
+    /** Cached name of this shape, <tt>null</tt> if not yet built. */
+    private String name;
+
     /**
      * Draws the current shape to the specified <tt>area</tt> considering the
      * specified offset <tt>offsetX</tt> and <tt>offsetY</tt>.
@@ -80,6 +94,45 @@ public abstract class GeometricalObject {
      */
     public abstract Rectangle getBoundingBox();
 
+    /**
+     * Returns <tt>true</tt> if the point <tt>(x, y)</tt> lies on this shape,
+     * allowing it to be at most <tt>tolerance</tt> pixels away from the drawn
+     * pixels of the shape. Outlines are hit only near the outline itself,
+     * while filled shapes are hit anywhere in their interior.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @param tolerance maximum distance of the point from the shape
+     * @return true if the point lies on this shape
+     */
+    public abstract boolean isHit(int x, int y, int tolerance);
+
+    /**
+     * Returns <tt>true</tt> if any drawn pixel of this shape lies in the
+     * specified rectangle <tt>r</tt>, including the interior of filled shapes.
+     *
+     * @param r rectangle to be tested
+     * @return true if this shape intersects the rectangle
+     */
+    public abstract boolean intersects(Rectangle r);
+
+    /**
+     * Returns <tt>true</tt> if every pixel of this shape's outline lies in the
+     * specified <tt>region</tt>.
+     *
+     * @param region region to be tested
+     * @return true if this shape lies inside the region
+     */
+    public abstract boolean isInside(Region region);
+
+    /**
+     * Returns the characteristic points of this shape that other shapes can
+     * snap to while being drawn, such as endpoints, centers or corners.
+     *
+     * @return a list of snap points of this shape
+     */
+    public abstract List<Point> getSnapPoints();
+
     /**
      * Sets the endpoint of this shape. This method is called while the shape is
      * being drawn across the canvas and is used for preview purposes.
@@ -97,18 +150,112 @@ public abstract class GeometricalObject {
      */
     public abstract String serialize();
 
+    /**
+     * Returns the name of the type of this shape, which is the first part of
+     * the shape {@link #getName() name}. Shapes whose type names are equal
+     * share the same instance numbering.
+     *
+     * @return the name of the type of this shape
+     */
+    public abstract String getTypeName();
+
+    /**
+     * Returns the type of this shape, which determines its serialized form.
+     *
+     * @return the type of this shape
+     */
+    public abstract ShapeType getShapeType();
+
+    /**
+     * Returns an estimate of the number of bytes retained by this shape on a
+     * 64-bit virtual machine with compressed references, including its colors
+     * and its cached name.
+     * <p>
+     * The estimate depends only on the type and the instance number of the
+     * shape, so it does not change while the shape is being altered.
+     *
+     * @return an estimate of the size of this shape in bytes
+     */
+    public abstract long estimateSize();
+
+    /**
+     * Returns an estimate of the number of bytes retained by this shape, given
+     * the size of the fields declared by its class and the number of colors
+     * it references.
+     *
+     * @param fieldsSize size of the fields declared by the shape class
+     * @param colors number of referenced colors
+     * @return an estimate of the size of this shape in bytes
+     */
+    protected long estimateSize(int fieldsSize, int colors) {
+        long size = align(OBJECT_HEADER + Integer.BYTES + REFERENCE + fieldsSize);
+        size += (long) colors * COLOR_SIZE;
+
+        if (instance != 0) {
+            int length = getTypeName().length() + 1 + Integer.toString(instance).length();
+            size += align(OBJECT_HEADER + REFERENCE + Integer.BYTES + 2) + align(OBJECT_HEADER + Integer.BYTES + length);
+        }
+
+        return size;
+    }
+
+    /**
+     * Aligns the specified object size to the 8 byte boundary.
+     *
+     * @param size size to be aligned
+     * @return the aligned size
+     */
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Returns the instance number of this shape, or <tt>0</tt> if it was not
+     * yet assigned.
+     * <p>
+     * Instance numbers are assigned by the drawing model that owns the shape,
+     * when the shape is added to it, so shapes can be freely constructed on
+     * any thread.
+     *
+     * @return the instance number of this shape, or 0
+     */
+    public int getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the instance number of this shape.
+     *
+     * @param instance the instance number
+     */
+    public void setInstance(int instance) {
+        this.instance = instance;
+        this.name = null;
+    }
+
     /**
      * Returns the name of this shape, containing shape's identifier. For
-     * example, if this shape is the second instance of its own class, it's name
-     * would be:
+     * example, if this shape is the second instance of its own type in the
+     * document, it's name would be:
      *
      * <pre>
      * ShapeName 2
      * </pre>
      *
+     * The name is built once and cached. Until an instance number is assigned,
+     * only the {@link #getTypeName() type name} is returned.
+     *
      * @return the name of this shape containing its identifier
      */
-    public abstract String getName();
+    public String getName() {
+        if (name == null) {
+            if (instance == 0) {
+                return getTypeName();
+            }
+            name = getTypeName() + " " + instance;
+        }
+        return name;
+    }
 
     @Override
     public String toString() {
@@ -2,7 +2,11 @@ package hr.fer.zemris.java.hw16.jvdraw.shapes;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.List;
 
 import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.AbstractShapePanel;
 import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.LinePanel;
@@ -19,11 +23,6 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.LinePanel;
  */
 public class Line extends GeometricalObject {
 
-    /** Counter of this class' instantiated objects. */
-    private static int instanceCounter = 0;
-    /** Instance index of this object. */
-    private int instance;
-
     /** Horizontal position of start point. */
     private int x0;
     /** Vertical position of start point. */
@@ -49,11 +48,6 @@ public class Line extends GeometricalObject {
         this.y0 = y0;
         this.x1 = x1;
         this.y1 = y1;
-
-        synchronized (Line.class) {
-            instanceCounter++;
-            instance = instanceCounter;
-        }
     }
 
     /**
@@ -66,13 +60,6 @@ public class Line extends GeometricalObject {
         this(x, y, x, y);
     }
 
-    /**
-     * Resets the instance counter of this class.
-     */
-    public static void resetCounter() {
-        instanceCounter = 0;
-    }
-
     /**
      * Returns a {@link ShapeCreator} object for this class.
      *
@@ -184,6 +171,56 @@ public class Line extends GeometricalObject {
         return new Rectangle(startX, startY, endX-startX, endY-startY);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The line is hit if the distance of the point from the line segment is
+     * not greater than the tolerance.
+     */
+    @Override
+    public boolean isHit(int x, int y, int tolerance) {
+        return Line2D.ptSegDistSq(x0, y0, x1, y1, x, y) <= (double) tolerance * tolerance;
+    }
+
+    @Override
+    public boolean intersects(Rectangle r) {
+        return r.intersectsLine(x0, y0, x1, y1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Pixels of the line are visited from the start point to the end point
+     * with a step of one pixel along the longer axis.
+     */
+    @Override
+    public boolean isInside(Region region) {
+        int dx = x1 - x0;
+        int dy = y1 - y0;
+        int steps = Math.max(Math.abs(dx), Math.abs(dy));
+
+        for (int i = 0; i <= steps; i++) {
+            double t = steps == 0 ? 0 : (double) i / steps;
+            int x = (int) Math.round(x0 + t*dx);
+            int y = (int) Math.round(y0 + t*dy);
+            if (!region.contains(x, y)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Snap points of a line are its start point and end point.
+     */
+    @Override
+    public List<Point> getSnapPoints() {
+        return Arrays.asList(new Point(x0, y0), new Point(x1, y1));
+    }
+
     @Override
     public void setEndpoint(int x, int y) {
         x1 = x;
@@ -196,8 +233,18 @@ public class Line extends GeometricalObject {
     }
 
     @Override
-    public String getName() {
-        return "Line " + instance;
+    public String getTypeName() {
+        return "Line";
+    }
+
+    @Override
+    public ShapeType getShapeType() {
+        return ShapeType.LINE;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize(4*Integer.BYTES + REFERENCE, 1);
     }
 
     @Override
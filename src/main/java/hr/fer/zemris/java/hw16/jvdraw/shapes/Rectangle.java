@@ -2,6 +2,9 @@ package hr.fer.zemris.java.hw16.jvdraw.shapes;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
 
 import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.AbstractShapePanel;
 import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.RectanglePanel;
@@ -18,11 +21,6 @@ import hr.fer.zemris.java.hw16.jvdraw.shapes.panels.RectanglePanel;
  */
 public class Rectangle extends GeometricalObject {
 
-    /** Counter of this class' instantiated objects. */
-    private static int instanceCounter = 0;
-    /** Instance index of this object. */
-    private int instance;
-
     /** The x coordinate of the starting point. */
     private int x;
     /** The y coordinate of the starting point. */
@@ -48,11 +46,6 @@ public class Rectangle extends GeometricalObject {
         this.y = y;
         this.w = w;
         this.h = h;
-
-        synchronized (Rectangle.class) {
-            instanceCounter++;
-            instance = instanceCounter;
-        }
     }
 
     /**
@@ -65,13 +58,6 @@ public class Rectangle extends GeometricalObject {
         this(x, y, 0, 0);
     }
 
-    /**
-     * Resets the instance counter of this class.
-     */
-    public static void resetCounter() {
-        instanceCounter = 0;
-    }
-
     /**
      * Returns a {@link ShapeCreator} object for this class.
      *
@@ -189,7 +175,79 @@ public class Rectangle extends GeometricalObject {
 
     @Override
     public java.awt.Rectangle getBoundingBox() {
-        return new java.awt.Rectangle(x, y, w, h);
+        int startX = Math.min(x, x+w);
+        int startY = Math.min(y, y+h);
+
+        return new java.awt.Rectangle(startX, startY, Math.abs(w), Math.abs(h));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The rectangle is hit if the point is at most tolerance pixels away from
+     * any of its edges.
+     */
+    @Override
+    public boolean isHit(int x, int y, int tolerance) {
+        java.awt.Rectangle r = getBoundingBox();
+
+        boolean inOuter = x >= r.x - tolerance && x <= r.x + r.width + tolerance
+                && y >= r.y - tolerance && y <= r.y + r.height + tolerance;
+        boolean inInner = x > r.x + tolerance && x < r.x + r.width - tolerance
+                && y > r.y + tolerance && y < r.y + r.height - tolerance;
+
+        return inOuter && !inInner;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The rectangle outline intersects the specified rectangle unless they are
+     * disjoint or the specified rectangle lies strictly inside the outline.
+     */
+    @Override
+    public boolean intersects(java.awt.Rectangle r) {
+        java.awt.Rectangle b = getBoundingBox();
+
+        boolean disjoint = r.x > b.x + b.width || r.x + r.width < b.x
+                || r.y > b.y + b.height || r.y + r.height < b.y;
+        boolean strictlyInside = r.x > b.x && r.x + r.width < b.x + b.width
+                && r.y > b.y && r.y + r.height < b.y + b.height;
+
+        return !disjoint && !strictlyInside;
+    }
+
+    @Override
+    public boolean isInside(Region region) {
+        java.awt.Rectangle b = getBoundingBox();
+        int maxX = b.x + b.width;
+        int maxY = b.y + b.height;
+
+        for (int x = b.x; x <= maxX; x++) {
+            if (!region.contains(x, b.y) || !region.contains(x, maxY)) {
+                return false;
+            }
+        }
+        for (int y = b.y; y <= maxY; y++) {
+            if (!region.contains(b.x, y) || !region.contains(maxX, y)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Snap points of a rectangle are its four corners.
+     */
+    @Override
+    public List<Point> getSnapPoints() {
+        return Arrays.asList(
+            new Point(x, y), new Point(x+w, y),
+            new Point(x, y+h), new Point(x+w, y+h)
+        );
     }
 
     @Override
@@ -204,8 +262,18 @@ public class Rectangle extends GeometricalObject {
     }
 
     @Override
-    public String getName() {
-        return "Rectangle " + instance;
+    public String getTypeName() {
+        return "Rectangle";
+    }
+
+    @Override
+    public ShapeType getShapeType() {
+        return ShapeType.RECTANGLE;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimateSize(4*Integer.BYTES + REFERENCE, 1);
     }
 
     @Override
@@ -0,0 +1,23 @@
+package hr.fer.zemris.java.hw16.jvdraw.shapes;
+
+/**
+ * A region of the drawing plane that can tell whether it contains a pixel.
+ * Regions are used to test whether a shape lies inside of an arbitrary area,
+ * such as a freeform lasso selection.
+ *
+ * @author Mario Bobic
+ */
+@FunctionalInterface
+public interface Region {
+
+    /**
+     * Returns <tt>true</tt> if this region contains the pixel at the specified
+     * coordinates.
+     *
+     * @param x x coordinate of the pixel
+     * @param y y coordinate of the pixel
+     * @return true if this region contains the pixel
+     */
+    public boolean contains(int x, int y);
+
+}
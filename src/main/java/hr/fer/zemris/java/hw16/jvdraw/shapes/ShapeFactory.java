@@ -1,6 +1,8 @@
 package hr.fer.zemris.java.hw16.jvdraw.shapes;
 
 import java.awt.event.ActionEvent;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -79,17 +81,6 @@ public class ShapeFactory {
         return list;
     }
 
-    /**
-     * Resets the instance counter of all shape classes.
-     * <p>
-     * This method is used when a workspace reset is required.
-     */
-    public static void resetInstanceCounters() {
-        Line.resetCounter();
-        Circle.resetCounter();
-        Rectangle.resetCounter();
-    }
-
     /**
      * Parses the specified string <tt>s</tt> as an instance of
      * {@code GeometricalObject} object. The specified string must match
@@ -97,6 +88,9 @@ public class ShapeFactory {
      * <p>
      * Throws {@link IllegalArgumentException} if the string can not be parsed
      * as either of the {@code GeometricalObject} object.
+     * <p>
+     * The string is parsed by a {@link ShapeTokenizer}, so it may contain any
+     * amount of whitespace around the elements.
      *
      * @param s string to be parsed
      * @return a {@code GeometricalObject} object parsed from the specified string
@@ -104,19 +98,17 @@ public class ShapeFactory {
      * @throws IllegalArgumentException if <tt>s</tt> can not be parsed
      */
     public static GeometricalObject parse(String s) {
-        s = s.replaceAll("\\s+", " ").trim();
-
-        if (s.startsWith("LINE")) {
-            return Line.parse(s);
-        } else if (s.startsWith("CIRCLE")) {
-            return Circle.parse(s);
-        } else if (s.startsWith("FCIRCLE")) {
-            return FilledCircle.parse(s);
-        } else if (s.startsWith("RECTANGLE")) {
-            return Rectangle.parse(s);
-        } else {
+        ByteBuffer buffer = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+        ShapeTokenizer tokenizer = new ShapeTokenizer(buffer);
+        if (!tokenizer.hasNext()) {
             throw new IllegalArgumentException("Can not determine object type.");
         }
+
+        GeometricalObject shape = tokenizer.next();
+        if (tokenizer.hasNext()) {
+            throw new IllegalArgumentException("Expected a single shape.");
+        }
+        return shape;
     }
 
     /**
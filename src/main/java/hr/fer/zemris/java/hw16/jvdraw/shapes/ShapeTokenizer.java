@@ -0,0 +1,270 @@
+package hr.fer.zemris.java.hw16.jvdraw.shapes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A tokenizer of the shape text format that scans raw bytes of a document and
+ * builds shapes directly, one shape per line.
+ * <p>
+ * Keywords are matched byte by byte and integers are parsed in place, so no
+ * strings or other temporary objects are created while scanning; the only
+ * allocated objects are the shapes and their colors. Any amount of whitespace
+ * is allowed before, between and after the elements of a line, as long as
+ * elements are separated by at least one whitespace character. Lines are
+ * terminated by <tt>'\n'</tt>, optionally preceded by <tt>'\r'</tt>.
+ * <p>
+ * The tokenizer reads from the position to the limit of a {@link ByteBuffer},
+ * which may be a heap buffer or a memory-mapped file, and advances the
+ * position of the buffer past each parsed line. A tokenizer can be
+ * {@link #reset(ByteBuffer) reset} to continue with another buffer, while
+ * line numbers keep counting.
+ *
+ * @author Mario Bobic
+ */
+public class ShapeTokenizer {
+
+    /** Keywords of shape types, indexed by type ordinals. */
+    private static final byte[][] KEYWORDS = new byte[ShapeType.values().length][];
+
+    static {
+        for (ShapeType type : ShapeType.values()) {
+            KEYWORDS[type.ordinal()] = type.getKeyword().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /** All shape types. */
+    private static final ShapeType[] TYPES = ShapeType.values();
+
+    /** Buffer being tokenized. */
+    private ByteBuffer buffer;
+    /** Current position in the buffer. */
+    private int pos;
+    /** Limit of the buffer. */
+    private int limit;
+    /** Number of lines started so far. */
+    private int lineNumber;
+    /** Position of the start of the current line. */
+    private int lineStart;
+
+    /** Arguments of the shape being parsed, reused for every shape. */
+    private final int[] args = new int[ShapeType.MAX_ARGUMENTS];
+
+    /**
+     * Constructs an instance of {@code ShapeTokenizer} with no buffer. A
+     * buffer must be set with {@link #reset(ByteBuffer)} before tokenizing.
+     */
+    public ShapeTokenizer() {
+    }
+
+    /**
+     * Constructs an instance of {@code ShapeTokenizer} that reads from the
+     * specified <tt>buffer</tt>.
+     *
+     * @param buffer buffer to be tokenized
+     */
+    public ShapeTokenizer(ByteBuffer buffer) {
+        reset(buffer);
+    }
+
+    /**
+     * Continues tokenizing from the position to the limit of the specified
+     * <tt>buffer</tt>. The buffer should begin at the start of a line.
+     *
+     * @param buffer buffer to be tokenized
+     */
+    public void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.pos = buffer.position();
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * Returns <tt>true</tt> if there are more lines in the buffer.
+     *
+     * @return true if there are more lines in the buffer
+     */
+    public boolean hasNext() {
+        return pos < limit;
+    }
+
+    /**
+     * Returns the number of lines started so far, which is the number of the
+     * last line parsed, or the erroneous line if parsing failed.
+     *
+     * @return the number of lines started so far
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Parses the next line of the buffer as a shape and returns it, advancing
+     * the position of the buffer to the start of the following line.
+     * <p>
+     * If the line can not be parsed, the position is still advanced past the
+     * line, so tokenizing may continue with the following line.
+     *
+     * @return the shape parsed from the next line
+     * @throws IllegalStateException if there are no more lines
+     * @throws IllegalArgumentException if the line can not be parsed
+     */
+    public GeometricalObject next() {
+        if (pos >= limit) {
+            throw new IllegalStateException("No more lines.");
+        }
+        lineNumber++;
+        lineStart = pos;
+
+        try {
+            skipWhitespace();
+            ShapeType type = keyword();
+            for (int i = 0, n = type.getArgumentCount(); i < n; i++) {
+                if (!skipWhitespace()) {
+                    throw error(type.getKeyword() + " must contain " + n + " elements.");
+                }
+                args[i] = integer();
+            }
+
+            skipWhitespace();
+            if (pos < limit && buffer.get(pos) != '\n') {
+                throw error(type.getKeyword() + " must contain " + type.getArgumentCount() + " elements.");
+            }
+            GeometricalObject shape = type.create(args);
+
+            pos++;
+            buffer.position(Math.min(pos, limit));
+            return shape;
+        } catch (IllegalArgumentException e) {
+            skipLine();
+            throw e;
+        }
+    }
+
+    /**
+     * Skips whitespace characters of the current line, but not the line
+     * terminator.
+     *
+     * @return true if any whitespace was skipped
+     */
+    private boolean skipWhitespace() {
+        int start = pos;
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return pos > start;
+    }
+
+    /**
+     * Advances the position past the current line.
+     */
+    private void skipLine() {
+        while (pos < limit && buffer.get(pos) != '\n') {
+            pos++;
+        }
+        pos++;
+        buffer.position(Math.min(pos, limit));
+    }
+
+    /**
+     * Matches the keyword at the current position and returns its shape type.
+     * The keyword must be followed by whitespace or the end of the line.
+     *
+     * @return the shape type of the keyword
+     * @throws IllegalArgumentException if there is no keyword at the position
+     */
+    private ShapeType keyword() {
+        outer:
+        for (int t = 0; t < KEYWORDS.length; t++) {
+            byte[] keyword = KEYWORDS[t];
+            int end = pos + keyword.length;
+            if (end > limit) {
+                continue;
+            }
+            for (int i = 0; i < keyword.length; i++) {
+                if (buffer.get(pos + i) != keyword[i]) {
+                    continue outer;
+                }
+            }
+            if (end < limit && !isSeparator(buffer.get(end))) {
+                continue;
+            }
+
+            pos = end;
+            return TYPES[t];
+        }
+
+        throw error("Can not determine object type.");
+    }
+
+    /**
+     * Parses the integer at the current position, with an optional sign. The
+     * integer must be followed by whitespace or the end of the line.
+     *
+     * @return the parsed integer
+     * @throws IllegalArgumentException if there is no valid integer at the
+     *         position
+     */
+    private int integer() {
+        boolean negative = false;
+        if (pos < limit) {
+            byte sign = buffer.get(pos);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                pos++;
+            }
+        }
+
+        int start = pos;
+        long value = 0;
+        while (pos < limit) {
+            int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw error("Number is out of range.");
+            }
+            pos++;
+        }
+
+        if (pos == start || (pos < limit && !isSeparator(buffer.get(pos)))) {
+            throw error("Invalid number.");
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw error("Number is out of range.");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified byte is whitespace or a line
+     * terminator.
+     *
+     * @param b byte to be tested
+     * @return true if the byte separates elements
+     */
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * Returns an exception with the specified message and the column at which
+     * the error occurred.
+     *
+     * @param message message of the exception
+     * @return an exception to be thrown
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " (column " + (pos - lineStart + 1) + ")");
+    }
+
+}
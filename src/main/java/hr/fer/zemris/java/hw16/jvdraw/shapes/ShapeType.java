@@ -0,0 +1,255 @@
+package hr.fer.zemris.java.hw16.jvdraw.shapes;
+
+import java.awt.Color;
+
+/**
+ * Types of geometric shapes that can be stored in a document. Each type has
+ * a keyword that starts its serialized form and a fixed number of integer
+ * arguments that follow the keyword, in the order they are serialized.
+ *
+ * @author Mario Bobic
+ */
+public enum ShapeType {
+
+    /** A {@link Line}: start point, end point and color. */
+    LINE(7, 1) {
+        @Override
+        public GeometricalObject create(int[] args) {
+            Line line = new Line(args[0], args[1], args[2], args[3]);
+            line.setForeground(new Color(args[4], args[5], args[6]));
+            return line;
+        }
+
+        @Override
+        public void getArguments(GeometricalObject shape, int[] args) {
+            Line line = (Line) shape;
+            args[0] = line.getX0();
+            args[1] = line.getY0();
+            args[2] = line.getX1();
+            args[3] = line.getY1();
+            putColor(line.getForeground(), args, 4);
+        }
+    },
+
+    /** A {@link Circle}: center, radius and outline color. */
+    CIRCLE(6, 1) {
+        @Override
+        public GeometricalObject create(int[] args) {
+            Circle circle = new Circle(args[0], args[1], args[2]);
+            circle.setForeground(new Color(args[3], args[4], args[5]));
+            return circle;
+        }
+
+        @Override
+        public void getArguments(GeometricalObject shape, int[] args) {
+            Circle circle = (Circle) shape;
+            args[0] = circle.getX();
+            args[1] = circle.getY();
+            args[2] = circle.getRadius();
+            putColor(circle.getForeground(), args, 3);
+        }
+    },
+
+    /** A {@link FilledCircle}: center, radius, outline color and fill color. */
+    FCIRCLE(9, 2) {
+        @Override
+        public GeometricalObject create(int[] args) {
+            FilledCircle filledCircle = new FilledCircle(args[0], args[1], args[2]);
+            filledCircle.setForeground(new Color(args[3], args[4], args[5]));
+            filledCircle.setBackground(new Color(args[6], args[7], args[8]));
+            return filledCircle;
+        }
+
+        @Override
+        public void getArguments(GeometricalObject shape, int[] args) {
+            FilledCircle filledCircle = (FilledCircle) shape;
+            args[0] = filledCircle.getX();
+            args[1] = filledCircle.getY();
+            args[2] = filledCircle.getRadius();
+            putColor(filledCircle.getForeground(), args, 3);
+            putColor(filledCircle.getBackground(), args, 6);
+        }
+    },
+
+    /** A {@link Rectangle}: starting point, width, height and outline color. */
+    RECTANGLE(7, 1) {
+        @Override
+        public GeometricalObject create(int[] args) {
+            Rectangle rectangle = new Rectangle(args[0], args[1], args[2], args[3]);
+            rectangle.setForeground(new Color(args[4], args[5], args[6]));
+            return rectangle;
+        }
+
+        @Override
+        public void getArguments(GeometricalObject shape, int[] args) {
+            Rectangle rectangle = (Rectangle) shape;
+            args[0] = rectangle.getX();
+            args[1] = rectangle.getY();
+            args[2] = rectangle.getW();
+            args[3] = rectangle.getH();
+            putColor(rectangle.getForeground(), args, 4);
+        }
+    };
+
+    /** Largest number of arguments of any shape type. */
+    public static final int MAX_ARGUMENTS = 9;
+
+    /** Number of integer arguments of this type. */
+    private final int argumentCount;
+    /** Number of colors among the arguments of this type. */
+    private final int colorCount;
+
+    /**
+     * Constructs a shape type with the specified number of arguments, the
+     * last <tt>colorCount</tt> triples of which are color components.
+     *
+     * @param argumentCount number of integer arguments
+     * @param colorCount number of colors
+     */
+    private ShapeType(int argumentCount, int colorCount) {
+        this.argumentCount = argumentCount;
+        this.colorCount = colorCount;
+    }
+
+    /**
+     * Returns the number of integer arguments of this type.
+     *
+     * @return the number of integer arguments
+     */
+    public int getArgumentCount() {
+        return argumentCount;
+    }
+
+    /**
+     * Returns the number of colors of this type. Colors are the last
+     * arguments, three red, green and blue components per color.
+     *
+     * @return the number of colors
+     */
+    public int getColorCount() {
+        return colorCount;
+    }
+
+    /**
+     * Returns the keyword that starts the serialized form of this type, which
+     * is the name of this constant.
+     *
+     * @return the keyword of this type
+     */
+    public String getKeyword() {
+        return name();
+    }
+
+    /**
+     * Creates a shape of this type from the specified arguments, given in the
+     * order they are serialized. Only the first {@link #getArgumentCount()}
+     * elements of the array are used.
+     *
+     * @param args arguments of the shape
+     * @return a shape of this type
+     * @throws IllegalArgumentException if a color component is out of range
+     */
+    public abstract GeometricalObject create(int[] args);
+
+    /**
+     * Stores the arguments of the specified <tt>shape</tt> of this type into
+     * the first {@link #getArgumentCount()} elements of the specified array,
+     * in the order they are serialized. This is the inverse of
+     * {@link #create(int[])}.
+     *
+     * @param shape shape of this type
+     * @param args array to store the arguments to
+     * @throws ClassCastException if the shape is not of this type
+     */
+    public abstract void getArguments(GeometricalObject shape, int[] args);
+
+    /**
+     * Returns a 64-bit hash of the type, the geometry and the colors of the
+     * specified <tt>shape</tt>. Shapes that are drawn the same have the same
+     * hash, regardless of their names.
+     *
+     * @param shape shape to be hashed
+     * @param args array of at least {@link #MAX_ARGUMENTS} elements to use for
+     *        the arguments of the shape
+     * @return the hash of the shape
+     */
+    public static long hash(GeometricalObject shape, int[] args) {
+        ShapeType type = shape.getShapeType();
+        type.getArguments(shape, args);
+
+        long h = type.ordinal() + 1;
+        for (int i = 0, n = type.argumentCount; i < n; i++) {
+            h = (h + args[i]) * 0x9E3779B97F4A7C15L;
+        }
+
+        // Finalizer of MurmurHash3, spreads the bits over the whole hash
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns a new shape with the same type, geometry and colors as the
+     * specified <tt>shape</tt>, which is drawn the same and does not change
+     * when the shape is edited.
+     *
+     * @param shape shape to be copied
+     * @param args array of at least {@link #MAX_ARGUMENTS} elements to use for
+     *        the arguments of the shape
+     * @return a copy of the shape
+     */
+    public static GeometricalObject copy(GeometricalObject shape, int[] args) {
+        ShapeType type = shape.getShapeType();
+        type.getArguments(shape, args);
+        return type.create(args);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified shapes have the same type,
+     * geometry and colors, which means they are drawn the same, regardless of
+     * their names. Equal shapes have the same
+     * {@link #hash(GeometricalObject, int[]) hash}, but shapes with the same
+     * hash are not always equal.
+     *
+     * @param shape1 the first shape
+     * @param shape2 the second shape
+     * @param args1 array of at least {@link #MAX_ARGUMENTS} elements to use
+     *        for the arguments of the first shape
+     * @param args2 array of at least {@link #MAX_ARGUMENTS} elements to use
+     *        for the arguments of the second shape
+     * @return true if the shapes are drawn the same
+     */
+    public static boolean equal(GeometricalObject shape1, GeometricalObject shape2, int[] args1, int[] args2) {
+        ShapeType type = shape1.getShapeType();
+        if (type != shape2.getShapeType()) {
+            return false;
+        }
+
+        type.getArguments(shape1, args1);
+        type.getArguments(shape2, args2);
+        for (int i = 0, n = type.argumentCount; i < n; i++) {
+            if (args1[i] != args2[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the red, green and blue components of the specified
+     * <tt>color</tt> into the array, starting from <tt>offset</tt>.
+     *
+     * @param color color to be stored
+     * @param args array to store the components to
+     * @param offset index of the red component
+     */
+    private static void putColor(Color color, int[] args, int offset) {
+        args[offset] = color.getRed();
+        args[offset + 1] = color.getGreen();
+        args[offset + 2] = color.getBlue();
+    }
+
+}